@@ -339,14 +339,18 @@ public abstract class Kara {
 	 * only after the act method finishes.
 	 */
 	private void refresh() {
-		getWorld().refresh();
+		if (!getWorld().isMacroRunning()) {
+			getWorld().refresh();
+		}
 	}
 
 	/**
 	 * Delays for one simulation period (depending on the speed slider).
 	 */
 	private void delay() {
-		GameGrid.delay(getWorld().getSimulationPeriod());
+		if (!getWorld().isMacroRunning()) {
+			GameGrid.delay(getWorld().getSimulationPeriod());
+		}
 	}
 	
 	/** 
@@ -6,23 +6,31 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
+import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.swing.ImageIcon;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPopupMenu;
+import javax.swing.SwingUtilities;
 
 import ch.aplu.jgamegrid.Actor;
+import ch.aplu.jgamegrid.GGKeyListener;
 import ch.aplu.jgamegrid.GGMouse;
 import ch.aplu.jgamegrid.GGMouseListener;
+import ch.aplu.jgamegrid.GGNavigationListener;
 import ch.aplu.jgamegrid.GGResetListener;
 import ch.aplu.jgamegrid.GGTileMap;
 import ch.aplu.jgamegrid.GameGrid;
@@ -36,7 +44,10 @@ import ch.aplu.jgamegrid.Location;
  */
 @SuppressWarnings("serial")
 public class KaraWorld extends GameGrid implements GGMouseListener,
-		GGResetListener {
+		GGResetListener, GGKeyListener {
+	
+	// Maximal number of pressed keys that are kept until they are read
+	private static final int KEY_QUEUE_SIZE = 32;
 	
 	// Size of one cell
 	public static final int CELL_SIZE = 28; 
@@ -76,6 +87,33 @@ public class KaraWorld extends GameGrid implements GGMouseListener,
     
     private int resetCountDown = -1;
     
+    /**
+     * Watches the world setup file for changes. Is <code>null</code> if the
+     * world setup was not loaded from a file.
+     */
+    private WorldFileWatcher worldFileWatcher;
+    
+    /**
+     * A changed world setup that still needs to be applied to the world.
+     */
+    private WorldSetup pendingWorldSetup;
+    
+    /**
+     * The world after every step since the last reset. Is <code>null</code>
+     * if the history is not recorded.
+     */
+    private WorldSetupHistory worldHistory;
+    
+    /**
+     * The keys that were pressed and not yet read with getKey().
+     */
+    private final KeyQueue keyQueue = new KeyQueue(KEY_QUEUE_SIZE);
+    
+    /**
+     * True while Kara makes several moves at once without repainting.
+     */
+    private boolean macroRunning;
+    
 	/**
 	 * Loads the Kara World from the specified world setup file <br>
 	 * <i>Laedt die Kara Welt von der angegebenen Datei</i>
@@ -135,6 +173,10 @@ public class KaraWorld extends GameGrid implements GGMouseListener,
 		addMouseListener(this, GGMouse.rClick);
 		
 		addResetListener(this);
+		addNavigationListener(new NavigationListener());
+		
+		// queue all key presses for getKey()
+		addKeyListener(this);
 	}
 	
 	/**
@@ -312,53 +354,298 @@ public class KaraWorld extends GameGrid implements GGMouseListener,
 	public void initActorsFromWorldSetup(WorldSetup worldSetup) {
 		for (int y = 0; y < worldSetup.getHeight(); y++) {
 			for (int x = 0; x < worldSetup.getWidth(); x++) {
-				switch (worldSetup.getActorTypeAt(x, y)) {
-				case WorldSetup.KARA:
-					addObject(createNewKaraInstance(), x, y);
-					break;
-				case WorldSetup.TREE:
-					addObject(new Tree(), x, y);
-					break;
-				case WorldSetup.LEAF:
-					addObject(new Leaf(), x, y);
-					break;
-				case WorldSetup.MUSHROOM:
-					addObject(new Mushroom(), x, y);
-					break;
-				case WorldSetup.MUSHROOM_LEAF:
-					addObject(new Mushroom(true), x, y);
-					addObject(new Leaf(), x, y);
-					break;
-				case WorldSetup.KARA_LEAF:
-					addObject(createNewKaraInstance(), x, y);
-					addObject(new Leaf(), x, y);
-					break;
-				}
+				addActorsFromType(worldSetup.getActorTypeAt(x, y), x, y);
 			}
 		}
 		
 		String karaDirection = worldSetup.getAttribute(KARA_DIRECTION_KEY);
 		if (karaDirection != null) {
-			
-			if (karaDirection.equalsIgnoreCase(DIRECTION_DOWN)) {
-				for (Actor actor : getActors(Kara.KaraDelegate.class)) {
-					Kara kara = ((Kara.KaraDelegate) actor).getKara();
-					kara.turnRight();
+			for (Actor actor : getActors(Kara.KaraDelegate.class)) {
+				turnKara(((Kara.KaraDelegate) actor).getKara(), karaDirection);
+			}
+		}
+	}
+	
+	/**
+	 * Adds the actors for the actor type (see {@link WorldSetup}) at the
+	 * specified position.
+	 */
+	private void addActorsFromType(char actorType, int x, int y) {
+		switch (actorType) {
+		case WorldSetup.KARA:
+			addObject(createNewKaraInstance(), x, y);
+			break;
+		case WorldSetup.TREE:
+			addObject(new Tree(), x, y);
+			break;
+		case WorldSetup.LEAF:
+			addObject(new Leaf(), x, y);
+			break;
+		case WorldSetup.MUSHROOM:
+			addObject(new Mushroom(), x, y);
+			break;
+		case WorldSetup.MUSHROOM_LEAF:
+			addObject(new Mushroom(true), x, y);
+			addObject(new Leaf(), x, y);
+			break;
+		case WorldSetup.KARA_LEAF:
+			addObject(createNewKaraInstance(), x, y);
+			addObject(new Leaf(), x, y);
+			break;
+		}
+	}
+	
+	/**
+	 * Turns Kara from the original direction (right) to the specified
+	 * direction.
+	 */
+	private void turnKara(Kara kara, String karaDirection) {
+		if (karaDirection.equalsIgnoreCase(DIRECTION_DOWN)) {
+			kara.turnRight();
+		} else if (karaDirection.equalsIgnoreCase(DIRECTION_LEFT)) {
+			kara.turnRight();
+			kara.turnRight();
+		} else if (karaDirection.equalsIgnoreCase(DIRECTION_UP)) {
+			kara.turnLeft();
+		}
+		// DIRECTION_RIGHT is the original direction - do nothing
+	}
+	
+	/**
+	 * Sets if the world setup file should be watched for changes. If enabled,
+	 * changes in the file are applied to the world without restarting the
+	 * program. Only the cells that were changed in the file are updated. It
+	 * can also be switched on and off in the context menu.
+	 * <p>
+	 * Watching is disabled by default. It only works if the world was loaded
+	 * from a file.
+	 * 
+	 * @param watching
+	 */
+	public void setWorldFileWatching(boolean watching) {
+		if (!watching) {
+			if (worldFileWatcher != null) {
+				worldFileWatcher.stop();
+				worldFileWatcher = null;
+			}
+			return;
+		}
+		
+		if (worldFileWatcher != null || worldSetup == null
+				|| worldSetup.getFileName() == null) {
+			return;
+		}
+		
+		File file = WorldSetup.findFile(worldSetup.getFileName(), karaClass);
+		if (file == null) {
+			// e.g. if the file is inside a jar
+			return;
+		}
+		
+		final String title = worldSetup.getTitle();
+		worldFileWatcher = new WorldFileWatcher(file, new WorldFileWatcher.Listener() {
+			@Override
+			public void worldFileChanged(File file) {
+				try {
+					// only the world setup with our title is parsed
+					WorldSetup changedWorldSetup = WorldSetup.reparseFromFile(
+							file, WORLD_SETUP_TITLE_KEY, title, KARA_DIRECTION_KEY);
+					if (changedWorldSetup != null) {
+						setPendingWorldSetup(changedWorldSetup);
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		worldFileWatcher.start();
+	}
+	
+	/**
+	 * Returns true if the world setup file is watched for changes.
+	 */
+	public boolean isWorldFileWatching() {
+		return worldFileWatcher != null;
+	}
+	
+	/**
+	 * Sets the world setup that should be applied. The event dispatch thread
+	 * decides where it is applied, because the simulation is started and
+	 * paused there: while the simulation is running, it is applied in the
+	 * next act(). Otherwise it is applied in the event dispatch thread (like
+	 * changes through the context menu).
+	 */
+	private void setPendingWorldSetup(WorldSetup changedWorldSetup) {
+		synchronized (this) {
+			pendingWorldSetup = changedWorldSetup;
+		}
+		schedulePendingWorldSetup();
+	}
+	
+	/**
+	 * Applies the pending world setup in the event dispatch thread, if the
+	 * simulation is not running there. Also called when the simulation is
+	 * paused, so a world setup that was left for act() is not forgotten.
+	 */
+	private void schedulePendingWorldSetup() {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if (!isRunning()) {
+					applyPendingWorldSetup();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Applies the pending world setup if there is one.
+	 */
+	private void applyPendingWorldSetup() {
+		WorldSetup changedWorldSetup;
+		synchronized (this) {
+			changedWorldSetup = pendingWorldSetup;
+			pendingWorldSetup = null;
+		}
+		
+		if (changedWorldSetup != null) {
+			applyWorldSetupChanges(changedWorldSetup);
+		}
+	}
+	
+	/**
+	 * Applies the differences between the current and the changed world setup
+	 * to the world. In the cells that are different, the trees and leaves are
+	 * replaced. Kara and the mushrooms may have moved since the world was set
+	 * up, so only the changes of the file are applied to them: a mushroom
+	 * that was removed in the file is removed from its cell (if it is still
+	 * there), a new mushroom is added and Kara is moved to a new cell or
+	 * turned to a new direction. The changed world setup is also used for the
+	 * next reset.
+	 */
+	private void applyWorldSetupChanges(WorldSetup changedWorldSetup) {
+		if (changedWorldSetup.getWidth() != getNbHorzCells()
+				|| changedWorldSetup.getHeight() != getNbVertCells()) {
+			System.out.println("The size of the world was changed in the file "
+					+ changedWorldSetup.getFileName()
+					+ ". Restart the program to load the new size.");
+			return;
+		}
+		
+		WorldSetup base = worldSetup;
+		if (base == null) {
+			base = new WorldSetup.Builder(changedWorldSetup.getTitleKey())
+					.setWidth(getNbHorzCells()).setHeight(getNbVertCells())
+					.build();
+		}
+		
+		WorldSetupDelta delta = WorldSetupDelta.diff(base, changedWorldSetup);
+		Location karaLocation = null;
+		boolean karaRemoved = false;
+		for (int i = 0; i < delta.getNumberOfChangedCells(); i++) {
+			int x = delta.getX(i);
+			int y = delta.getY(i);
+			char actorType = delta.getActorType(i);
+			Location location = new Location(x, y);
+			for (Actor actor : new ArrayList<Actor>(getActorsAt(location))) {
+				if (actor instanceof Tree || actor instanceof Leaf) {
+					removeActor(actor);
 				}
-			} else if (karaDirection.equalsIgnoreCase(DIRECTION_LEFT)) {
-				for (Actor actor : getActors(Kara.KaraDelegate.class)) {
-					Kara kara = ((Kara.KaraDelegate) actor).getKara();
-					kara.turnRight();
-					kara.turnRight();
+			}
+			if (actorType == WorldSetup.TREE) {
+				addObject(new Tree(), x, y);
+			} else if (hasLeaf(actorType)) {
+				addObject(new Leaf(), x, y);
+			}
+			
+			char oldMovable = getMovableType(base.getActorTypeAt(x, y));
+			char newMovable = getMovableType(actorType);
+			if (oldMovable != newMovable) {
+				if (oldMovable == WorldSetup.MUSHROOM) {
+					removeActorsAt(location, Mushroom.class);
+				} else if (oldMovable == WorldSetup.KARA) {
+					karaRemoved = true;
 				}
-			} else if (karaDirection.equalsIgnoreCase(DIRECTION_UP)) {
-				for (Actor actor : getActors(Kara.KaraDelegate.class)) {
-					Kara kara = ((Kara.KaraDelegate) actor).getKara();
-					kara.turnLeft();
+				if (newMovable == WorldSetup.MUSHROOM
+						&& getOneActorAt(location, Mushroom.class) == null) {
+					addObject(new Mushroom(), x, y);
+				} else if (newMovable == WorldSetup.KARA) {
+					karaLocation = location;
 				}
 			}
-			// DIRECTION_RIGHT is the original direction - do nothing
+			for (Actor mushroom : getActorsAt(location, Mushroom.class)) {
+				((Mushroom) mushroom).updateImage();
+			}
+		}
+		
+		Actor karaActor = getOneActor(Kara.KaraDelegate.class);
+		String karaDirection = changedWorldSetup.getAttribute(KARA_DIRECTION_KEY);
+		if (karaLocation != null) {
+			if (karaActor == null) {
+				Kara kara = createNewKaraInstance();
+				addObject(kara, karaLocation.x, karaLocation.y);
+				karaActor = kara.actorDelegate;
+			} else {
+				karaActor.setLocation(karaLocation);
+			}
+		} else if (karaRemoved && karaActor != null) {
+			karaActor.removeSelf();
+			karaActor = null;
+		}
+		if (karaActor != null
+				&& (karaLocation != null || !isSameText(
+						base.getAttribute(KARA_DIRECTION_KEY), karaDirection))) {
+			karaActor.setDirection(getDirectionAngle(karaDirection));
+		}
+		
+		worldSetup = changedWorldSetup;
+		refresh();
+	}
+	
+	/**
+	 * Returns the angle of the direction of Kara (see {@link #DIRECTION_UP}
+	 * etc.), right if the direction is <code>null</code>.
+	 */
+	private static int getDirectionAngle(String karaDirection) {
+		if (DIRECTION_DOWN.equalsIgnoreCase(karaDirection)) {
+			return 90;
+		} else if (DIRECTION_LEFT.equalsIgnoreCase(karaDirection)) {
+			return 180;
+		} else if (DIRECTION_UP.equalsIgnoreCase(karaDirection)) {
+			return 270;
 		}
+		return 0;
+	}
+	
+	/**
+	 * Returns true if there is a leaf in a cell with the actor type.
+	 */
+	private static boolean hasLeaf(char actorType) {
+		return actorType == WorldSetup.LEAF
+				|| actorType == WorldSetup.MUSHROOM_LEAF
+				|| actorType == WorldSetup.KARA_LEAF;
+	}
+	
+	/**
+	 * Returns the actor that can move in a cell with the actor type:
+	 * {@link WorldSetup#KARA}, {@link WorldSetup#MUSHROOM} or
+	 * {@link WorldSetup#EMPTY}.
+	 */
+	private static char getMovableType(char actorType) {
+		switch (actorType) {
+		case WorldSetup.KARA:
+		case WorldSetup.KARA_LEAF:
+			return WorldSetup.KARA;
+		case WorldSetup.MUSHROOM:
+		case WorldSetup.MUSHROOM_LEAF:
+			return WorldSetup.MUSHROOM;
+		default:
+			return WorldSetup.EMPTY;
+		}
+	}
+	
+	private static boolean isSameText(String a, String b) {
+		return a == null ? b == null : a.equals(b);
 	}
 	
 	/**
@@ -385,6 +672,7 @@ public class KaraWorld extends GameGrid implements GGMouseListener,
 	@Override
 	public boolean resetted() {
 		resetCountDown = 1;
+		keyQueue.clear();
 		setSimulationPeriod(0); // speed things up a bit
 		
 		if (!isRunning()) {
@@ -398,6 +686,9 @@ public class KaraWorld extends GameGrid implements GGMouseListener,
 	
 	@Override
 	public void act() {
+		// a world setup file that was changed while running
+		applyPendingWorldSetup();
+		
 		// GameGrids act() is called before the act() of all actors
 		if (resetCountDown > 0) {
 			// Now we know that we should reset
@@ -406,6 +697,9 @@ public class KaraWorld extends GameGrid implements GGMouseListener,
 			removeAllActors();
 			prepare();
 			refresh();
+			if (worldHistory != null) {
+				worldHistory.clear();
+			}
 			
 			// The newly created actors will be in the act-cycle that just
 			// started. Therefore, we must disable act for all actors.
@@ -413,6 +707,10 @@ public class KaraWorld extends GameGrid implements GGMouseListener,
 				actor.setActEnabled(false);
 			}
 			resetCountDown = 0;
+			
+			// paused without the navigation, a world setup that arrived
+			// since the start of act() is not applied by act() anymore
+			schedulePendingWorldSetup();
 		} else if (resetCountDown == 0) {
 			// Now we are in the second cycle of resetting and can enable
 			// the actors act again.
@@ -420,6 +718,93 @@ public class KaraWorld extends GameGrid implements GGMouseListener,
 				actor.setActEnabled(true);
 			}
 			resetCountDown = -1;
+		} else {
+			// the world after the last step, before the actors act again
+			recordWorldHistory();
+		}
+	}
+	
+	/**
+	 * Sets if the world should be recorded after every step. The recorded
+	 * steps can be undone with {@link #stepBack()} and saved with
+	 * {@link #saveWorldHistoryToFile()}, both are also in the context menu.
+	 * Only the changed cells of every step are stored. Disabled by default.
+	 * 
+	 * @param recording
+	 */
+	public void setWorldHistoryRecording(boolean recording) {
+		if (!recording) {
+			worldHistory = null;
+		} else if (worldHistory == null) {
+			worldHistory = new WorldSetupHistory();
+		}
+	}
+	
+	/**
+	 * Returns the recorded world history or <code>null</code> if it is not
+	 * recorded.
+	 */
+	public WorldSetupHistory getWorldHistory() {
+		return worldHistory;
+	}
+	
+	/**
+	 * Restores the world before the last recorded step. Does nothing while
+	 * the world is running or if there is no recorded step.
+	 */
+	public void stepBack() {
+		if (worldHistory == null || isRunning()) {
+			return;
+		}
+		// the last step is only recorded when the world acts again
+		recordWorldHistory();
+		int size = worldHistory.size();
+		if (size < 2) {
+			return;
+		}
+		worldHistory.truncate(size - 1);
+		
+		removeAllActors();
+		initActorsFromWorldSetup(worldHistory.getLast());
+		refresh();
+	}
+	
+	/**
+	 * Adds the current world to the history if it is recorded and it was
+	 * changed since the last step.
+	 */
+	private void recordWorldHistory() {
+		if (worldHistory == null) {
+			return;
+		}
+		Map<String, String> attributes = new HashMap<String, String>();
+		Actor karaActor = getOneActor(Kara.KaraDelegate.class);
+		if (karaActor != null) {
+			attributes.put(KARA_DIRECTION_KEY,
+					toDirectionName(karaActor.getDirection()));
+		}
+		WorldSetup current = WorldSetup.createFromActors(getActors(),
+				getNbHorzCells(), getNbVertCells(), WORLD_SETUP_TITLE_KEY,
+				worldSetup != null ? worldSetup.getTitle() : "", attributes);
+		if (!current.contentEquals(worldHistory.getLast())) {
+			worldHistory.add(current);
+		}
+	}
+	
+	/**
+	 * Returns the name of the direction in degrees as used in the world setup
+	 * file.
+	 */
+	private static String toDirectionName(double direction) {
+		switch ((int) Math.round(direction) % 360) {
+		case 90:
+			return DIRECTION_DOWN;
+		case 180:
+			return DIRECTION_LEFT;
+		case 270:
+			return DIRECTION_UP;
+		default:
+			return DIRECTION_RIGHT;
 		}
 	}
 	
@@ -438,12 +823,39 @@ public class KaraWorld extends GameGrid implements GGMouseListener,
 		return false; // Don't consume the event, other listeners must be notified
 	}
 	
+	/**
+	 * Starts a macro: Kara's moves and turns are not painted and not delayed
+	 * until {@link #endMacro()} is called.
+	 */
+	protected void beginMacro() {
+		macroRunning = true;
+	}
+
+	/**
+	 * Ends a macro and paints the world once.
+	 */
+	protected void endMacro() {
+		macroRunning = false;
+		refresh();
+	}
+
+	/**
+	 * Returns true while a macro is running.
+	 */
+	protected boolean isMacroRunning() {
+		return macroRunning;
+	}
+	
 	/**
 	 * Prints the world setup to the console.
 	 */
 	public void printWorldSetupToConsole() {
 		System.out.println(";-------------------------- START --------------------------");
-		System.out.println(toASCIIText());
+		try {
+			writeASCIIText(System.out);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 		System.out.println(";--------------------------- END ---------------------------\n");
 	}
 	
@@ -452,7 +864,40 @@ public class KaraWorld extends GameGrid implements GGMouseListener,
 	 */
 	public void saveWorldSetupToFile() {
 		try {
-			WorldSetup.FileUtils.saveToFileWithDialog(toASCIIText());
+			File file = WorldSetup.FileUtils.chooseFileToSave();
+			if (file != null) {
+				Writer out = WorldSetup.FileUtils.openWriter(file);
+				try {
+					writeASCIIText(out);
+				} finally {
+					out.close();
+				}
+			}
+		} catch (IOException e1) {
+			e1.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Saves the recorded world history to a file that the user can choose.
+	 * The first world is written completely, then only the changed cells of
+	 * every step.
+	 */
+	public void saveWorldHistoryToFile() {
+		if (worldHistory == null) {
+			return;
+		}
+		recordWorldHistory();
+		try {
+			File file = WorldSetup.FileUtils.chooseFileToSave();
+			if (file != null) {
+				Writer out = WorldSetup.FileUtils.openWriter(file);
+				try {
+					worldHistory.writeTo(out);
+				} finally {
+					out.close();
+				}
+			}
 		} catch (IOException e1) {
 			e1.printStackTrace();
 		}
@@ -464,13 +909,36 @@ public class KaraWorld extends GameGrid implements GGMouseListener,
 	 * @return the world as ASCII text
 	 */
 	protected String toASCIIText() {
-		return WorldSetup.createFromActors(getActors(), getNbHorzCells(), getNbVertCells(),
-				WORLD_SETUP_TITLE_KEY).toASCIIText(true);
+		StringBuilder buf = new StringBuilder();
+		try {
+			writeASCIIText(buf);
+		} catch (IOException e) {
+			// a StringBuilder does not throw IOExceptions
+			throw new IllegalStateException(e);
+		}
+		return buf.toString();
+	}
+	
+	/**
+	 * Writes an ASCII-representation of all the actors in the world to the
+	 * output.
+	 * 
+	 * @param out
+	 *            where to write to
+	 * @throws IOException
+	 *             if an I/O error occurs writing to the output.
+	 */
+	protected void writeASCIIText(Appendable out) throws IOException {
+		WorldSetup.createFromActors(getActors(), getNbHorzCells(), getNbVertCells(),
+				WORLD_SETUP_TITLE_KEY).writeTo(out, true);
 	}
 
 	/**
-	 * Gets the most recently pressed key <br>
-	 * <i>Ermittelt die zuletzt gedrueckte Taste</i>.
+	 * Gets the next pressed key. Every key press is returned once, in the
+	 * order the keys were pressed <br>
+	 * <i>Ermittelt die naechste gedrueckte Taste. Jeder Tastendruck wird
+	 * einmal zurueckgegeben, in der Reihenfolge wie die Tasten gedrueckt
+	 * wurden</i>.
 	 * <p>
 	 * 
 	 * <ul>
@@ -481,10 +949,60 @@ public class KaraWorld extends GameGrid implements GGMouseListener,
 	 * <li>"F1", "F2", .., "F12" (the function keys)</li>
 	 * </ul>
 	 * 
-	 * @return the most recently pressed key as String or an empty String if no key was pressed.
+	 * @return the next pressed key as String or an empty String if no key was pressed.
 	 */
 	protected String getKey() {
-		return convertKeyCode(getKeyCode(), getKeyModifiers());
+		if (!keyQueue.poll()) {
+			return "";
+		}
+		return convertKeyCode(keyQueue.getKeyCode(), keyQueue.getModifiers());
+	}
+
+	/**
+	 * Returns true if a key was pressed that was not yet read with
+	 * {@link #getKey()}.
+	 */
+	protected boolean isKeyAvailable() {
+		return keyQueue.size() > 0;
+	}
+
+	/**
+	 * Removes all the pressed keys that were not yet read.
+	 */
+	protected void clearKeys() {
+		keyQueue.clear();
+	}
+
+	/**
+	 * Returns how long the last key read with {@link #getKey()} waited after
+	 * it was pressed, in nanoseconds.
+	 */
+	protected long getLastKeyLatency() {
+		return keyQueue.getLastLatency();
+	}
+
+	/**
+	 * Returns the longest time a key waited after it was pressed until it was
+	 * read with {@link #getKey()}, in nanoseconds.
+	 */
+	protected long getMaxKeyLatency() {
+		return keyQueue.getMaxLatency();
+	}
+
+	/**
+	 * Called by the event thread when a key is pressed. The key is added to
+	 * the queue for {@link #getKey()}. While the world is paused the keys can
+	 * be read with single steps; the queue is cleared when it is run.
+	 */
+	@Override
+	public boolean keyPressed(KeyEvent evt) {
+		keyQueue.add(evt.getKeyCode(), evt.getModifiersEx(), System.nanoTime());
+		return false;
+	}
+
+	@Override
+	public boolean keyReleased(KeyEvent evt) {
+		return false;
 	}
 
 	/**
@@ -499,6 +1017,7 @@ public class KaraWorld extends GameGrid implements GGMouseListener,
 	 * </ul>
 	 * 
 	 * @param keyCode
+	 * @param keyModifiers the extended modifiers (see KeyEvent.getModifiersEx())
 	 * @return the key or an empty String if the keycode was KeyEvent.CHAR_UNDEFINED.
 	 */
 	private String convertKeyCode(int keyCode, int keyModifiers) {
@@ -523,7 +1042,7 @@ public class KaraWorld extends GameGrid implements GGMouseListener,
 		default: 
 			String letter = KeyEvent.getKeyText(keyCode);
 			if (letter != null && letter.length() == 1) {
-				if (keyModifiers == InputEvent.SHIFT_MASK) {
+				if (keyModifiers == InputEvent.SHIFT_DOWN_MASK) {
 					return letter.toUpperCase();
 				} else {
 					return letter.toLowerCase();
@@ -599,6 +1118,40 @@ public class KaraWorld extends GameGrid implements GGMouseListener,
 		}
 	}
 	
+	/**
+	 * Listener for the navigation buttons (run, pause, ...).
+	 */
+	private class NavigationListener implements GGNavigationListener {
+		@Override
+		public boolean started() {
+			// keys typed while paused are not replayed all at once
+			keyQueue.clear();
+			return false;
+		}
+
+		@Override
+		public boolean paused() {
+			// a world setup that was left for act() is applied now
+			schedulePendingWorldSetup();
+			return false;
+		}
+
+		@Override
+		public boolean stepped() {
+			return false;
+		}
+
+		@Override
+		public boolean resetted() {
+			return false;
+		}
+
+		@Override
+		public boolean periodChanged(int simulationPeriod) {
+			return false;
+		}
+	}
+	
 	/**
 	 * Listener for mouse dragging.
 	 */
@@ -906,6 +1459,41 @@ public class KaraWorld extends GameGrid implements GGMouseListener,
 				}
 			});
 			add(saveToFileItem);
+			
+			if (worldSetup != null && worldSetup.getFileName() != null) {
+				final JCheckBoxMenuItem watchItem = new JCheckBoxMenuItem(
+						"Watch World Setup File", isWorldFileWatching());
+				watchItem.addActionListener(new ActionListener() {
+					@Override
+					public void actionPerformed(ActionEvent e) {
+						setWorldFileWatching(watchItem.isSelected());
+					}
+				});
+				add(watchItem);
+			}
+			
+			if (worldHistory != null) {
+				JMenuItem stepBackItem = new JMenuItem("Step Back",
+						new ImageIcon(WorldImages.ICON_ARROW_LEFT));
+				stepBackItem.addActionListener(new ActionListener() {
+					@Override
+					public void actionPerformed(ActionEvent e) {
+						stepBack();
+					}
+				});
+				add(stepBackItem);
+				
+				JMenuItem saveHistoryItem = new JMenuItem(
+						"Save World History to File", new ImageIcon(
+								WorldImages.ICON_SAVE));
+				saveHistoryItem.addActionListener(new ActionListener() {
+					@Override
+					public void actionPerformed(ActionEvent e) {
+						saveWorldHistoryToFile();
+					}
+				});
+				add(saveHistoryItem);
+			}
 		}
 
 		/**
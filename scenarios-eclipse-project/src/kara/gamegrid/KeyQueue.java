@@ -0,0 +1,129 @@
+package kara.gamegrid;
+
+/**
+ * A bounded queue for the key presses in a {@link KaraWorld}. The keys are
+ * added by the event thread as soon as they are pressed and taken by the
+ * simulation thread one at a time, so no key press is lost between two
+ * simulation cycles.
+ * <p>
+ * Every key is stored with the time it was pressed. When a key is taken, the
+ * time it waited in the queue is measured. If the queue is full, the oldest
+ * key is dropped.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+class KeyQueue {
+	private final int[] keyCodes;
+	private final int[] modifiers;
+	private final long[] times;
+	private int head;
+	private volatile int size;
+
+	private int lastKeyCode;
+	private int lastModifiers;
+	private long lastLatency;
+	private long maxLatency;
+
+	/**
+	 * Creates an empty queue for the specified number of keys.
+	 */
+	KeyQueue(int capacity) {
+		keyCodes = new int[capacity];
+		modifiers = new int[capacity];
+		times = new long[capacity];
+	}
+
+	/**
+	 * Adds a pressed key.
+	 *
+	 * @param keyCode
+	 *            the key code of the key event
+	 * @param keyModifiers
+	 *            the extended modifiers of the key event
+	 * @param time
+	 *            the time of the key press in nanoseconds (see
+	 *            {@link System#nanoTime()}).
+	 */
+	synchronized void add(int keyCode, int keyModifiers, long time) {
+		if (size == keyCodes.length) {
+			// drop the oldest key
+			head = (head + 1) % keyCodes.length;
+			size--;
+		}
+		int tail = (head + size) % keyCodes.length;
+		keyCodes[tail] = keyCode;
+		modifiers[tail] = keyModifiers;
+		times[tail] = time;
+		size++;
+	}
+
+	/**
+	 * Takes the oldest key from the queue. Its key code and modifiers can then
+	 * be read with {@link #getKeyCode()} and {@link #getModifiers()}.
+	 *
+	 * @return false if the queue is empty.
+	 */
+	boolean poll() {
+		if (size == 0) {
+			// fast path without locking, nothing was pressed
+			return false;
+		}
+		synchronized (this) {
+			if (size == 0) {
+				return false;
+			}
+			lastKeyCode = keyCodes[head];
+			lastModifiers = modifiers[head];
+			lastLatency = System.nanoTime() - times[head];
+			maxLatency = Math.max(maxLatency, lastLatency);
+			head = (head + 1) % keyCodes.length;
+			size--;
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the key code of the key taken by the last {@link #poll()}.
+	 */
+	synchronized int getKeyCode() {
+		return lastKeyCode;
+	}
+
+	/**
+	 * Returns the extended modifiers (see KeyEvent.getModifiersEx()) of the
+	 * key taken by the last {@link #poll()}.
+	 */
+	synchronized int getModifiers() {
+		return lastModifiers;
+	}
+
+	/**
+	 * Returns the number of keys in the queue.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all keys.
+	 */
+	synchronized void clear() {
+		head = 0;
+		size = 0;
+	}
+
+	/**
+	 * Returns how long the last taken key waited in the queue, in
+	 * nanoseconds.
+	 */
+	synchronized long getLastLatency() {
+		return lastLatency;
+	}
+
+	/**
+	 * Returns the longest time a key waited in the queue, in nanoseconds.
+	 */
+	synchronized long getMaxLatency() {
+		return maxLatency;
+	}
+}
@@ -0,0 +1,132 @@
+package kara.gamegrid;
+
+import java.io.File;
+
+/**
+ * Watches a world setup file and informs a listener when the file was changed.
+ * <p>
+ * The file is checked in a background thread a few times per second. A change
+ * is only reported after the file has stayed the same for one check. Like this
+ * we don't report files that are just being written by an editor.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class WorldFileWatcher {
+	/**
+	 * Time in milliseconds between two checks of the file.
+	 */
+	public static final long POLL_INTERVAL = 250;
+
+	/**
+	 * A listener that is informed about changes of the world setup file.
+	 */
+	public interface Listener {
+		/**
+		 * Called (in the background thread of the watcher) when the file was
+		 * changed.
+		 *
+		 * @param file
+		 *            the changed file
+		 */
+		void worldFileChanged(File file);
+	}
+
+	private final File file;
+	private final Listener listener;
+	private Thread thread;
+
+	/**
+	 * Creates a watcher for the file. Watching must be started with
+	 * {@link #start()}.
+	 *
+	 * @param file
+	 *            the file to watch
+	 * @param listener
+	 *            the listener to inform about changes
+	 */
+	public WorldFileWatcher(File file, Listener listener) {
+		this.file = file;
+		this.listener = listener;
+	}
+
+	/**
+	 * Returns the watched file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Starts watching the file. Does nothing if already started.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "World File Watcher");
+		// must not prevent the program from exiting
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops watching the file.
+	 */
+	public synchronized void stop() {
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	/**
+	 * Returns true if the file is being watched.
+	 */
+	public synchronized boolean isWatching() {
+		return thread != null;
+	}
+
+	/**
+	 * Checks the file until the thread is interrupted.
+	 */
+	private void watch() {
+		long reportedModified = file.lastModified();
+		long reportedLength = file.length();
+		long lastModified = reportedModified;
+		long lastLength = reportedLength;
+
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				Thread.sleep(POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			long modified = file.lastModified();
+			long length = file.length();
+			boolean stable = modified == lastModified && length == lastLength;
+			boolean changed = modified != reportedModified
+					|| length != reportedLength;
+			lastModified = modified;
+			lastLength = length;
+
+			// lastModified() is 0 while the file doesn't exist, e.g. if an
+			// editor deletes and recreates the file when saving
+			if (stable && changed && modified != 0) {
+				reportedModified = modified;
+				reportedLength = length;
+				try {
+					listener.worldFileChanged(file);
+				} catch (RuntimeException e) {
+					// keep watching
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+}
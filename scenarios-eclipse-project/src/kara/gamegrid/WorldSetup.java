@@ -10,12 +10,28 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Writer;
 import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
@@ -71,6 +87,16 @@ public class WorldSetup {
 	public static final String WIDTH_KEY = "X:";
 	public static final String HEIGHT_KEY = "Y:";
 	
+	/**
+	 * Lines that only contain actor signs and spaces.
+	 */
+	private static final Pattern ACTOR_LINE_PATTERN = Pattern.compile("[@#.$\\s*+]*");
+	
+	/**
+	 * Executor for parsing multiple files, created when first needed.
+	 */
+	private static ExecutorService parserExecutor;
+	
 	/**
 	 * The world width
 	 */
@@ -94,10 +120,26 @@ public class WorldSetup {
 	private final Map<String, String> attributes = new LinkedHashMap<String, String>();
 	
 	/**
-	 * Actor positions with the outer List as line (y-position) and
-	 * the inner List as column (x-position).
+	 * Actor positions with the outer array as line (y-position) and
+	 * the inner array as column (x-position). The lines may have different
+	 * lengths.
+	 */
+	private final char[][] actorPositions;
+	
+	/**
+	 * The combined hash of all the actor cells (see {@link Builder}).
+	 */
+	private final long cellHash;
+	
+	/**
+	 * The combined hash of all the attributes (see {@link Builder}).
 	 */
-	private final List<List<Character>> actorPositions = new ArrayList<List<Character>>();
+	private final long attributeHash;
+	
+	/**
+	 * The hash of the content, i.e. of the size, attributes and actors.
+	 */
+	private final long contentHash;
 
 	/**
 	 * Constructor to be used by the Builder.
@@ -108,13 +150,21 @@ public class WorldSetup {
 		this.titleKey = builder.titleKey;
 		this.title = builder.title;
 		this.fileName = builder.fileName;
+		this.cellHash = builder.cellHash;
+		this.attributeHash = builder.attributeHash;
+		this.contentHash = builder.contentHash();
 		
 		// copy values to make shure we have an immutable WorldSetup
 		for (Entry<String, String> entry : builder.attributes.entrySet()) {
 			this.attributes.put(entry.getKey(), entry.getValue());
 		}
-		for (List<Character> line : builder.actorPositions) {
-			this.actorPositions.add(new ArrayList<Character>(line));
+		this.actorPositions = new char[builder.actorPositions.size()][];
+		for (int y = 0; y < actorPositions.length; y++) {
+			List<Character> line = builder.actorPositions.get(y);
+			actorPositions[y] = new char[line.size()];
+			for (int x = 0; x < actorPositions[y].length; x++) {
+				actorPositions[y][x] = line.get(x);
+			}
 		}
 	}
 	
@@ -207,15 +257,73 @@ public class WorldSetup {
 	 *         defined.
 	 */
 	public char getActorTypeAt(int x, int y) {
-		if (y >= 0 && y < actorPositions.size()) {
-			List<Character> line = actorPositions.get(y);
-			if (x >= 0 && x < line.size()) {
-				return line.get(x);
+		if (y >= 0 && y < actorPositions.length) {
+			char[] line = actorPositions[y];
+			if (x >= 0 && x < line.length) {
+				return line[x];
 			}
 		}
 		return UNDEFINED;
 	}
 
+	/**
+	 * Returns a 64-bit hash of the content of this WorldSetup, i.e. of the
+	 * width, height, attributes and actors. The title and filename are not
+	 * part of the content. Empty and undefined cells are treated the same.
+	 * <p>
+	 * The hash is stable, i.e. it is the same in every program run, and can be
+	 * used as a key for cached data about a WorldSetup.
+	 * 
+	 * @return the content hash
+	 */
+	public long getContentHash() {
+		return contentHash;
+	}
+
+	/**
+	 * Returns true if the other WorldSetup has the same content, i.e. the same
+	 * width, height, attributes and actors (see {@link #getContentHash()}).
+	 * 
+	 * @param other
+	 * @return
+	 */
+	public boolean contentEquals(WorldSetup other) {
+		if (other == this) {
+			return true;
+		}
+		if (other == null || other.contentHash != contentHash
+				|| other.width != width || other.height != height
+				|| !other.attributes.equals(attributes)) {
+			return false;
+		}
+		
+		int lines = Math.max(actorPositions.length, other.actorPositions.length);
+		for (int y = 0; y < lines; y++) {
+			int columns = Math.max(getLineLength(y), other.getLineLength(y));
+			for (int x = 0; x < columns; x++) {
+				if (getActorTypeOrEmpty(x, y) != other.getActorTypeOrEmpty(x, y)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the number of cells defined in the line.
+	 */
+	private int getLineLength(int y) {
+		return y < actorPositions.length ? actorPositions[y].length : 0;
+	}
+	
+	/**
+	 * Returns the actor type or {@link #EMPTY} if the position is not defined.
+	 */
+	private char getActorTypeOrEmpty(int x, int y) {
+		char actorType = getActorTypeAt(x, y);
+		return actorType == UNDEFINED ? EMPTY : actorType;
+	}
+
 	/**
 	 * Returns an image representation of this WorldSetup with all the actors.
 	 * 
@@ -277,27 +385,97 @@ public class WorldSetup {
 	 * @return
 	 */
 	public String toASCIIText(boolean printWidthAndHeight) {
-		StringBuffer buf = new StringBuffer();
-		buf.append(titleKey).append(' ').append(title).append('\n');
+		StringBuilder buf = new StringBuilder();
+		try {
+			writeTo(buf, printWidthAndHeight);
+		} catch (IOException e) {
+			// a StringBuilder does not throw IOExceptions
+			throw new IllegalStateException(e);
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Writes the ASCII representation of this WorldSetup (see
+	 * {@link #toASCIIText(boolean)}) line by line to the output. Unlike
+	 * toASCIIText(), no String of the whole WorldSetup is created.
+	 * 
+	 * @param out
+	 *            where to write to, e.g. a Writer or System.out
+	 * @param printWidthAndHeight
+	 *            if true, the width and height attributes are also added.
+	 * @throws IOException
+	 *             if an I/O error occurs writing to the output.
+	 */
+	public void writeTo(Appendable out, boolean printWidthAndHeight)
+			throws IOException {
+		out.append(titleKey).append(' ').append(title).append('\n');
 
 		if (printWidthAndHeight) {
-			buf.append(WIDTH_KEY).append(' ').append(width).append('\n');
-			buf.append(HEIGHT_KEY).append(' ').append(height).append('\n');
+			out.append(WIDTH_KEY).append(' ').append(Integer.toString(width)).append('\n');
+			out.append(HEIGHT_KEY).append(' ').append(Integer.toString(height)).append('\n');
 		}
 
 		for (Entry<String, String> entry : attributes.entrySet()) {
-			buf.append(entry.getKey()).append(' ').append(entry.getValue())
+			out.append(entry.getKey()).append(' ').append(entry.getValue())
 					.append('\n');
 		}
 
-		for (List<Character> line : actorPositions) {
-			for (Character character : line) {
-				buf.append(character);
+		for (char[] line : actorPositions) {
+			if (out instanceof Writer) {
+				// write the chars directly without creating a String
+				((Writer) out).write(line);
+			} else {
+				out.append(CharBuffer.wrap(line));
 			}
-			buf.append('\n');
+			out.append('\n');
 		}
+	}
 
-		return buf.toString();
+	/**
+	 * Writes all the WorldSetups to the output in the format of a world setup
+	 * file. The WorldSetups are separated by an empty comment line.
+	 * 
+	 * @param out
+	 *            where to write to
+	 * @param worldSetups
+	 *            the WorldSetups to write
+	 * @param printWidthAndHeight
+	 *            if true, the width and height attributes are also added.
+	 * @throws IOException
+	 *             if an I/O error occurs writing to the output.
+	 */
+	public static void writeAll(Appendable out, WorldSetup[] worldSetups,
+			boolean printWidthAndHeight) throws IOException {
+		for (int i = 0; i < worldSetups.length; i++) {
+			if (i > 0) {
+				out.append(";\n");
+			}
+			worldSetups[i].writeTo(out, printWidthAndHeight);
+		}
+	}
+
+	/**
+	 * Writes all the WorldSetups to the file (see
+	 * {@link #writeAll(Appendable, WorldSetup[], boolean)}).
+	 * 
+	 * @param file
+	 *            the file to write to
+	 * @param worldSetups
+	 *            the WorldSetups to write
+	 * @param printWidthAndHeight
+	 *            if true, the width and height attributes are also added.
+	 * @throws IOException
+	 *             if an I/O error occurs writing to the file.
+	 */
+	public static void writeAllToFile(File file, WorldSetup[] worldSetups,
+			boolean printWidthAndHeight) throws IOException {
+		Writer out = FileUtils.openWriter(file);
+		try {
+			writeAll(out, worldSetups, printWidthAndHeight);
+		} finally {
+			out.close();
+		}
 	}
 
 	@Override
@@ -433,15 +611,125 @@ public class WorldSetup {
 			throw new FileNotFoundException("Could not find file: " + fileName);
 		}
 		
-		for (File matchingFile : matchingFiles) {
+		// sort by name so that the order of the world setups does not depend
+		// on the order in which the file system lists the files
+		Collections.sort(matchingFiles, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return f1.getName().compareTo(f2.getName());
+			}
+		});
+		
+		if (matchingFiles.size() == 1) {
+			File matchingFile = matchingFiles.get(0);
 			List<String> lines = FileUtils.readAllLines(matchingFile);
 			result.addAll(parseFromStrings(lines, titleKey, worldWidth,
 					worldHeight, matchingFile.getName(), attributeKeys));
+		} else {
+			result.addAll(parseFromFiles(matchingFiles, titleKey, worldWidth,
+					worldHeight, attributeKeys));
 		}
 			
 		return result.toArray(new WorldSetup[result.size()]);
 	}
 	
+	/**
+	 * Parses the world setups from all the files concurrently. The world
+	 * setups are returned in the order of the files, regardless of which file
+	 * was parsed first.
+	 * 
+	 * @param files
+	 *            The files containing the world setups.
+	 * @param titleKey
+	 *            The key to recognize the start of the world setup inside the
+	 *            file, e.g. "World:".
+	 * @param worldWidth
+	 *            the width or -1 if it should be specified through width
+	 *            attribute or from length of actor lines in the file.
+	 * @param worldHeight
+	 *            the height or -1 if it should be specified through height
+	 *            attribute or from height of actor lines in the file.
+	 * @param attributeKeys
+	 *            Keys for optional attributes, e.g. "Password:".
+	 * @return the world setups of all files
+	 * @throws IOException
+	 *             Thrown if a file could not be read.
+	 */
+	private static List<WorldSetup> parseFromFiles(List<File> files,
+			final String titleKey, final int worldWidth, final int worldHeight,
+			final String... attributeKeys) throws IOException {
+		ExecutorService executor = getParserExecutor();
+		List<Future<List<WorldSetup>>> futures = new ArrayList<Future<List<WorldSetup>>>();
+		for (final File file : files) {
+			futures.add(executor.submit(new Callable<List<WorldSetup>>() {
+				@Override
+				public List<WorldSetup> call() throws IOException {
+					List<String> lines = FileUtils.readAllLines(file);
+					return parseFromStrings(lines, titleKey, worldWidth,
+							worldHeight, file.getName(), attributeKeys);
+				}
+			}));
+		}
+
+		List<WorldSetup> result = new ArrayList<WorldSetup>();
+		try {
+			// collect in the order of the files
+			for (Future<List<WorldSetup>> future : futures) {
+				result.addAll(future.get());
+			}
+		} catch (InterruptedException e) {
+			cancelAll(futures);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Parsing of world setups interrupted");
+		} catch (ExecutionException e) {
+			cancelAll(futures);
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException("Could not parse world setups", cause);
+		}
+		return result;
+	}
+	
+	/**
+	 * Cancels all the futures that are not done yet.
+	 */
+	private static void cancelAll(List<? extends Future<?>> futures) {
+		for (Future<?> future : futures) {
+			future.cancel(true);
+		}
+	}
+	
+	/**
+	 * Returns the executor used to parse multiple world setup files. The
+	 * number of threads is bounded by the number of processors. Idle threads
+	 * are terminated after a while.
+	 */
+	private static synchronized ExecutorService getParserExecutor() {
+		if (parserExecutor == null) {
+			int threads = Runtime.getRuntime().availableProcessors();
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads,
+					threads, 5, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "WorldSetup Parser");
+							// must not prevent the program from exiting
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+			parserExecutor = executor;
+		}
+		return parserExecutor;
+	}
+	
 	/**
 	 * Parses (one or many) world setups from the specified Strings.
 	 * 
@@ -465,7 +753,7 @@ public class WorldSetup {
 	 *            Keys for optional attributes, e.g. "Password:".
 	 * @return the world setups as an array
 	 */
-	private static List<WorldSetup> parseFromStrings(List<String> lines,
+	public static List<WorldSetup> parseFromStrings(List<String> lines,
 			String titleKey, int worldWidth, int worldHeight, String fileName,
 			String... attributeKeys) {
 		List<WorldSetup> result = new ArrayList<WorldSetup>();
@@ -528,7 +816,7 @@ public class WorldSetup {
 					continue;
 				}
 
-				if (line.matches("[@#.$\\s*+]*")) {
+				if (ACTOR_LINE_PATTERN.matcher(line).matches()) {
 					currentBuilder.addActorLine(line);
 				}
 			}
@@ -540,6 +828,124 @@ public class WorldSetup {
 		return result;
 	}
 
+	/**
+	 * Parses only the world setup with the specified title from the file. The
+	 * lines of all other world setups in the file are skipped without being
+	 * parsed. This is used to reload a world setup after the file was edited.
+	 * 
+	 * @param file
+	 *            The world setup file.
+	 * @param titleKey
+	 *            The key to recognize the start of the world setup inside the
+	 *            file, e.g. "World:".
+	 * @param title
+	 *            The title of the world setup that should be parsed.
+	 * @param attributeKeys
+	 *            Keys for optional attributes, e.g. "Password:".
+	 * @return the world setup or <code>null</code> if the file does not
+	 *         contain a world setup with the title.
+	 * @throws IOException
+	 *             Thrown if the file could not be read.
+	 */
+	public static WorldSetup reparseFromFile(File file, String titleKey,
+			String title, String... attributeKeys) throws IOException {
+		List<String> lines = FileUtils.readAllLines(file);
+
+		// find the lines of the world setup with the title
+		int start = -1;
+		int end = lines.size();
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i);
+			if (line.startsWith(titleKey)) {
+				if (start != -1) {
+					end = i;
+					break;
+				}
+				if (line.substring(titleKey.length()).trim().equals(title)) {
+					start = i;
+				}
+			}
+		}
+		if (start == -1) {
+			return null;
+		}
+
+		List<WorldSetup> result = parseFromStrings(lines.subList(start, end),
+				titleKey, -1, -1, file.getName(), attributeKeys);
+		return result.isEmpty() ? null : result.get(0);
+	}
+
+	/**
+	 * Returns the world setup file with the specified name if it can be found
+	 * in the file system (and not only inside a jar). The same locations as in
+	 * {@link #parseFromFile(String, Class, String, String...)} are tried.
+	 * 
+	 * @param fileName
+	 *            The filename of the world setup file, relative to the class,
+	 *            relative to the package root or relative to the project root.
+	 * @param clazz
+	 *            The class used to get the relative path to the file or
+	 *            <code>null</code>.
+	 * @return the file or <code>null</code> if it could not be found.
+	 */
+	public static File findFile(String fileName, Class<?> clazz) {
+		URL url;
+		if (clazz != null) {
+			url = clazz.getResource(fileName);
+		} else {
+			url = WorldSetup.class.getResource(fileName);
+		}
+		if (url != null && "file".equals(url.getProtocol())) {
+			try {
+				return new File(url.toURI());
+			} catch (URISyntaxException e) {
+				// try to find the file by name
+			}
+		}
+
+		for (File file : findMatchingFiles(fileName, clazz)) {
+			if (file.getName().equals(new File(fileName).getName())) {
+				return file;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Opens the file with the specified name. The file is first looked up as
+	 * resource of the class (which also works inside a jar) and then in the
+	 * same locations as in {@link #findFile(String, Class)}.
+	 *
+	 * @param fileName
+	 *            The filename, relative to the class, relative to the package
+	 *            root or relative to the project root.
+	 * @param clazz
+	 *            The class used to get the relative path to the file or
+	 *            <code>null</code>.
+	 * @return the stream, must be closed by the caller.
+	 * @throws FileNotFoundException
+	 *             if the file could not be found.
+	 */
+	public static InputStream openFile(String fileName, Class<?> clazz)
+			throws FileNotFoundException {
+		InputStream stream;
+		if (clazz != null) {
+			stream = clazz.getResourceAsStream(fileName);
+		} else {
+			stream = WorldSetup.class.getResourceAsStream(fileName);
+		}
+		if (stream != null) {
+			return stream;
+		}
+
+		File file = findFile(fileName, clazz);
+		if (file == null) {
+			throw new FileNotFoundException("The file " + fileName
+					+ " could not be found.");
+		}
+		return new FileInputStream(file);
+	}
+
 	/**
 	 * Tries to load the specified file (or files) either relative to the class,
 	 * relative to the package root or relative to the project root.
@@ -655,6 +1061,18 @@ public class WorldSetup {
 		private Map<String, String> attributes = new LinkedHashMap<String, String>();
 		private List<List<Character>> actorPositions = new ArrayList<List<Character>>();
 		
+		/**
+		 * The XOR of the hashes of all the non-empty cells. Because of the XOR,
+		 * the hash can be updated for every change of a cell without going
+		 * through all the cells again.
+		 */
+		private long cellHash;
+		
+		/**
+		 * The XOR of the hashes of all the attributes.
+		 */
+		private long attributeHash;
+		
 		/**
 		 * Default constructor.
 		 */
@@ -670,9 +1088,17 @@ public class WorldSetup {
 			height = worldSetup.getHeight();
 			titleKey = worldSetup.getTitleKey();
 			title = worldSetup.getTitle();
-			attributes = worldSetup.attributes;
-			actorPositions = worldSetup.actorPositions;
+			attributes = new LinkedHashMap<String, String>(worldSetup.attributes);
+			for (char[] line : worldSetup.actorPositions) {
+				List<Character> chars = new ArrayList<Character>(line.length);
+				for (char c : line) {
+					chars.add(c);
+				}
+				actorPositions.add(chars);
+			}
 			fileName = worldSetup.fileName;
+			cellHash = worldSetup.cellHash;
+			attributeHash = worldSetup.attributeHash;
 		}
 
 		public Builder setWidth(int width) {
@@ -696,7 +1122,19 @@ public class WorldSetup {
 		}
 
 		public Builder addAttribute(String key, String value) {
-			this.attributes.put(key, value);
+			String oldValue = this.attributes.put(key, value);
+			if (oldValue != null) {
+				attributeHash ^= hashAttribute(key, oldValue);
+			}
+			attributeHash ^= hashAttribute(key, value);
+			return this;
+		}
+
+		public Builder removeAttribute(String key) {
+			String oldValue = this.attributes.remove(key);
+			if (oldValue != null) {
+				attributeHash ^= hashAttribute(key, oldValue);
+			}
 			return this;
 		}
 
@@ -707,8 +1145,10 @@ public class WorldSetup {
 		 * @return
 		 */
 		public Builder addActorLine(String actorLine) {
+			int y = actorPositions.size();
 			List<Character> chars = new ArrayList<Character>();
 			for (char c : actorLine.toCharArray()) {
+				cellHash ^= hashCell(chars.size(), y, c);
 				chars.add(c);
 			}
 			this.actorPositions.add(chars);
@@ -747,6 +1187,7 @@ public class WorldSetup {
 				line.add(EMPTY);
 			}
 			// now we can actually set the actor at x
+			char oldType = line.get(x);
 			if (combine && isKaraLeaf(line.get(x), actorType)) {
 				line.set(x, KARA_LEAF);
 			} else if (combine && isMushroomLeaf(line.get(x), actorType)) {
@@ -755,6 +1196,7 @@ public class WorldSetup {
 				// just overwrite the current char
 				line.set(x, actorType);
 			}
+			cellHash ^= hashCell(x, y, oldType) ^ hashCell(x, y, line.get(x));
 
 			return this;
 		}
@@ -815,12 +1257,63 @@ public class WorldSetup {
 
 			return new WorldSetup(this);
 		}
+		
+		/**
+		 * Returns the content hash from the size, the cells and the attributes.
+		 */
+		private long contentHash() {
+			long sizeHash = mix(((long) width << 32) | (height & 0xFFFFFFFFL));
+			return mix(sizeHash ^ cellHash ^ mix(attributeHash));
+		}
+
+		/**
+		 * Returns the hash of a cell. Empty and undefined cells have a hash of
+		 * 0, so they don't change the cell hash.
+		 */
+		private static long hashCell(int x, int y, char actorType) {
+			if (actorType == EMPTY || actorType == UNDEFINED) {
+				return 0;
+			}
+			return mix(((long) y << 40) ^ ((long) x << 20) ^ actorType);
+		}
+
+		/**
+		 * Returns the hash of an attribute (64-bit FNV-1a of key and value).
+		 */
+		private static long hashAttribute(String key, String value) {
+			long hash = 0xcbf29ce484222325L;
+			String keyAndValue = key + '\u0000' + value;
+			for (int i = 0; i < keyAndValue.length(); i++) {
+				hash ^= keyAndValue.charAt(i);
+				hash *= 0x100000001b3L;
+			}
+			return mix(hash);
+		}
+
+		/**
+		 * Mixes the bits of the value (finalizer of the SplitMix64 generator).
+		 */
+		private static long mix(long value) {
+			long z = value + 0x9e3779b97f4a7c15L;
+			z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+			z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+			return z ^ (z >>> 31);
+		}
 	}
 
 	/**
 	 * Utility class for loading and saving files.
 	 */
 	public static class FileUtils {
+		/**
+		 * Compiled wild-card patterns with the wild-card pattern as key.
+		 */
+		private static final Map<String, Pattern> WILDCARD_PATTERNS = new HashMap<String, Pattern>();
+
+		/**
+		 * Cached directory listings with the absolute directory as key.
+		 */
+		private static final Map<File, DirectoryListing> DIRECTORY_LISTINGS = new HashMap<File, DirectoryListing>();
 
 		/**
 		 * Opens a file chooser dialog to ask the user for a filename. If
@@ -832,6 +1325,21 @@ public class WorldSetup {
 		 */
 		public static void saveToFileWithDialog(String content)
 				throws IOException {
+			File chosenFile = chooseFileToSave();
+			if (chosenFile != null) {
+				FileUtils.writeToFile(chosenFile, content);
+			}
+		}
+
+		/**
+		 * Opens a file chooser dialog to ask the user for a text file to save
+		 * to. If the file exists already, the user must confirm to overwrite
+		 * it.
+		 * 
+		 * @return the chosen file or <code>null</code> if the user aborted.
+		 * @throws IOException
+		 */
+		public static File chooseFileToSave() throws IOException {
 			File f = new File(new File(".").getCanonicalPath());
 
 			JFileChooser fileChooser = new JFileChooser(f);
@@ -866,17 +1374,17 @@ public class WorldSetup {
 									"File Exists", JOptionPane.YES_NO_OPTION);
 					if (option != JOptionPane.YES_OPTION) {
 						// abort
-						return;
+						return null;
 					}
 				}
 
-				// write to file
 				if (!chosenFile.getName().endsWith(".txt")
 						&& !chosenFile.getName().endsWith(".TXT")) {
 					chosenFile = new File(chosenFile.getAbsolutePath() + ".txt");
 				}
-				FileUtils.writeToFile(chosenFile, content);
+				return chosenFile;
 			}
+			return null;
 		}
 
 		/**
@@ -886,6 +1394,9 @@ public class WorldSetup {
 		 * <li>Use ? for one or no unknown character</li>
 		 * <li>Use * for zero or more unknown characters</li>
 		 * </ul>
+		 * The wild-card patterns are compiled only once and the directory
+		 * listing is cached until the modification time of the directory
+		 * changes. Use {@link #clearScanCache()} to force a re-scan.
 		 * 
 		 * @param dir
 		 *            the directory
@@ -895,42 +1406,147 @@ public class WorldSetup {
 		 */
 		public static List<File> scan(File dir, String... patterns) {
 			List<File> result = new ArrayList<File>();
-			if (!dir.isDirectory()) {
+			File[] filesInDir = listFiles(dir);
+			if (filesInDir == null) {
 				return result;
 			}
 
-			List<String> convertedPatterns = new ArrayList<String>();
+			List<Pattern> compiledPatterns = new ArrayList<Pattern>();
 			for (String p : patterns) {
-				p = p.replace(".", "\\.");
-				p = p.replace("?", ".?");
-				p = p.replace("*", ".*");
-				convertedPatterns.add(p);
+				compiledPatterns.add(compileWildcard(p));
 			}
 
-			File[] filesInDir = dir.listFiles();
 			for (File currentFile : filesInDir) {
-				if (matches(currentFile, convertedPatterns)) {
+				if (matches(currentFile, compiledPatterns)) {
 					result.add(currentFile);
 				}
 			}
 			return result;
 		}
 
+		/**
+		 * Removes all cached directory listings and compiled wild-card
+		 * patterns.
+		 */
+		public static void clearScanCache() {
+			synchronized (DIRECTORY_LISTINGS) {
+				DIRECTORY_LISTINGS.clear();
+			}
+			synchronized (WILDCARD_PATTERNS) {
+				WILDCARD_PATTERNS.clear();
+			}
+		}
+
 		/**
 		 * Returns true if the filename of the file matches one of the patterns.
 		 * 
 		 * @param file
-		 * @param convertedPatterns
+		 * @param compiledPatterns
 		 * @return
 		 */
-		private static boolean matches(File file, List<String> convertedPatterns) {
-			for (String pattern : convertedPatterns) {
-				if (file.getName().matches(pattern)) {
+		private static boolean matches(File file, List<Pattern> compiledPatterns) {
+			String name = file.getName();
+			for (Pattern pattern : compiledPatterns) {
+				if (pattern.matcher(name).matches()) {
 					return true;
 				}
 			}
 			return false;
 		}
+
+		/**
+		 * Returns the compiled regular expression for the wild-card pattern.
+		 * Everything except the wild-cards is matched literally.
+		 */
+		private static Pattern compileWildcard(String wildcard) {
+			synchronized (WILDCARD_PATTERNS) {
+				Pattern pattern = WILDCARD_PATTERNS.get(wildcard);
+				if (pattern == null) {
+					StringBuilder regex = new StringBuilder();
+					StringBuilder literal = new StringBuilder();
+					for (char c : wildcard.toCharArray()) {
+						if (c == '?' || c == '*') {
+							if (literal.length() > 0) {
+								regex.append(Pattern.quote(literal.toString()));
+								literal.setLength(0);
+							}
+							regex.append(c == '?' ? ".?" : ".*");
+						} else {
+							literal.append(c);
+						}
+					}
+					if (literal.length() > 0) {
+						regex.append(Pattern.quote(literal.toString()));
+					}
+					pattern = Pattern.compile(regex.toString());
+					WILDCARD_PATTERNS.put(wildcard, pattern);
+				}
+				return pattern;
+			}
+		}
+
+		/**
+		 * Returns the files inside the directory or <code>null</code> if it is
+		 * not a directory. The listing is cached as long as the modification
+		 * time of the directory does not change.
+		 */
+		private static File[] listFiles(File dir) {
+			if (!dir.isDirectory()) {
+				return null;
+			}
+
+			File key = dir.getAbsoluteFile();
+			long lastModified = dir.lastModified();
+			synchronized (DIRECTORY_LISTINGS) {
+				DirectoryListing listing = DIRECTORY_LISTINGS.get(key);
+				if (listing != null && listing.isValid(lastModified)) {
+					return listing.files;
+				}
+			}
+
+			long listedAt = System.currentTimeMillis();
+			File[] files = dir.listFiles();
+			if (files != null) {
+				synchronized (DIRECTORY_LISTINGS) {
+					DIRECTORY_LISTINGS.put(key, new DirectoryListing(files,
+							lastModified, listedAt));
+				}
+			}
+			return files;
+		}
+
+		/**
+		 * A cached listing of a directory.
+		 */
+		private static class DirectoryListing {
+			/**
+			 * Some file systems only store the modification time in seconds
+			 * (or even two seconds). A listing that was made within this time
+			 * after the last modification might miss a file that was added in
+			 * the same second and is therefore not trusted.
+			 */
+			private static final long TIMESTAMP_RESOLUTION = 2000;
+
+			private final File[] files;
+			private final long lastModified;
+			private final long listedAt;
+
+			public DirectoryListing(File[] files, long lastModified,
+					long listedAt) {
+				this.files = files;
+				this.lastModified = lastModified;
+				this.listedAt = listedAt;
+			}
+
+			/**
+			 * Returns true if the listing is still valid for a directory with
+			 * the specified modification time.
+			 */
+			public boolean isValid(long currentLastModified) {
+				return currentLastModified == lastModified
+						&& listedAt - lastModified > TIMESTAMP_RESOLUTION;
+			}
+		}
 		
 	    /**
 		 * Read all lines from a file.
@@ -988,8 +1604,7 @@ public class WorldSetup {
 		 *             if an I/O error occurs writing to the file.
 		 */
 	    public static void writeToFile(File file, String content) throws IOException {
-	    	FileWriter fstream = new FileWriter(file);
-	    	BufferedWriter out = new BufferedWriter(fstream);
+	    	Writer out = openWriter(file);
 			try {
 				out.write(content);
 				out.flush();
@@ -1000,5 +1615,20 @@ public class WorldSetup {
 				}
 			}
 	    }
+	
+	    
+	    /**
+		 * Opens a buffered Writer to the specified file. The caller must close
+		 * the Writer.
+		 * 
+		 * @param file
+		 *            The file to write to
+		 * @return the Writer
+		 * @throws IOException
+		 *             if the file can't be opened.
+		 */
+	    public static Writer openWriter(File file) throws IOException {
+	    	return new BufferedWriter(new FileWriter(file));
+	    }
 	}
 }
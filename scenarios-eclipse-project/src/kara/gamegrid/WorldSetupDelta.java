@@ -0,0 +1,455 @@
+package kara.gamegrid;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * A WorldSetupDelta contains the differences between a base {@link WorldSetup}
+ * and a target WorldSetup. Applying the delta to the base WorldSetup results
+ * in a WorldSetup with the same content as the target (see
+ * {@link WorldSetup#contentEquals(WorldSetup)}).
+ * <p>
+ * Only the changed cells are stored. If only a few cells were changed, a delta
+ * is much smaller than a full WorldSetup. Like a WorldSetup, a delta is
+ * immutable.
+ * <p>
+ * A delta can be written as text and parsed again:
+ * <p>
+ * Delta: [base content hash] [target content hash]<br>
+ * Size: [width] [height] (only if the size was changed)<br>
+ * Title: [title] (only if the title was changed)<br>
+ * Attribute: [key][tab][value] (a missing value means removed)<br>
+ * Cells: [x],[y],[actor sign];[x],[y],[actor sign];...<br>
+ * <p>
+ * Tabs, line breaks and backslashes in the title and the attributes are
+ * written as \t, \n, \r and \\.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class WorldSetupDelta {
+	public static final String DELTA_KEY = "Delta:";
+	public static final String SIZE_KEY = "Size:";
+	public static final String TITLE_KEY = "Title:";
+	public static final String ATTRIBUTE_KEY = "Attribute:";
+	public static final String CELLS_KEY = "Cells:";
+
+	private final long baseHash;
+	private final long targetHash;
+
+	/**
+	 * The size of the target or -1 if the size was not changed.
+	 */
+	private final int width;
+	private final int height;
+
+	/**
+	 * The title of the target or <code>null</code> if it was not changed.
+	 */
+	private final String title;
+
+	/**
+	 * Changed attributes. A <code>null</code> value means that the attribute
+	 * was removed.
+	 */
+	private final Map<String, String> attributes;
+
+	/**
+	 * The changed cells as pairs of x- and y-position.
+	 */
+	private final short[] positions;
+
+	/**
+	 * The new actor type for every changed cell.
+	 */
+	private final char[] actorTypes;
+
+	/**
+	 * Constructor used by {@link #diff(WorldSetup, WorldSetup)} and
+	 * {@link #parse(List)}.
+	 */
+	private WorldSetupDelta(long baseHash, long targetHash, int width,
+			int height, String title, Map<String, String> attributes,
+			short[] positions, char[] actorTypes) {
+		this.baseHash = baseHash;
+		this.targetHash = targetHash;
+		this.width = width;
+		this.height = height;
+		this.title = title;
+		this.attributes = attributes;
+		this.positions = positions;
+		this.actorTypes = actorTypes;
+	}
+
+	/**
+	 * Creates the delta that changes the base WorldSetup into the target
+	 * WorldSetup.
+	 *
+	 * @param base
+	 *            the base WorldSetup
+	 * @param target
+	 *            the target WorldSetup
+	 * @return the delta
+	 */
+	public static WorldSetupDelta diff(WorldSetup base, WorldSetup target) {
+		int width = Math.max(base.getWidth(), target.getWidth());
+		int height = Math.max(base.getHeight(), target.getHeight());
+		if (width > Short.MAX_VALUE || height > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("World is too big for a delta: "
+					+ width + "x" + height);
+		}
+
+		short[] positions = new short[16];
+		char[] actorTypes = new char[8];
+		int count = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				char before = getActorTypeOrEmpty(base, x, y);
+				char after = getActorTypeOrEmpty(target, x, y);
+				if (before != after) {
+					if (count == actorTypes.length) {
+						positions = Arrays.copyOf(positions, positions.length * 2);
+						actorTypes = Arrays.copyOf(actorTypes, actorTypes.length * 2);
+					}
+					positions[2 * count] = (short) x;
+					positions[2 * count + 1] = (short) y;
+					actorTypes[count] = after;
+					count++;
+				}
+			}
+		}
+
+		Map<String, String> attributes = new LinkedHashMap<String, String>();
+		Map<String, String> baseAttributes = base.getAttributes();
+		Map<String, String> targetAttributes = target.getAttributes();
+		for (Entry<String, String> entry : targetAttributes.entrySet()) {
+			if (!entry.getValue().equals(baseAttributes.get(entry.getKey()))) {
+				attributes.put(entry.getKey(), entry.getValue());
+			}
+		}
+		for (String key : baseAttributes.keySet()) {
+			if (!targetAttributes.containsKey(key)) {
+				attributes.put(key, null);
+			}
+		}
+
+		boolean sizeChanged = base.getWidth() != target.getWidth()
+				|| base.getHeight() != target.getHeight();
+		boolean titleChanged = !base.getTitle().equals(target.getTitle());
+
+		return new WorldSetupDelta(base.getContentHash(),
+				target.getContentHash(),
+				sizeChanged ? target.getWidth() : -1,
+				sizeChanged ? target.getHeight() : -1,
+				titleChanged ? target.getTitle() : null, attributes,
+				Arrays.copyOf(positions, 2 * count),
+				Arrays.copyOf(actorTypes, count));
+	}
+
+	/**
+	 * Applies this delta to the base WorldSetup.
+	 *
+	 * @param base
+	 *            the WorldSetup the delta was created from (or a WorldSetup
+	 *            with the same content).
+	 * @return the changed WorldSetup
+	 * @throws IllegalArgumentException
+	 *             if the WorldSetup is not the base of this delta.
+	 */
+	public WorldSetup applyTo(WorldSetup base) {
+		if (base.getContentHash() != baseHash) {
+			throw new IllegalArgumentException("The delta can't be applied to "
+					+ "the world setup '" + base.getTitle()
+					+ "' because it was created from a different world setup.");
+		}
+
+		WorldSetup.Builder builder = new WorldSetup.Builder(base);
+		if (width != -1) {
+			builder.setWidth(width).setHeight(height);
+		}
+		if (title != null) {
+			builder.setTitle(title);
+		}
+		for (Entry<String, String> entry : attributes.entrySet()) {
+			if (entry.getValue() != null) {
+				builder.addAttribute(entry.getKey(), entry.getValue());
+			} else {
+				builder.removeAttribute(entry.getKey());
+			}
+		}
+		for (int i = 0; i < actorTypes.length; i++) {
+			builder.setActorTypeAt(getX(i), getY(i), actorTypes[i]);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Returns the content hash of the base WorldSetup.
+	 */
+	public long getBaseHash() {
+		return baseHash;
+	}
+
+	/**
+	 * Returns the content hash of the target WorldSetup.
+	 */
+	public long getTargetHash() {
+		return targetHash;
+	}
+
+	/**
+	 * Returns true if the base and the target have the same content.
+	 */
+	public boolean isEmpty() {
+		return baseHash == targetHash && actorTypes.length == 0
+				&& attributes.isEmpty() && width == -1;
+	}
+
+	/**
+	 * Returns the number of changed cells.
+	 */
+	public int getNumberOfChangedCells() {
+		return actorTypes.length;
+	}
+
+	/**
+	 * Returns the x-position of the changed cell with the specified index.
+	 */
+	public int getX(int index) {
+		return positions[2 * index];
+	}
+
+	/**
+	 * Returns the y-position of the changed cell with the specified index.
+	 */
+	public int getY(int index) {
+		return positions[2 * index + 1];
+	}
+
+	/**
+	 * Returns the new actor type of the changed cell with the specified
+	 * index. Removed actors have the type {@link WorldSetup#EMPTY}.
+	 */
+	public char getActorType(int index) {
+		return actorTypes[index];
+	}
+
+	/**
+	 * Writes this delta as text (see class description).
+	 *
+	 * @param out
+	 *            where to write to
+	 * @throws java.io.IOException
+	 *             if writing fails
+	 */
+	public void writeTo(Appendable out) throws java.io.IOException {
+		out.append(DELTA_KEY).append(' ').append(Long.toHexString(baseHash))
+				.append(' ').append(Long.toHexString(targetHash)).append('\n');
+		if (width != -1) {
+			out.append(SIZE_KEY).append(' ').append(Integer.toString(width))
+					.append(' ').append(Integer.toString(height)).append('\n');
+		}
+		if (title != null) {
+			out.append(TITLE_KEY).append(' ').append(escape(title)).append('\n');
+		}
+		for (Entry<String, String> entry : attributes.entrySet()) {
+			out.append(ATTRIBUTE_KEY).append(' ').append(escape(entry.getKey()));
+			if (entry.getValue() != null) {
+				out.append('\t').append(escape(entry.getValue()));
+			}
+			out.append('\n');
+		}
+		out.append(CELLS_KEY).append(' ');
+		for (int i = 0; i < actorTypes.length; i++) {
+			if (i > 0) {
+				out.append(';');
+			}
+			out.append(Integer.toString(getX(i))).append(',')
+					.append(Integer.toString(getY(i))).append(',')
+					.append(actorTypes[i]);
+		}
+		out.append('\n');
+	}
+
+	/**
+	 * Returns this delta as text (see class description).
+	 */
+	public String toText() {
+		StringBuilder buf = new StringBuilder();
+		try {
+			writeTo(buf);
+		} catch (java.io.IOException e) {
+			// a StringBuilder does not throw IOExceptions
+			throw new IllegalStateException(e);
+		}
+		return buf.toString();
+	}
+
+	@Override
+	public String toString() {
+		return "WorldSetupDelta (" + actorTypes.length + " changed cells)";
+	}
+
+	/**
+	 * Parses a delta from the lines written by {@link #writeTo(Appendable)}.
+	 *
+	 * @param lines
+	 *            the lines of the delta
+	 * @return the delta
+	 * @throws IllegalArgumentException
+	 *             if the lines don't contain a valid delta.
+	 */
+	public static WorldSetupDelta parse(List<String> lines) {
+		long baseHash = 0;
+		long targetHash = 0;
+		boolean foundDelta = false;
+		int width = -1;
+		int height = -1;
+		String title = null;
+		Map<String, String> attributes = new LinkedHashMap<String, String>();
+		short[] positions = new short[0];
+		char[] actorTypes = new char[0];
+
+		try {
+			for (String line : lines) {
+				if (line.startsWith(DELTA_KEY)) {
+					String[] hashes = line.substring(DELTA_KEY.length()).trim()
+							.split(" ");
+					baseHash = parseHexLong(hashes[0]);
+					targetHash = parseHexLong(hashes[1]);
+					foundDelta = true;
+				} else if (line.startsWith(SIZE_KEY)) {
+					String[] size = line.substring(SIZE_KEY.length()).trim()
+							.split(" ");
+					width = Integer.parseInt(size[0]);
+					height = Integer.parseInt(size[1]);
+				} else if (line.startsWith(TITLE_KEY)) {
+					title = unescape(line.substring(TITLE_KEY.length()).trim());
+				} else if (line.startsWith(ATTRIBUTE_KEY)) {
+					String attribute = line.substring(ATTRIBUTE_KEY.length() + 1);
+					int tab = attribute.indexOf('\t');
+					if (tab == -1) {
+						attributes.put(unescape(attribute), null);
+					} else {
+						attributes.put(unescape(attribute.substring(0, tab)),
+								unescape(attribute.substring(tab + 1)));
+					}
+				} else if (line.startsWith(CELLS_KEY)) {
+					String cells = line.substring(CELLS_KEY.length() + 1);
+					int count = 0;
+					for (int i = 0; i < cells.length(); i++) {
+						if (cells.charAt(i) == ';') {
+							count++;
+						}
+					}
+					count = cells.length() == 0 ? 0 : count + 1;
+					positions = new short[2 * count];
+					actorTypes = new char[count];
+
+					int pos = 0;
+					for (int i = 0; i < count; i++) {
+						int comma1 = cells.indexOf(',', pos);
+						int comma2 = cells.indexOf(',', comma1 + 1);
+						positions[2 * i] = Short.parseShort(cells.substring(pos, comma1));
+						positions[2 * i + 1] = Short.parseShort(cells.substring(comma1 + 1, comma2));
+						// the actor sign is exactly one char and may be a space
+						actorTypes[i] = cells.charAt(comma2 + 1);
+						pos = comma2 + 3;
+					}
+				}
+			}
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Invalid world setup delta: "
+					+ e.getMessage(), e);
+		}
+
+		if (!foundDelta) {
+			throw new IllegalArgumentException("Invalid world setup delta: no "
+					+ DELTA_KEY + " line found");
+		}
+		return new WorldSetupDelta(baseHash, targetHash, width, height, title,
+				attributes, positions, actorTypes);
+	}
+
+	/**
+	 * Escapes the characters that would break the line format.
+	 */
+	private static String escape(String text) {
+		StringBuilder buf = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '\\':
+				buf.append("\\\\");
+				break;
+			case '\t':
+				buf.append("\\t");
+				break;
+			case '\n':
+				buf.append("\\n");
+				break;
+			case '\r':
+				buf.append("\\r");
+				break;
+			default:
+				buf.append(c);
+			}
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Reverts {@link #escape(String)}.
+	 */
+	private static String unescape(String text) {
+		if (text.indexOf('\\') == -1) {
+			return text;
+		}
+		StringBuilder buf = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\\' && i + 1 < text.length()) {
+				c = text.charAt(++i);
+				if (c == 't') {
+					c = '\t';
+				} else if (c == 'n') {
+					c = '\n';
+				} else if (c == 'r') {
+					c = '\r';
+				}
+			}
+			buf.append(c);
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Parses an unsigned hexadecimal long (as written by
+	 * {@link Long#toHexString(long)}).
+	 */
+	private static long parseHexLong(String hex) {
+		if (hex.length() > 16) {
+			throw new NumberFormatException("Not a 64-bit hex number: " + hex);
+		}
+		long value = 0;
+		for (int i = 0; i < hex.length(); i++) {
+			int digit = Character.digit(hex.charAt(i), 16);
+			if (digit == -1) {
+				throw new NumberFormatException("Not a 64-bit hex number: " + hex);
+			}
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the actor type or {@link WorldSetup#EMPTY} if the position is
+	 * not defined.
+	 */
+	private static char getActorTypeOrEmpty(WorldSetup worldSetup, int x, int y) {
+		char actorType = worldSetup.getActorTypeAt(x, y);
+		return actorType == WorldSetup.UNDEFINED ? WorldSetup.EMPTY : actorType;
+	}
+}
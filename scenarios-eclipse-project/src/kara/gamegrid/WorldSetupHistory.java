@@ -0,0 +1,169 @@
+package kara.gamegrid;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A WorldSetupHistory stores a sequence of WorldSetups, e.g. the state of the
+ * world after every step of a program.
+ * <p>
+ * Only every {@link #KEYFRAME_INTERVAL}th WorldSetup is stored completely. For
+ * all the others only the {@link WorldSetupDelta} to the previous WorldSetup
+ * is stored. Like this, thousands of WorldSetups can be stored while any
+ * WorldSetup can still be restored with at most KEYFRAME_INTERVAL - 1 deltas.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class WorldSetupHistory {
+	/**
+	 * Number of WorldSetups between two completely stored WorldSetups.
+	 */
+	public static final int KEYFRAME_INTERVAL = 64;
+
+	private final List<WorldSetup> keyframes = new ArrayList<WorldSetup>();
+
+	/**
+	 * The delta to the previous WorldSetup for every WorldSetup. The entries of
+	 * keyframes are <code>null</code>.
+	 */
+	private final List<WorldSetupDelta> deltas = new ArrayList<WorldSetupDelta>();
+
+	/**
+	 * The last added WorldSetup. Needed to create the next delta.
+	 */
+	private WorldSetup last;
+
+	/**
+	 * Adds the WorldSetup to the end of the history.
+	 *
+	 * @param worldSetup
+	 *            the WorldSetup to add
+	 * @return the index of the added WorldSetup
+	 */
+	public synchronized int add(WorldSetup worldSetup) {
+		int index = deltas.size();
+		if (index % KEYFRAME_INTERVAL == 0) {
+			keyframes.add(worldSetup);
+			deltas.add(null);
+		} else {
+			deltas.add(WorldSetupDelta.diff(last, worldSetup));
+		}
+		last = worldSetup;
+		return index;
+	}
+
+	/**
+	 * Returns the WorldSetup with the specified index. All the returned
+	 * WorldSetups except the keyframes are newly created, but have the same
+	 * content as the added ones.
+	 *
+	 * @param index
+	 *            the index (0 is the first added WorldSetup)
+	 * @return the WorldSetup
+	 * @throws IndexOutOfBoundsException
+	 *             if there is no WorldSetup with the index.
+	 */
+	public synchronized WorldSetup get(int index) {
+		if (index < 0 || index >= deltas.size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ deltas.size());
+		}
+		if (index == deltas.size() - 1) {
+			return last;
+		}
+
+		int keyframe = index / KEYFRAME_INTERVAL;
+		WorldSetup worldSetup = keyframes.get(keyframe);
+		for (int i = keyframe * KEYFRAME_INTERVAL + 1; i <= index; i++) {
+			worldSetup = deltas.get(i).applyTo(worldSetup);
+		}
+		return worldSetup;
+	}
+
+	/**
+	 * Returns the last added WorldSetup or <code>null</code> if the history is
+	 * empty.
+	 */
+	public synchronized WorldSetup getLast() {
+		return last;
+	}
+
+	/**
+	 * Returns the number of WorldSetups in the history.
+	 */
+	public synchronized int size() {
+		return deltas.size();
+	}
+
+	/**
+	 * Removes all WorldSetups after the specified index, e.g. to start a new
+	 * branch of the history.
+	 *
+	 * @param size
+	 *            the number of WorldSetups to keep
+	 */
+	public synchronized void truncate(int size) {
+		if (size >= deltas.size()) {
+			return;
+		}
+		last = size > 0 ? get(size - 1) : null;
+		while (deltas.size() > size) {
+			deltas.remove(deltas.size() - 1);
+		}
+		int keyframesToKeep = (size + KEYFRAME_INTERVAL - 1) / KEYFRAME_INTERVAL;
+		while (keyframes.size() > keyframesToKeep) {
+			keyframes.remove(keyframes.size() - 1);
+		}
+	}
+
+	/**
+	 * Writes the history as text: the first WorldSetup completely and then the
+	 * delta to the previous WorldSetup for every other one (see
+	 * {@link WorldSetupDelta#writeTo(Appendable)}).
+	 *
+	 * @param out
+	 *            where to write to
+	 * @throws IOException
+	 *             if an I/O error occurs writing to the output or if the
+	 *             title or an attribute of the first WorldSetup contains a
+	 *             line break (the world setup format can't store it).
+	 */
+	public synchronized void writeTo(Appendable out) throws IOException {
+		if (deltas.isEmpty()) {
+			return;
+		}
+		WorldSetup first = keyframes.get(0);
+		checkSingleLine(first.getTitle());
+		for (Map.Entry<String, String> entry : first.getAttributes().entrySet()) {
+			checkSingleLine(entry.getKey());
+			checkSingleLine(entry.getValue());
+		}
+		first.writeTo(out, true);
+		for (int i = 1; i < deltas.size(); i++) {
+			WorldSetupDelta delta = deltas.get(i);
+			if (delta == null) {
+				// a keyframe, its delta is only needed in the text
+				delta = WorldSetupDelta.diff(get(i - 1),
+						keyframes.get(i / KEYFRAME_INTERVAL));
+			}
+			delta.writeTo(out);
+		}
+	}
+
+	private static void checkSingleLine(String text) throws IOException {
+		if (text != null && (text.indexOf('\n') != -1 || text.indexOf('\r') != -1)) {
+			throw new IOException("Line break in the world setup: " + text);
+		}
+	}
+
+	/**
+	 * Removes all WorldSetups.
+	 */
+	public synchronized void clear() {
+		keyframes.clear();
+		deltas.clear();
+		last = null;
+	}
+}
@@ -0,0 +1,94 @@
+package kara.gamegrid;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The WorldSetupRegistry is used to share WorldSetups with the same content.
+ * <p>
+ * Level collections often contain the same WorldSetup more than once. If all
+ * WorldSetups are passed through {@link #intern(WorldSetup)}, only one
+ * instance is kept for each content. Since WorldSetups are immutable, it is
+ * safe to use the shared instance instead of the duplicate.
+ * <p>
+ * WorldSetups are compared by their content (see
+ * {@link WorldSetup#getContentHash()} and
+ * {@link WorldSetup#contentEquals(WorldSetup)}) and must be of the same class.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class WorldSetupRegistry {
+
+	/**
+	 * The registered WorldSetups with the content hash as key. The list
+	 * contains more than one WorldSetup only if different contents have the
+	 * same hash.
+	 */
+	private final Map<Long, List<WorldSetup>> worldSetups = new HashMap<Long, List<WorldSetup>>();
+
+	private int size = 0;
+
+	/**
+	 * Returns the registered WorldSetup with the same content as the specified
+	 * WorldSetup. If there is none yet, the specified WorldSetup is registered
+	 * and returned.
+	 *
+	 * @param worldSetup
+	 *            the WorldSetup to intern
+	 * @return the shared WorldSetup with the same content
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T extends WorldSetup> T intern(T worldSetup) {
+		Long key = worldSetup.getContentHash();
+		List<WorldSetup> candidates = worldSetups.get(key);
+		if (candidates == null) {
+			candidates = new ArrayList<WorldSetup>(1);
+			worldSetups.put(key, candidates);
+		}
+
+		for (WorldSetup candidate : candidates) {
+			if (candidate.getClass() == worldSetup.getClass()
+					&& candidate.contentEquals(worldSetup)) {
+				// same class, so the cast is safe
+				return (T) candidate;
+			}
+		}
+
+		candidates.add(worldSetup);
+		size++;
+		return worldSetup;
+	}
+
+	/**
+	 * Returns true if a WorldSetup with the same content is registered.
+	 */
+	public synchronized boolean contains(WorldSetup worldSetup) {
+		List<WorldSetup> candidates = worldSetups.get(worldSetup.getContentHash());
+		if (candidates != null) {
+			for (WorldSetup candidate : candidates) {
+				if (candidate.getClass() == worldSetup.getClass()
+						&& candidate.contentEquals(worldSetup)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of registered (distinct) WorldSetups.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all registered WorldSetups.
+	 */
+	public synchronized void clear() {
+		worldSetups.clear();
+		size = 0;
+	}
+}
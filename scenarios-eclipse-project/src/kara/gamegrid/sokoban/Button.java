@@ -146,6 +146,13 @@ public class Button extends Label implements GGMouseTouchListener {
 		createImage();
 	}
 
+	/**
+	 * Returns whether the Button is enabled.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
 	/**
 	 * Returns whether the specified color is a bright color.
 	 */
@@ -0,0 +1,306 @@
+package kara.gamegrid.sokoban;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import kara.gamegrid.WorldSetup;
+import kara.gamegrid.WorldSetup.FileUtils;
+import kara.gamegrid.WorldSetupRegistry;
+
+/**
+ * The Canonicalizer finds levels that are the same puzzle, even if they are
+ * rotated, mirrored or drawn differently.
+ * <p>
+ * The canonical form of a level only contains what matters for the puzzle:
+ * <ul>
+ * <li>the cells Kara can reach (with the mushrooms taken away) and the trees
+ * around them. Other trees and floor are removed, and the level is moved to
+ * the top left corner.
+ * <li>Kara on the first cell she can walk to, because all these cells are
+ * the same start.
+ * <li>of the 8 rotations and mirrorings, the one with the smallest text.
+ * </ul>
+ * Two levels are the same puzzle if their canonical forms have the same
+ * content. Because the canonical forms are compared by content hash, packs
+ * can be merged in linear time.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class Canonicalizer {
+
+	private Canonicalizer() {
+	}
+
+	/**
+	 * Returns the canonical form of the world setup, without attributes.
+	 */
+	public static WorldSetup canonicalize(WorldSetup worldSetup) {
+		WorldSetup.Builder builder = new WorldSetup.Builder(
+				worldSetup.getTitleKey()).setTitle(worldSetup.getTitle());
+		for (String line : getCanonicalText(worldSetup).split("\n", -1)) {
+			builder.addActorLine(line);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Returns the content hash of the canonical form. Levels with the same
+	 * puzzle have the same hash.
+	 */
+	public static long getCanonicalHash(WorldSetup worldSetup) {
+		return canonicalize(worldSetup).getContentHash();
+	}
+
+	/**
+	 * Merges the levels of all packs and drops the levels that are the same
+	 * puzzle as an earlier one. The levels are numbered again, passwords are
+	 * kept if they are unique.
+	 *
+	 * @param packs
+	 *            the levels of the packs
+	 * @return the distinct levels in the order of the packs
+	 */
+	public static Level[] merge(List<Level[]> packs) {
+		WorldSetupRegistry registry = new WorldSetupRegistry();
+		List<Level> levels = new ArrayList<Level>();
+		Set<String> passwords = new HashSet<String>();
+		for (Level[] pack : packs) {
+			for (Level level : pack) {
+				WorldSetup canonical = canonicalize(level);
+				if (registry.intern(canonical) != canonical) {
+					// the same puzzle was added before
+					continue;
+				}
+				int levelNumber = levels.size() + 1;
+				String password = level.getLevelPassword();
+				if (password == null || !passwords.add(password)) {
+					password = Level.createUniquePassword(
+							level.getContentHash(), levelNumber, passwords);
+				}
+				WorldSetup merged = new WorldSetup.Builder(level)
+						.setTitle(Integer.toString(levelNumber))
+						.addAttribute(Level.PASSWORD_KEY, password).build();
+				levels.add(new Level(merged, levelNumber));
+			}
+		}
+		return levels.toArray(new Level[levels.size()]);
+	}
+
+	/**
+	 * Returns the rows of the canonical form, separated by new lines.
+	 */
+	private static String getCanonicalText(WorldSetup worldSetup) {
+		int width = worldSetup.getWidth();
+		int height = worldSetup.getHeight();
+		char[] cells = new char[width * height];
+		int kara = -1;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				char c = worldSetup.getActorTypeAt(x, y);
+				if (c == WorldSetup.KARA || c == WorldSetup.KARA_LEAF) {
+					kara = y * width + x;
+					c = c == WorldSetup.KARA_LEAF ? WorldSetup.LEAF : WorldSetup.EMPTY;
+				} else if (c == WorldSetup.UNDEFINED) {
+					c = WorldSetup.EMPTY;
+				}
+				cells[y * width + x] = c;
+			}
+		}
+
+		// the floor Kara could ever reach and where she can go right now
+		boolean[] floor = markReachable(cells, width, height, kara, false);
+		boolean[] start = markReachable(cells, width, height, kara, true);
+
+		char[] kept = new char[cells.length];
+		for (int i = 0; i < cells.length; i++) {
+			char c = cells[i];
+			if (floor[i]) {
+				kept[i] = c;
+			} else if (c == WorldSetup.TREE) {
+				kept[i] = isNextTo(floor, width, height, i) ? c : WorldSetup.EMPTY;
+			} else {
+				// mushrooms and leaves Kara can't reach still count
+				kept[i] = c;
+			}
+		}
+
+		// the bounding box of the kept cells
+		int minX = width;
+		int minY = height;
+		int maxX = -1;
+		int maxY = -1;
+		for (int i = 0; i < kept.length; i++) {
+			if (kept[i] != WorldSetup.EMPTY) {
+				minX = Math.min(minX, i % width);
+				maxX = Math.max(maxX, i % width);
+				minY = Math.min(minY, i / width);
+				maxY = Math.max(maxY, i / width);
+			}
+		}
+		if (maxX == -1) {
+			return "";
+		}
+
+		String best = null;
+		for (int symmetry = 0; symmetry < 8; symmetry++) {
+			String text = transform(kept, start, width, minX, minY, maxX - minX
+					+ 1, maxY - minY + 1, symmetry);
+			if (best == null || text.compareTo(best) < 0) {
+				best = text;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the text of the box (left, top, boxWidth, boxHeight) of the
+	 * cells after a rotation or mirroring. Bit 0 of the symmetry swaps x and
+	 * y, bit 1 mirrors x and bit 2 mirrors y. Kara is put on the first cell of
+	 * her start region.
+	 */
+	private static String transform(char[] cells, boolean[] start, int width,
+			int left, int top, int boxWidth, int boxHeight, int symmetry) {
+		boolean swap = (symmetry & 1) != 0;
+		int targetWidth = swap ? boxHeight : boxWidth;
+		int targetHeight = swap ? boxWidth : boxHeight;
+		char[] target = new char[targetWidth * targetHeight];
+		boolean[] targetStart = new boolean[target.length];
+		for (int y = 0; y < boxHeight; y++) {
+			for (int x = 0; x < boxWidth; x++) {
+				int tx = swap ? y : x;
+				int ty = swap ? x : y;
+				if ((symmetry & 2) != 0) {
+					tx = targetWidth - 1 - tx;
+				}
+				if ((symmetry & 4) != 0) {
+					ty = targetHeight - 1 - ty;
+				}
+				int source = (top + y) * width + left + x;
+				target[ty * targetWidth + tx] = cells[source];
+				targetStart[ty * targetWidth + tx] = start[source];
+			}
+		}
+
+		for (int i = 0; i < target.length; i++) {
+			if (targetStart[i]) {
+				target[i] = target[i] == WorldSetup.LEAF ? WorldSetup.KARA_LEAF
+						: WorldSetup.KARA;
+				break;
+			}
+		}
+
+		StringBuilder text = new StringBuilder(target.length + targetHeight);
+		for (int y = 0; y < targetHeight; y++) {
+			if (y > 0) {
+				text.append('\n');
+			}
+			int end = targetWidth;
+			while (end > 0 && target[y * targetWidth + end - 1] == WorldSetup.EMPTY) {
+				end--;
+			}
+			text.append(target, y * targetWidth, end);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Marks the cells Kara can walk to from the start. Trees always block,
+	 * mushrooms only if blockedByMushrooms is true.
+	 */
+	private static boolean[] markReachable(char[] cells, int width,
+			int height, int start, boolean blockedByMushrooms) {
+		boolean[] reachable = new boolean[cells.length];
+		if (start == -1) {
+			return reachable;
+		}
+		int[] queue = new int[cells.length];
+		int count = 0;
+		queue[count++] = start;
+		reachable[start] = true;
+		for (int i = 0; i < count; i++) {
+			int x = queue[i] % width;
+			int y = queue[i] / width;
+			for (int d = 0; d < 4; d++) {
+				// like Kara, continue on the other side at the border
+				int nx = (x + (d == 1 ? 1 : d == 3 ? -1 : 0) + width) % width;
+				int ny = (y + (d == 2 ? 1 : d == 0 ? -1 : 0) + height) % height;
+				int next = ny * width + nx;
+				char c = cells[next];
+				if (!reachable[next] && c != WorldSetup.TREE
+						&& !(blockedByMushrooms && isMushroom(c))) {
+					reachable[next] = true;
+					queue[count++] = next;
+				}
+			}
+		}
+		return reachable;
+	}
+
+	/**
+	 * Returns true if one of the 8 cells around the cell is marked.
+	 */
+	private static boolean isNextTo(boolean[] marked, int width, int height,
+			int cell) {
+		int x = cell % width;
+		int y = cell / width;
+		for (int dy = -1; dy <= 1; dy++) {
+			for (int dx = -1; dx <= 1; dx++) {
+				int nx = x + dx;
+				int ny = y + dy;
+				if (nx >= 0 && ny >= 0 && nx < width && ny < height
+						&& marked[ny * width + nx]) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean isMushroom(char c) {
+		return c == WorldSetup.MUSHROOM || c == WorldSetup.MUSHROOM_LEAF;
+	}
+
+	/**
+	 * Merges level files and writes the distinct levels. <br>
+	 * Arguments: levelFile... [-out levelFile]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("Usage: Canonicalizer levelFile... [-out levelFile]");
+			return;
+		}
+		List<Level[]> packs = new ArrayList<Level[]>();
+		File outFile = null;
+		int total = 0;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-out") && i + 1 < args.length) {
+				outFile = new File(args[++i]);
+			} else {
+				Level[] pack = Level.parseFromFile(args[i], null);
+				packs.add(pack);
+				total += pack.length;
+			}
+		}
+
+		long startTime = System.currentTimeMillis();
+		Level[] levels = merge(packs);
+		long time = System.currentTimeMillis() - startTime;
+		if (outFile != null) {
+			Writer writer = FileUtils.openWriter(outFile);
+			try {
+				Level.writeAll(writer, levels);
+			} finally {
+				writer.close();
+			}
+		} else {
+			Level.writeAll(System.out, levels);
+		}
+		System.out.println("Merged " + total + " levels to " + levels.length
+				+ " distinct levels in " + time + "ms");
+	}
+}
@@ -0,0 +1,698 @@
+package kara.gamegrid.sokoban;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Saves the highscores in a small database file. Unlike the other highscore
+ * managers, the database keeps the best result of every player in every
+ * level, not only the top entries. So it can also answer questions like the
+ * best results of a player in all levels or the ranking of all players.
+ * <p>
+ * The database has two indexes that are built when the file is opened:
+ * <ul>
+ * <li>by level and moves: a {@link Leaderboard} per level with all players
+ * <li>by player: the best moves of the player per level
+ * </ul>
+ * The file is a log of transactions. The results that were set at the same
+ * time are written as one transaction with a checksum and synced to the disk
+ * together, by a background thread. A transaction that was only written in
+ * part (e.g. if the computer crashed) is ignored and cut off when the file is
+ * opened again. A damaged transaction in the middle of the file is skipped,
+ * the transactions after it are still read. When more than half of the
+ * results in the file are not the best ones anymore, the background thread
+ * (or {@link #initHighscores()}) writes the file again with only the best
+ * ones.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class DatabaseHighscore extends HighscoreManager {
+	// The default database file
+	private static final String DEFAULT_FILE = "HIGHSCORES.db";
+
+	// The start of every transaction
+	private static final int TRANSACTION_MAGIC = 0x4B534458;
+
+	// The file is only written again if it has at least this many results
+	private static final int COMPACTION_MIN_RESULTS = 64;
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private final File file;
+	private String currentPlayerName = "";
+
+	/**
+	 * The index by level and moves. Guarded by the lock.
+	 */
+	private final Map<Integer, Leaderboard> levels = new HashMap<Integer, Leaderboard>();
+
+	/**
+	 * The index by player: the best moves per level. Guarded by the lock.
+	 */
+	private final Map<String, Map<Integer, Integer>> players = new HashMap<String, Map<Integer, Integer>>();
+
+	/**
+	 * The results that are not written yet. Guarded by the lock.
+	 */
+	private final List<Result> pendingResults = new ArrayList<Result>();
+	private final Object lock = new Object();
+	private boolean initialized;
+
+	/**
+	 * The number of results in the indexes. Guarded by the lock.
+	 */
+	private int bestResults;
+
+	/**
+	 * Only one thread writes to the file at a time.
+	 */
+	private final Object writeLock = new Object();
+	private FileOutputStream log;
+	private int logResults;
+	private Thread writer;
+
+	/**
+	 * Constructor for a DatabaseHighscore with the default file.
+	 */
+	public DatabaseHighscore() {
+		this(DEFAULT_FILE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param fileName
+	 *            the database file, it is created if it does not exist.
+	 */
+	public DatabaseHighscore(String fileName) {
+		this.file = new File(fileName);
+	}
+
+	/**
+	 * Reads the database file and builds the indexes.
+	 */
+	public void initHighscores() {
+		synchronized (writeLock) {
+			if (log != null) {
+				return;
+			}
+			try {
+				logResults = readLog();
+				log = new FileOutputStream(file, true);
+				compactIfNeeded();
+			} catch (IOException ex) {
+				System.out.println("ERROR: Could not load highscore from file: "
+						+ file);
+				ex.printStackTrace();
+			} finally {
+				// the results that could be read are used in any case
+				synchronized (lock) {
+					initialized = true;
+				}
+			}
+		}
+
+		if (writer == null) {
+			writer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					writeResults();
+				}
+			}, "Highscore Database");
+			writer.setDaemon(true);
+			writer.start();
+
+			// write the last results when the program ends
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					flush();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns it the manager is read only.
+	 */
+	public boolean isReadOnly() {
+		// never read only
+		return false;
+	}
+
+	/**
+	 * Returns true, the name of the player is stored with the highscore.
+	 */
+	public boolean canSetPlayerName() {
+		return true;
+	}
+
+	/**
+	 * Returns the name of the current player.
+	 */
+	public String getCurrentPlayerName() {
+		return currentPlayerName;
+	}
+
+	/**
+	 * Set the name of the current player.
+	 */
+	public void setCurrentPlayerName(String currentPlayerName) {
+		this.currentPlayerName = currentPlayerName;
+	}
+
+	/**
+	 * Returns the Highscore for the specified level with the best entries.
+	 * The returned Highscore is a clone. To store a change in the highscore,
+	 * the method setHighscore(...) must be called.
+	 */
+	public Highscore getHighscoreForLevel(int levelNumber) {
+		synchronized (lock) {
+			if (!initialized) {
+				return null;
+			}
+			Highscore highscore = new Highscore(levelNumber, getHighscoreSize());
+			Leaderboard leaderboard = levels.get(levelNumber);
+			if (leaderboard != null) {
+				for (Highscore.Entry entry : leaderboard.getEntries(1,
+						getHighscoreSize())) {
+					highscore.addHighscoreEntry(entry);
+				}
+			}
+			return highscore;
+		}
+	}
+
+	/**
+	 * Adds the entries of the specified Highscore to the database. The new
+	 * best results are written by the background thread.
+	 */
+	public void setHighscore(Highscore highscore) {
+		for (Highscore.Entry entry : highscore.getEntries(1,
+				highscore.getNumberOfEntries())) {
+			addResult(highscore.getLevelNumber(), entry.getName(),
+					entry.getMoves());
+		}
+	}
+
+	/**
+	 * Adds the result of a player in a level, even if it is not in the top
+	 * entries of the level. It is only written if it is the best result of
+	 * the player in the level.
+	 */
+	public void addResult(int levelNumber, String playerName, int moves) {
+		synchronized (lock) {
+			Result result = new Result(levelNumber, playerName, moves);
+			if (add(result)) {
+				pendingResults.add(result);
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Writes all the results that were set as one transaction and waits until
+	 * they are on the disk.
+	 */
+	public void flush() {
+		synchronized (writeLock) {
+			List<Result> results;
+			synchronized (lock) {
+				if (pendingResults.isEmpty()) {
+					return;
+				}
+				results = new ArrayList<Result>(pendingResults);
+				pendingResults.clear();
+			}
+			if (log == null) {
+				System.out.println("ERROR: Could not save highscore to file: "
+						+ file);
+				return;
+			}
+
+			try {
+				log.write(toTransaction(results));
+				log.getFD().sync();
+				logResults += results.size();
+				compactIfNeeded();
+			} catch (IOException ex) {
+				System.out.println("ERROR: Could not save highscore to file: "
+						+ file);
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Returns the best moves of the player in every level the player solved,
+	 * sorted by the level number.
+	 */
+	public Map<Integer, Integer> getPlayerBests(String playerName) {
+		synchronized (lock) {
+			Map<Integer, Integer> bests = players.get(playerName);
+			if (bests == null) {
+				return new TreeMap<Integer, Integer>();
+			}
+			return new TreeMap<Integer, Integer>(bests);
+		}
+	}
+
+	/**
+	 * Returns the place of the player in the level (starting with 1) or -1 if
+	 * the player did not solve the level.
+	 */
+	public int getPlayerPlace(String playerName, int levelNumber) {
+		synchronized (lock) {
+			Leaderboard leaderboard = levels.get(levelNumber);
+			return leaderboard != null ? leaderboard.getPlayerPlace(playerName)
+					: -1;
+		}
+	}
+
+	/**
+	 * Returns the number of players that solved the level.
+	 */
+	public int getNumberOfPlayers(int levelNumber) {
+		synchronized (lock) {
+			Leaderboard leaderboard = levels.get(levelNumber);
+			return leaderboard != null ? leaderboard.size() : 0;
+		}
+	}
+
+	/**
+	 * Returns the best players of all levels. The player who solved the most
+	 * levels is first, if two players solved the same number of levels, the
+	 * one with fewer moves in total is first.
+	 *
+	 * @param count
+	 *            the maximal number of players
+	 */
+	public List<PlayerScore> getRanking(int count) {
+		List<PlayerScore> ranking = new ArrayList<PlayerScore>();
+		synchronized (lock) {
+			for (Map.Entry<String, Map<Integer, Integer>> player : players
+					.entrySet()) {
+				long totalMoves = 0;
+				for (int moves : player.getValue().values()) {
+					totalMoves += moves;
+				}
+				ranking.add(new PlayerScore(player.getKey(), player.getValue()
+						.size(), totalMoves));
+			}
+		}
+		Collections.sort(ranking, new Comparator<PlayerScore>() {
+			@Override
+			public int compare(PlayerScore a, PlayerScore b) {
+				if (a.levels != b.levels) {
+					return a.levels > b.levels ? -1 : 1;
+				}
+				if (a.totalMoves != b.totalMoves) {
+					return a.totalMoves < b.totalMoves ? -1 : 1;
+				}
+				return a.name.compareTo(b.name);
+			}
+		});
+		return new ArrayList<PlayerScore>(ranking.subList(0,
+				Math.min(count, ranking.size())));
+	}
+
+	/**
+	 * Adds the result to the indexes, if it is the best of the player in the
+	 * level. Must be called with the lock.
+	 *
+	 * @return true if the result was added.
+	 */
+	private boolean add(Result result) {
+		if (result.moves < 1) {
+			// not a real entry
+			return false;
+		}
+		Map<Integer, Integer> bests = players.get(result.name);
+		if (bests != null) {
+			Integer best = bests.get(result.levelNumber);
+			if (best != null && !Highscore.isBetterThan(result.moves, best)) {
+				return false;
+			}
+		}
+
+		if (bests == null || !bests.containsKey(result.levelNumber)) {
+			bestResults++;
+		}
+		Leaderboard leaderboard = levels.get(result.levelNumber);
+		if (leaderboard == null) {
+			leaderboard = new Leaderboard(Integer.MAX_VALUE);
+			levels.put(result.levelNumber, leaderboard);
+		}
+		leaderboard.add(result.name, result.moves);
+
+		if (bests == null) {
+			bests = new HashMap<Integer, Integer>();
+			players.put(result.name, bests);
+		}
+		bests.put(result.levelNumber, result.moves);
+		return true;
+	}
+
+	/**
+	 * Reads all complete transactions of the log into the indexes. A damaged
+	 * transaction is skipped if a complete transaction follows it, otherwise
+	 * it is the incomplete end of the log and is cut off.
+	 *
+	 * @return the number of results in the log
+	 */
+	private int readLog() throws IOException {
+		File tempFile = new File(file.getPath() + ".tmp");
+		if (!file.exists() && tempFile.exists()) {
+			// the program stopped between deleting the file and renaming the
+			// complete temporary file in compact()
+			if (!tempFile.renameTo(file)) {
+				throw new IOException("Could not rename " + tempFile + " to "
+						+ file);
+			}
+		}
+		if (!file.exists()) {
+			return 0;
+		}
+		byte[] data = readFile();
+
+		int results = 0;
+		int position = 0;
+		int validLength = 0;
+		List<Result> transaction = new ArrayList<Result>();
+		while (position < data.length) {
+			transaction.clear();
+			int end = parseTransaction(data, position, transaction);
+			if (end == -1) {
+				// look for the next transaction that can be read
+				position = findTransaction(data, position + 1);
+				if (position == -1) {
+					break;
+				}
+				System.out.println("Ignoring damaged highscore transaction in "
+						+ file);
+				continue;
+			}
+			synchronized (lock) {
+				for (Result result : transaction) {
+					add(result);
+				}
+			}
+			results += transaction.size();
+			position = end;
+			validLength = end;
+		}
+
+		if (validLength < data.length) {
+			System.out.println("Ignoring incomplete highscore transaction in "
+					+ file);
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+			try {
+				randomAccessFile.setLength(validLength);
+			} finally {
+				randomAccessFile.close();
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Reads the whole file.
+	 */
+	private byte[] readFile() throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			byte[] data = new byte[(int) file.length()];
+			input.readFully(data);
+			return data;
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Returns the start of the next transaction from the position on that
+	 * can be read or -1 if there is none.
+	 */
+	private static int findTransaction(byte[] data, int position) {
+		List<Result> results = new ArrayList<Result>();
+		for (int start = position; start + 4 <= data.length; start++) {
+			if (readInt(data, start) == TRANSACTION_MAGIC) {
+				results.clear();
+				if (parseTransaction(data, start, results) != -1) {
+					return start;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static int readInt(byte[] data, int position) {
+		return (data[position] & 0xff) << 24 | (data[position + 1] & 0xff) << 16
+				| (data[position + 2] & 0xff) << 8 | (data[position + 3] & 0xff);
+	}
+
+	/**
+	 * Parses the transaction at the position and adds its results to the
+	 * list.
+	 *
+	 * @return the end of the transaction or -1 if there is no complete
+	 *         transaction at the position.
+	 */
+	private static int parseTransaction(byte[] data, int position,
+			List<Result> results) {
+		ByteArrayInputStream bytes = new ByteArrayInputStream(data, position,
+				data.length - position);
+		DataInputStream input = new DataInputStream(bytes);
+		try {
+			if (input.readInt() != TRANSACTION_MAGIC) {
+				return -1;
+			}
+			int count = input.readInt();
+			// every result has at least 10 bytes
+			if (count < 0 || count > bytes.available() / 10) {
+				return -1;
+			}
+			for (int i = 0; i < count; i++) {
+				int levelNumber = input.readInt();
+				String name = input.readUTF();
+				int moves = input.readInt();
+				results.add(new Result(levelNumber, name, moves));
+			}
+			int checksumPosition = data.length - bytes.available();
+			long checksum = input.readLong();
+			if (checksum != checksum(data, position, checksumPosition - position)) {
+				return -1;
+			}
+			return checksumPosition + 8;
+		} catch (IOException e) {
+			// the end of the file or a damaged name
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the bytes of a transaction with the results.
+	 */
+	private static byte[] toTransaction(List<Result> results)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		output.writeInt(TRANSACTION_MAGIC);
+		output.writeInt(results.size());
+		for (Result result : results) {
+			output.writeInt(result.levelNumber);
+			output.writeUTF(result.name);
+			output.writeInt(result.moves);
+		}
+		output.flush();
+		output.writeLong(checksum(bytes.toByteArray(), 0, bytes.size()));
+		output.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Returns the CRC-32 checksum of the bytes of a transaction (everything
+	 * before the checksum).
+	 */
+	private static long checksum(byte[] data, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(data, offset, length);
+		return crc.getValue();
+	}
+
+	/**
+	 * Writes the file again if more than half of its results are not the
+	 * best ones anymore. Must be called with the write lock.
+	 */
+	private void compactIfNeeded() throws IOException {
+		int results;
+		synchronized (lock) {
+			results = bestResults;
+		}
+		if (logResults < COMPACTION_MIN_RESULTS || logResults <= 2 * results) {
+			return;
+		}
+		if (log != null) {
+			log.close();
+			log = null;
+		}
+		try {
+			logResults = compact();
+		} finally {
+			// if the file is missing, the complete temporary file is renamed
+			// when the file is opened again (see readLog())
+			if (file.exists()) {
+				log = new FileOutputStream(file, true);
+			}
+		}
+	}
+
+	/**
+	 * Writes the file again with only the best results, as one transaction.
+	 * The new file is written to a temporary file that is then renamed. Must
+	 * be called with the write lock.
+	 *
+	 * @return the number of results in the new file
+	 */
+	private int compact() throws IOException {
+		List<Result> results = new ArrayList<Result>();
+		synchronized (lock) {
+			for (Map.Entry<Integer, Leaderboard> level : levels.entrySet()) {
+				// in the order of the places, so equal moves keep their order
+				for (Highscore.Entry entry : level.getValue().getEntries(1,
+						level.getValue().size())) {
+					results.add(new Result(level.getKey(), entry.getName(),
+							entry.getMoves()));
+				}
+			}
+		}
+
+		File tempFile = new File(file.getPath() + ".tmp");
+		FileOutputStream output = new FileOutputStream(tempFile);
+		try {
+			output.write(toTransaction(results));
+			output.getFD().sync();
+		} finally {
+			output.close();
+		}
+		if (!tempFile.renameTo(file)) {
+			// e.g. on Windows, a file can't be renamed to an existing file
+			file.delete();
+			if (!tempFile.renameTo(file)) {
+				throw new IOException("Could not rename " + tempFile + " to "
+						+ file);
+			}
+		}
+		return results.size();
+	}
+
+	/**
+	 * The loop of the background thread: writes the results as soon as they
+	 * are set.
+	 */
+	private void writeResults() {
+		while (true) {
+			synchronized (lock) {
+				while (pendingResults.isEmpty()) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+			flush();
+		}
+	}
+
+	/**
+	 * Prints the ranking of all players or the best results of a player. <br>
+	 * Arguments: databaseFile [playerName]
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.out.println("Usage: DatabaseHighscore databaseFile [playerName]");
+			return;
+		}
+		DatabaseHighscore database = new DatabaseHighscore(args[0]);
+		database.initHighscores();
+		if (args.length > 1) {
+			for (Map.Entry<Integer, Integer> best : database.getPlayerBests(
+					args[1]).entrySet()) {
+				System.out.println("Level " + best.getKey() + ": "
+						+ best.getValue() + " moves, place "
+						+ database.getPlayerPlace(args[1], best.getKey()));
+			}
+		} else {
+			int place = 1;
+			for (PlayerScore score : database.getRanking(Integer.MAX_VALUE)) {
+				System.out.println(place++ + ". " + score);
+			}
+		}
+	}
+
+	/**
+	 * A result of a player in a level, as stored in the file.
+	 */
+	private static class Result {
+		private final int levelNumber;
+		private final String name;
+		private final int moves;
+
+		private Result(int levelNumber, String name, int moves) {
+			this.levelNumber = levelNumber;
+			this.name = name;
+			this.moves = moves;
+		}
+	}
+
+	/**
+	 * The score of a player in all levels: the number of solved levels and
+	 * the moves in total.
+	 */
+	public static class PlayerScore {
+		private final String name;
+		private final int levels;
+		private final long totalMoves;
+
+		public PlayerScore(String name, int levels, long totalMoves) {
+			this.name = name;
+			this.levels = levels;
+			this.totalMoves = totalMoves;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getLevels() {
+			return levels;
+		}
+
+		public long getTotalMoves() {
+			return totalMoves;
+		}
+
+		public String toString() {
+			return name + " (" + levels + " levels, " + totalMoves + " moves)";
+		}
+	}
+}
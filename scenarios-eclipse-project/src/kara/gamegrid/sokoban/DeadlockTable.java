@@ -0,0 +1,263 @@
+package kara.gamegrid.sokoban;
+
+import java.util.Arrays;
+
+import kara.gamegrid.WorldSetup;
+
+/**
+ * The DeadlockTable knows the static deadlocks of a level and can check for
+ * freeze deadlocks. A deadlock is a situation where the level can't be
+ * completed anymore, no matter how Kara moves.
+ * <p>
+ * Dead squares are computed once: a mushroom on a dead square (e.g. in a
+ * corner without a leaf) can never be pushed to a leaf.
+ * <p>
+ * A freeze deadlock happens if mushrooms block each other and walls so that
+ * none of them can ever be moved again, and at least one of them is not on a
+ * leaf. The check only looks at the mushrooms around a pushed mushroom.
+ * <p>
+ * Positions are world positions (y * width + x). Like in the Kara world,
+ * moving over the border continues on the other side. The mushrooms are
+ * passed as a boolean array with an entry for every position. The checks are
+ * synchronized, so a table can be shared between the game and a solver.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class DeadlockTable {
+	private final int width;
+	private final int height;
+	private final boolean[] wall;
+	private final boolean[] goal;
+	private final boolean[] deadSquare;
+
+	// work arrays for the freeze check
+	private final int[] cluster;
+	private final boolean[] inCluster;
+
+	/**
+	 * Computes the dead squares of the level.
+	 */
+	public DeadlockTable(WorldSetup level) {
+		width = level.getWidth();
+		height = level.getHeight();
+		int size = width * height;
+		wall = new boolean[size];
+		goal = new boolean[size];
+		for (int position = 0; position < size; position++) {
+			char c = level.getActorTypeAt(position % width, position / width);
+			wall[position] = c == WorldSetup.TREE;
+			goal[position] = c == WorldSetup.LEAF || c == WorldSetup.MUSHROOM_LEAF
+					|| c == WorldSetup.KARA_LEAF;
+		}
+
+		// pull mushrooms backwards from all the leaves at once, every square
+		// that can't be reached is dead
+		deadSquare = new boolean[size];
+		Arrays.fill(deadSquare, true);
+		int[] queue = new int[size];
+		int count = 0;
+		for (int position = 0; position < size; position++) {
+			if (goal[position]) {
+				deadSquare[position] = false;
+				queue[count++] = position;
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			for (int d = 0; d < 4; d++) {
+				// the mushroom came from 'from' and Kara stood at 'behind'
+				int from = neighbour(queue[i], d);
+				int behind = neighbour(from, d);
+				if (!wall[from] && !wall[behind] && deadSquare[from]) {
+					deadSquare[from] = false;
+					queue[count++] = from;
+				}
+			}
+		}
+
+		cluster = new int[size];
+		inCluster = new boolean[size];
+	}
+
+	/**
+	 * Returns the neighbour position in the direction (0 = up, 1 = right,
+	 * 2 = down, 3 = left).
+	 */
+	public int neighbour(int position, int direction) {
+		int x = position % width;
+		int y = position / width;
+		switch (direction) {
+		case 0:
+			return ((y + height - 1) % height) * width + x;
+		case 1:
+			return y * width + (x + 1) % width;
+		case 2:
+			return ((y + 1) % height) * width + x;
+		default:
+			return y * width + (x + width - 1) % width;
+		}
+	}
+
+	/**
+	 * Returns the position for the coordinates.
+	 */
+	public int getPosition(int x, int y) {
+		return y * width + x;
+	}
+
+	/**
+	 * Returns the number of positions.
+	 */
+	public int getSize() {
+		return wall.length;
+	}
+
+	/**
+	 * Returns true if there is a tree at the position.
+	 */
+	public boolean isWall(int position) {
+		return wall[position];
+	}
+
+	/**
+	 * Returns true if there is a leaf at the position.
+	 */
+	public boolean isGoal(int position) {
+		return goal[position];
+	}
+
+	/**
+	 * Returns true if a mushroom at the position can never reach a leaf.
+	 */
+	public boolean isDeadSquare(int position) {
+		return deadSquare[position];
+	}
+
+	/**
+	 * Returns true if a mushroom at the coordinates can never reach a leaf.
+	 */
+	public boolean isDeadSquare(int x, int y) {
+		return deadSquare[getPosition(x, y)];
+	}
+
+	/**
+	 * Creates the mushroom array for the start of the level.
+	 */
+	public boolean[] createMushrooms(WorldSetup level) {
+		boolean[] mushrooms = new boolean[wall.length];
+		for (int position = 0; position < mushrooms.length; position++) {
+			char c = level.getActorTypeAt(position % width, position / width);
+			mushrooms[position] = c == WorldSetup.MUSHROOM
+					|| c == WorldSetup.MUSHROOM_LEAF;
+		}
+		return mushrooms;
+	}
+
+	/**
+	 * Checks if pushing a mushroom to the position caused a deadlock. Only
+	 * the mushrooms around the pushed mushroom are checked.
+	 *
+	 * @param position
+	 *            the new position of the pushed mushroom
+	 * @param mushrooms
+	 *            all the mushrooms (including the pushed one)
+	 * @return true if there is a deadlock
+	 */
+	public synchronized boolean isDeadlockAfterPush(int position, boolean[] mushrooms) {
+		if (deadSquare[position]) {
+			return true;
+		}
+
+		// all mushrooms connected to the pushed one
+		int count = 0;
+		cluster[count++] = position;
+		inCluster[position] = true;
+		for (int i = 0; i < count; i++) {
+			for (int d = 0; d < 4; d++) {
+				int next = neighbour(cluster[i], d);
+				if (mushrooms[next] && !inCluster[next]) {
+					inCluster[next] = true;
+					cluster[count++] = next;
+				}
+			}
+		}
+		boolean deadlock = isFrozenOffGoal(count);
+		clearCluster(count);
+		return deadlock;
+	}
+
+	/**
+	 * Checks all the mushrooms for a deadlock.
+	 *
+	 * @param mushrooms
+	 *            all the mushrooms
+	 * @return true if there is a deadlock
+	 */
+	public synchronized boolean isDeadlock(boolean[] mushrooms) {
+		int count = 0;
+		boolean deadlock = false;
+		for (int position = 0; position < mushrooms.length && !deadlock; position++) {
+			if (mushrooms[position]) {
+				deadlock = deadSquare[position];
+				cluster[count++] = position;
+				inCluster[position] = true;
+			}
+		}
+		if (!deadlock) {
+			deadlock = isFrozenOffGoal(count);
+		}
+		clearCluster(count);
+		return deadlock;
+	}
+
+	/**
+	 * Removes the cluster marks.
+	 */
+	private void clearCluster(int count) {
+		for (int i = 0; i < count; i++) {
+			inCluster[cluster[i]] = false;
+		}
+	}
+
+	/**
+	 * Finds the mushrooms of the cluster that can never move again and
+	 * returns true if one of them is not on a leaf.
+	 * <p>
+	 * At first all the mushrooms of the cluster are assumed to be frozen.
+	 * A mushroom is removed from the frozen ones if it could move along an
+	 * axis, until nothing changes anymore. Along an axis, a mushroom is
+	 * blocked by a tree or frozen mushroom on one side or by dead squares on
+	 * both sides (moving it there would be a deadlock as well).
+	 */
+	private boolean isFrozenOffGoal(int count) {
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 0; i < count; i++) {
+				int position = cluster[i];
+				if (inCluster[position]
+						&& (!isBlocked(position, 0, 2) || !isBlocked(position, 1, 3))) {
+					inCluster[position] = false;
+					changed = true;
+				}
+			}
+		}
+
+		boolean offGoal = false;
+		for (int i = 0; i < count; i++) {
+			if (inCluster[cluster[i]] && !goal[cluster[i]]) {
+				offGoal = true;
+			}
+		}
+		return offGoal;
+	}
+
+	/**
+	 * Returns true if the mushroom can't be moved along the axis.
+	 */
+	private boolean isBlocked(int position, int direction1, int direction2) {
+		int side1 = neighbour(position, direction1);
+		int side2 = neighbour(position, direction2);
+		return wall[side1] || wall[side2] || inCluster[side1] || inCluster[side2]
+				|| (deadSquare[side1] && deadSquare[side2]);
+	}
+}
@@ -3,28 +3,72 @@ package kara.gamegrid.sokoban;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.zip.CRC32;
 
 /**
  * Saves the highscores to a local file.
+ * <p>
+ * A new highscore is not written to the highscore file at once. It is only
+ * appended as one line to a journal file, which is much faster than writing
+ * the whole file. The lines are written by a background thread, so the game
+ * never waits for the disk. If several highscores are set at the same time,
+ * they are written and synced to the disk together.
+ * <p>
+ * Usually a new highscore only has one new entry, so only this entry is
+ * written to the journal, not all the entries of the level.
+ * <p>
+ * Every line of the journal has a checksum, so a line that was only written
+ * in part (e.g. if the computer crashed) is detected and ignored. When the
+ * journal gets long, the highscore file is written again (to a temporary file
+ * that is then renamed, so the old file is never damaged) and the journal is
+ * emptied. {@link #initHighscores()} reads the highscore file and then
+ * replays the journal.
  * 
  * @author Marco Jakob (http://edu.makery.ch)
  */
 public class FileHighscore extends HighscoreManager {
 	// The local file containing the highscores
 	private static final String HIGHSCORE_FILE = "HIGHSCORES.txt";
+	
+	// The journal with the changes since the highscore file was written
+	private static final String JOURNAL_FILE = "HIGHSCORES.journal";
+	
+	// The highscore file is written again after this many journal lines
+	private static final int COMPACTION_THRESHOLD = 64;
+	
+	private static final String JOURNAL_CHARSET = "UTF-8";
 
 	private String currentPlayerName = "";
 
 	/**
 	 * The highscore map with the level number as a key and the Highscore as a
-	 * value.
+	 * value. Guarded by the lock.
 	 */
 	private Map<Integer, Highscore> highscores;
+	
+	/**
+	 * The journal lines that were not written yet. Guarded by the lock.
+	 */
+	private final List<String> pendingRecords = new ArrayList<String>();
+	private final Object lock = new Object();
+	
+	/**
+	 * Only one thread writes to the files at a time.
+	 */
+	private final Object writeLock = new Object();
+	private FileOutputStream journal;
+	private int journalRecords;
+	private Thread journalWriter;
 
 	/**
 	 * Constructor for objects of class FileHighscore
@@ -53,10 +97,52 @@ public class FileHighscore extends HighscoreManager {
 	}
 
 	/**
-	 * Initially loads the highscore from the file.
+	 * Initially loads the highscore from the file and the journal. The
+	 * highscore file is then written again with all the changes of the
+	 * journal.
 	 */
 	public void initHighscores() {
-		highscores = parseHighscoresFromFile();
+		synchronized (writeLock) {
+			recoverSnapshot();
+		}
+		Map<Integer, Highscore> result = parseHighscoresFromFile();
+		boolean replayed = replayJournal(result);
+		synchronized (lock) {
+			highscores = result;
+		}
+
+		synchronized (writeLock) {
+			try {
+				if (replayed) {
+					compact();
+				} else {
+					journal = new FileOutputStream(JOURNAL_FILE, true);
+				}
+			} catch (IOException ex) {
+				System.out.println("ERROR: Could not open highscore journal: "
+						+ JOURNAL_FILE);
+				ex.printStackTrace();
+			}
+		}
+
+		if (journalWriter == null) {
+			journalWriter = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					writeJournal();
+				}
+			}, "Highscore Journal");
+			journalWriter.setDaemon(true);
+			journalWriter.start();
+
+			// write the last highscores when the program ends
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					flush();
+				}
+			});
+		}
 	}
 
 	/**
@@ -67,6 +153,13 @@ public class FileHighscore extends HighscoreManager {
 		return false;
 	}
 
+	/**
+	 * Returns true, the name of the player is stored with the highscore.
+	 */
+	public boolean canSetPlayerName() {
+		return true;
+	}
+
 	/**
 	 * Returns the name of the current player.
 	 */
@@ -87,23 +180,240 @@ public class FileHighscore extends HighscoreManager {
 	 * must be called.
 	 */
 	public Highscore getHighscoreForLevel(int levelNumber) {
-		if (highscores == null) {
-			return null;
-		}
+		synchronized (lock) {
+			if (highscores == null) {
+				return null;
+			}
 
-		Highscore h = highscores.get(levelNumber);
-		if (h == null) {
-			return new Highscore(levelNumber);
+			Highscore h = highscores.get(levelNumber);
+			if (h == null) {
+				return new Highscore(levelNumber, getHighscoreSize());
+			}
+			return h.clone();
 		}
-		return h.clone();
 	}
 
 	/**
-	 * Sets the specified Highscore and stores it to the file.
+	 * Sets the specified Highscore. It is written to the journal by the
+	 * background thread.
 	 */
 	public void setHighscore(Highscore highscore) {
-		highscores.put(highscore.getLevelNumber(), highscore);
-		writeHighscoresToFile(highscores);
+		synchronized (lock) {
+			int levelNumber = highscore.getLevelNumber();
+			Highscore old = highscores.get(levelNumber);
+			Highscore merged = old != null ? old.clone() : new Highscore(
+					levelNumber, getHighscoreSize());
+
+			// the entries that are new or better than before
+			List<Highscore.Entry> added = new ArrayList<Highscore.Entry>();
+			for (Highscore.Entry entry : highscore.getEntries(1,
+					highscore.getNumberOfEntries())) {
+				Highscore.Entry oldEntry = merged.getPlayerEntry(entry.getName());
+				if (oldEntry == null || oldEntry.getMoves() != entry.getMoves()) {
+					added.add(entry);
+				}
+			}
+			for (Highscore.Entry entry : added) {
+				merged.addHighscoreEntry(entry);
+			}
+
+			if (merged.getSize() == highscore.getSize()
+					&& hasSameEntries(merged, highscore)) {
+				// replaying the new entries gives the same highscore
+				highscores.put(levelNumber, merged);
+				for (Highscore.Entry entry : added) {
+					pendingRecords.add(toEntryString(levelNumber, entry));
+				}
+			} else {
+				highscores.put(levelNumber, highscore.clone());
+				pendingRecords.add(toHighscoreFileString(highscore));
+			}
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Returns true if both highscores have the same entries in the same
+	 * order.
+	 */
+	private static boolean hasSameEntries(Highscore a, Highscore b) {
+		if (a.getNumberOfEntries() != b.getNumberOfEntries()) {
+			return false;
+		}
+		List<Highscore.Entry> entriesA = a.getEntries(1, a.getNumberOfEntries());
+		List<Highscore.Entry> entriesB = b.getEntries(1, b.getNumberOfEntries());
+		for (int i = 0; i < entriesA.size(); i++) {
+			if (!entriesA.get(i).getName().equals(entriesB.get(i).getName())
+					|| entriesA.get(i).getMoves() != entriesB.get(i).getMoves()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes all the highscores that were set to the journal and waits until
+	 * they are on the disk.
+	 */
+	public void flush() {
+		synchronized (writeLock) {
+			List<String> records;
+			synchronized (lock) {
+				if (pendingRecords.isEmpty()) {
+					return;
+				}
+				records = new ArrayList<String>(pendingRecords);
+				pendingRecords.clear();
+			}
+			if (journal == null) {
+				System.out.println("ERROR: Could not save highscore to file: "
+						+ JOURNAL_FILE);
+				return;
+			}
+
+			try {
+				StringBuilder buf = new StringBuilder();
+				for (String record : records) {
+					buf.append(Long.toHexString(checksum(record))).append(' ')
+							.append(record).append('\n');
+				}
+				journal.write(buf.toString().getBytes(JOURNAL_CHARSET));
+				journal.getFD().sync();
+				journalRecords += records.size();
+
+				if (journalRecords >= COMPACTION_THRESHOLD) {
+					compact();
+				}
+			} catch (IOException ex) {
+				System.out.println("ERROR: Could not save highscore to file: "
+						+ JOURNAL_FILE);
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * The loop of the background thread: writes the highscores as soon as
+	 * they are set.
+	 */
+	private void writeJournal() {
+		while (true) {
+			synchronized (lock) {
+				while (pendingRecords.isEmpty()) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+			flush();
+		}
+	}
+
+	/**
+	 * Writes all the highscores to the highscore file and empties the
+	 * journal. Must be called with the write lock.
+	 */
+	private void compact() throws IOException {
+		Map<Integer, Highscore> copy;
+		synchronized (lock) {
+			copy = new HashMap<Integer, Highscore>(highscores);
+		}
+		writeSnapshot(copy);
+
+		// the journal is only emptied after the highscore file is complete
+		if (journal != null) {
+			journal.close();
+		}
+		journal = new FileOutputStream(JOURNAL_FILE, false);
+		journal.getFD().sync();
+		journalRecords = 0;
+	}
+
+	/**
+	 * Reads the journal and applies all complete lines to the highscores.
+	 * 
+	 * @return true if the journal contained any lines
+	 */
+	private boolean replayJournal(Map<Integer, Highscore> result) {
+		File f = new File(JOURNAL_FILE);
+		if (!f.exists()) {
+			return false;
+		}
+
+		boolean replayed = false;
+		try {
+			BufferedReader input = new BufferedReader(new InputStreamReader(
+					new FileInputStream(f), JOURNAL_CHARSET));
+			try {
+				String line;
+				while ((line = input.readLine()) != null) {
+					replayed = true;
+					int space = line.indexOf(' ');
+					if (space == -1) {
+						break;
+					}
+					String record = line.substring(space + 1);
+					long checksum;
+					try {
+						checksum = Long.parseLong(line.substring(0, space), 16);
+					} catch (NumberFormatException e) {
+						break;
+					}
+					if (checksum != checksum(record)) {
+						// only written in part, nothing after it is valid
+						System.out.println("Ignoring incomplete highscore in "
+								+ JOURNAL_FILE + ": " + record);
+						break;
+					}
+					if (record.startsWith("Entry:")) {
+						replayEntry(record, result);
+						continue;
+					}
+					Highscore highscore = parseHighscore(record);
+					if (highscore != null) {
+						result.put(highscore.getLevelNumber(), highscore);
+					}
+				}
+			} finally {
+				input.close();
+			}
+		} catch (Exception ex) {
+			System.out.println("ERROR: Could not load highscore from file: "
+					+ JOURNAL_FILE);
+			ex.printStackTrace();
+		}
+		return replayed;
+	}
+
+	/**
+	 * Adds the entry of a journal line (see
+	 * {@link #toEntryString(int, Highscore.Entry)}) to the highscore of its
+	 * level.
+	 */
+	private void replayEntry(String record, Map<Integer, Highscore> result) {
+		String[] strs = record.split(";");
+		if (strs.length != 3) {
+			return;
+		}
+		int levelNumber = Integer.parseInt(strs[0].substring("Entry:".length())
+				.trim());
+		Highscore highscore = result.get(levelNumber);
+		if (highscore == null) {
+			highscore = new Highscore(levelNumber, getHighscoreSize());
+			result.put(levelNumber, highscore);
+		}
+		highscore.addHighscoreEntry(strs[1], Integer.parseInt(strs[2]));
+	}
+
+	/**
+	 * Returns the CRC-32 checksum of the journal line.
+	 */
+	private static long checksum(String record) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(record.getBytes(JOURNAL_CHARSET));
+		return crc.getValue();
 	}
 
 	/**
@@ -127,20 +437,9 @@ public class FileHighscore extends HighscoreManager {
 
 			try {
 				while ((line = input.readLine()) != null) {
-					if (line.startsWith("Level:")) {
-						String[] strs = line.split(";");
-						if (strs.length == 7) {
-							int levelNumber = Integer.parseInt(strs[0]
-									.substring("Level:".length()).trim());
-							Highscore highscore = new Highscore(levelNumber);
-							highscore.addHighscoreEntry(strs[1],
-									Integer.parseInt(strs[2]));
-							highscore.addHighscoreEntry(strs[3],
-									Integer.parseInt(strs[4]));
-							highscore.addHighscoreEntry(strs[5],
-									Integer.parseInt(strs[6]));
-							result.put(levelNumber, highscore);
-						}
+					Highscore highscore = parseHighscore(line);
+					if (highscore != null) {
+						result.put(highscore.getLevelNumber(), highscore);
 					}
 				}
 			} finally {
@@ -155,43 +454,122 @@ public class FileHighscore extends HighscoreManager {
 		return result;
 	}
 
+	/**
+	 * Parses a line of the highscore file or the journal.
+	 * 
+	 * @return the Highscore or <code>null</code> if the line is not a
+	 *         highscore.
+	 */
+	private Highscore parseHighscore(String line) {
+		if (line.startsWith("Level:")) {
+			// the level and a name and moves for every entry
+			String[] strs = line.split(";");
+			if (strs.length >= 7 && strs.length % 2 == 1) {
+				int levelNumber = Integer.parseInt(strs[0]
+						.substring("Level:".length()).trim());
+				Highscore highscore = new Highscore(levelNumber,
+						getHighscoreSize());
+				for (int i = 1; i < strs.length; i += 2) {
+					highscore.addHighscoreEntry(strs[i],
+							Integer.parseInt(strs[i + 1]));
+				}
+				return highscore;
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Writes the highscores to the specified file.
 	 */
 	public void writeHighscoresToFile(Map<Integer, Highscore> highscores) {
-		try {
-			FileWriter fstream = new FileWriter(HIGHSCORE_FILE);
-			BufferedWriter out = new BufferedWriter(fstream);
+		synchronized (writeLock) {
+			try {
+				writeSnapshot(highscores);
+			} catch (Exception ex) {
+				System.out.println("ERROR: Could not save highscore to file: "
+						+ HIGHSCORE_FILE);
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Cleans up the temporary file left over if the program stopped while the
+	 * highscore file was written. If the highscore file is missing, the
+	 * program stopped between deleting it and renaming the temporary file
+	 * (see {@link #writeSnapshot(Map)}). The temporary file is complete then
+	 * and becomes the highscore file. Otherwise it may be incomplete and is
+	 * deleted.
+	 */
+	private void recoverSnapshot() {
+		File file = new File(HIGHSCORE_FILE);
+		File tempFile = new File(HIGHSCORE_FILE + ".tmp");
+		if (!tempFile.exists()) {
+			return;
+		}
+		if (file.exists()) {
+			tempFile.delete();
+		} else if (!tempFile.renameTo(file)) {
+			System.out.println("ERROR: Could not rename " + tempFile + " to "
+					+ file);
+		}
+	}
 
-			Set<Integer> keys = highscores.keySet();
-			for (int key : keys) {
-				out.write(toHighscoreFileString(highscores.get(key)));
+	/**
+	 * Writes the highscores to a temporary file and renames it to the
+	 * highscore file when it is complete and on the disk.
+	 */
+	private void writeSnapshot(Map<Integer, Highscore> highscores)
+			throws IOException {
+		File file = new File(HIGHSCORE_FILE);
+		File tempFile = new File(HIGHSCORE_FILE + ".tmp");
+		FileOutputStream fstream = new FileOutputStream(tempFile);
+		try {
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+					fstream));
+			for (Highscore highscore : highscores.values()) {
+				out.write(toHighscoreFileString(highscore));
 				out.newLine();
 			}
-
 			out.flush();
+			fstream.getFD().sync();
+		} finally {
 			// Close the output stream
-			out.close();
-		} catch (Exception ex) {
-			System.out.println("ERROR: Could not save highscore to file: "
-					+ HIGHSCORE_FILE);
-			ex.printStackTrace();
+			fstream.close();
 		}
+
+		if (!tempFile.renameTo(file)) {
+			// e.g. on Windows, a file can't be renamed to an existing file
+			file.delete();
+			if (!tempFile.renameTo(file)) {
+				throw new IOException("Could not rename " + tempFile + " to "
+						+ file);
+			}
+		}
+	}
+
+	/**
+	 * Returns the journal line for a single new entry of a highscore.
+	 */
+	private static String toEntryString(int levelNumber, Highscore.Entry entry) {
+		return "Entry:" + levelNumber + ";" + entry.getName() + ";"
+				+ entry.getMoves();
 	}
 
 	/**
 	 * Returns a String representation of the highscore. This String can be used
-	 * to save into a text file.
+	 * to save into a text file. At least three entries are written, so a
+	 * highscore with three entries has the old format.
 	 */
 	private String toHighscoreFileString(Highscore highscore) {
 		StringBuffer buf = new StringBuffer();
 		buf.append("Level:" + highscore.getLevelNumber());
-		buf.append(";" + highscore.getFirstEntry().getName() + ";"
-				+ highscore.getFirstEntry().getMoves());
-		buf.append(";" + highscore.getSecondEntry().getName() + ";"
-				+ highscore.getSecondEntry().getMoves());
-		buf.append(";" + highscore.getThirdEntry().getName() + ";"
-				+ highscore.getThirdEntry().getMoves());
+		int count = Math.max(3, highscore.getNumberOfEntries());
+		for (int place = 1; place <= count; place++) {
+			Highscore.Entry entry = highscore.getEntry(place);
+			buf.append(";" + entry.getName() + ";" + entry.getMoves());
+		}
 		return buf.toString();
 	}
 }
@@ -2,7 +2,12 @@ package kara.gamegrid.sokoban;
 
 import java.awt.Color;
 import java.awt.Font;
+import java.awt.event.KeyEvent;
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
 
 import javax.swing.JOptionPane;
 
@@ -11,6 +16,12 @@ import kara.gamegrid.KaraWorld;
 import kara.gamegrid.Leaf;
 import kara.gamegrid.Mushroom;
 import kara.gamegrid.Tree;
+import kara.gamegrid.WorldSetup;
+import kara.gamegrid.sokoban.solver.DifficultyEstimator;
+import ch.aplu.jgamegrid.Actor;
+import ch.aplu.jgamegrid.GGMouse;
+import ch.aplu.jgamegrid.GGMouseListener;
+import ch.aplu.jgamegrid.Location;
 
 /**
  * This is the world for the Kara Sokoban game:
@@ -54,15 +65,38 @@ public class GameScreen extends KaraWorld {
 
 	private ScreenState state;
 
-	private Level[] allLevels;
+	private LevelPack levelPack;
 	private HighscoreManager highscoreManager;
 	private int currentLevelNumber;
 	private int numberOfMoves;
 	private boolean levelComplete;
+	private boolean[] mushroomPositions;
+	private boolean deadlocked;
+	private final MoveLog moveLog = new MoveLog();
+	private int movesOffset;
+	// the direction Kara faces after the last move (see MoveLog)
+	private int karaFacing;
+	
+	// the cells where the mouse was pressed and released, set by the event
+	// thread
+	private volatile Location[] mouseDrag;
+	private final PathPlanner pathPlanner = new PathPlanner(WIDTH_IN_CELLS,
+			HEIGHT_IN_CELLS);
+	
+	// solves the level in the background for the hints
+	private HintEngine hintEngine;
+	private boolean hintOutdated;
+	// an own table, so the hint search doesn't block the checks of the game
+	private DeadlockTable hintDeadlockTable;
+	private Level hintLevel;
+	private volatile boolean hintRequested;
 	
 	private String levelFileName;
 	private boolean developerMode = true;
 	private boolean highscoreEnabled = false;
+	private boolean orderedByDifficulty = false;
+	private int highscoreSize = Highscore.DEFAULT_SIZE;
+	private String sharedHighscoreFile;
 
 	/**
 	 * Constructor for a game screen for the Sokoban game
@@ -80,6 +114,9 @@ public class GameScreen extends KaraWorld {
 		
 		setPaintOrder(Label.class, KaraSokoban.class, Tree.class,
 				Mushroom.class, Leaf.class);
+		
+		// listen for left clicks and drags --> Kara walks or pushes a mushroom
+		addMouseListener(new DragListener(), GGMouse.lPress | GGMouse.lRelease);
 	}
 	
 	@Override
@@ -107,9 +144,9 @@ public class GameScreen extends KaraWorld {
 
 		// Read all the levels from the level file
 		try {
-			this.allLevels = Level.parseFromFile(levelFileName, karaClass);
+			this.levelPack = LevelPack.load(levelFileName, karaClass);
 			
-			if (allLevels == null || allLevels.length == 0) {
+			if (levelPack.size() == 0) {
 				String message = "<html>" + "Could not load Levels from file: <p><i>" 
 						+ "Konnte Levels nicht laden von der Datei: "
 						+ "</i><p><p>" + levelFileName
@@ -126,6 +163,10 @@ public class GameScreen extends KaraWorld {
 			JOptionPane.showMessageDialog(null, message, "Warning",
 					JOptionPane.WARNING_MESSAGE);
 		}
+		
+		if (orderedByDifficulty && levelPack != null) {
+			orderLevelsByDifficulty();
+		}
 
 		// init the screen states
 		startState = new StartState(this);
@@ -142,9 +183,30 @@ public class GameScreen extends KaraWorld {
 
 		// init the highscore manager
 		if (highscoreEnabled) {
-			// Tries to use the FileHighscore
-			if (FileHighscore.isAvailable()) {
-				highscoreManager = new FileHighscore();
+			HighscoreManager store = null;
+			if (sharedHighscoreFile != null) {
+				MappedFileHighscore mappedStore = new MappedFileHighscore(
+						sharedHighscoreFile);
+				mappedStore.setHighscoreSize(highscoreSize);
+				mappedStore.initHighscores();
+				if (mappedStore.isAvailable()) {
+					store = mappedStore;
+				} else {
+					String message = "<html>" + "Could not open highscore file: <p><i>"
+							+ "Konnte die Highscore Datei nicht oeffnen: "
+							+ "</i><p><p>" + sharedHighscoreFile + "</html>";
+
+					JOptionPane.showMessageDialog(null, message, "Warning",
+							JOptionPane.WARNING_MESSAGE);
+				}
+			} else if (FileHighscore.isAvailable()) {
+				// Tries to use the FileHighscore
+				store = new FileHighscore();
+			}
+			if (store != null) {
+				// setting a highscore must not wait for the file
+				highscoreManager = new WriteBehindHighscoreManager(store);
+				highscoreManager.setHighscoreSize(highscoreSize);
 				highscoreManager.initHighscores();
 			}
 		}
@@ -157,6 +219,48 @@ public class GameScreen extends KaraWorld {
 		}
 	}
 	
+	/**
+	 * Orders the levels by the scores in the difficulty cache next to the
+	 * level file (see {@link DifficultyEstimator}) and numbers them again.
+	 * Nothing is solved here, levels without a score are played last in their
+	 * old order. All the levels are parsed to get their content hash.
+	 */
+	private void orderLevelsByDifficulty() {
+		File levelFile = WorldSetup.findFile(levelFileName, karaClass);
+		if (levelFile == null) {
+			return;
+		}
+		final Map<Long, Double> scores;
+		try {
+			scores = DifficultyEstimator.readCache(DifficultyEstimator
+					.getCacheFile(levelFile));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+
+		// the sort is stable, so levels with the same score keep their order
+		Level[] sorted = levelPack.getAllLevels();
+		Arrays.sort(sorted, new Comparator<Level>() {
+			@Override
+			public int compare(Level a, Level b) {
+				return Double.compare(getScore(a), getScore(b));
+			}
+
+			private double getScore(Level level) {
+				Double score = scores.get(level.getContentHash());
+				return score != null ? score : Double.POSITIVE_INFINITY;
+			}
+		});
+		Level[] levels = new Level[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			String levelNumber = Integer.toString(i + 1);
+			levels[i] = new Level(new WorldSetup.Builder(sorted[i]).setTitle(
+					levelNumber).build(), i + 1);
+		}
+		levelPack = new LevelPack(levels);
+	}
+	
     /**
 	 * Sets and initializes the specified screen state. Before the new screen is
 	 * initialized, all objects in the world are removed.
@@ -183,6 +287,14 @@ public class GameScreen extends KaraWorld {
 			removeAllActors();
 			setBgImagePath(null);
 		}
+		// keys pressed for the last state should not be used by the new one
+		clearKeys();
+		if (hintEngine != null) {
+			// the position of the last state is not needed anymore
+			hintEngine.cancel();
+			hintOutdated = false;
+		}
+		hintRequested = false;
 		this.state = state;
 		state.initScreen();
 	}
@@ -246,17 +358,26 @@ public class GameScreen extends KaraWorld {
 	}
 
 	/**
-	 * Returns all the levels.
+	 * Returns all the levels. Levels that were not needed yet are parsed now,
+	 * which may take a while for a big level file.
 	 */
 	protected Level[] getAllLevels() {
-		return allLevels;
+		return levelPack != null ? levelPack.getAllLevels() : new Level[0];
 	}
 
 	/**
 	 * Returns the total number of levels.
 	 */
 	protected int getNumberOfLevels() {
-		return allLevels.length;
+		return levelPack != null ? levelPack.size() : 0;
+	}
+
+	/**
+	 * Returns the number of the level with the password or -1 if there is
+	 * none. The levels don't have to be parsed for this.
+	 */
+	protected int getLevelNumber(String password) {
+		return levelPack != null ? levelPack.getLevelNumber(password) : -1;
 	}
 
 	/**
@@ -277,27 +398,30 @@ public class GameScreen extends KaraWorld {
 	 * Returns the current level or null, if levels could not be loaded.
 	 */
 	protected Level getCurrentLevel() {
-		if (currentLevelNumber > 0 && currentLevelNumber - 1 < allLevels.length) {
-			return allLevels[currentLevelNumber - 1];
-		}
-		return null;
+		return getLevel(currentLevelNumber);
 	}
 
 	/**
 	 * Returns the level with the specified number.
 	 */
 	protected Level getLevel(int levelNumber) {
-		if (levelNumber > 0 && levelNumber - 1 < allLevels.length) {
-			return allLevels[levelNumber - 1];
-		}
-		return null;
+		return levelPack != null ? levelPack.getLevel(levelNumber) : null;
 	}
 
 	/**
-	 * Returns the number of moves that were made.
+	 * Returns the number of moves that were made. Undone moves are not
+	 * counted.
 	 */
 	protected int getNumberOfMoves() {
-		return numberOfMoves;
+		return Math.max(0, numberOfMoves + movesOffset);
+	}
+
+	/**
+	 * Returns the number that has to be added to the moves counted by Kara,
+	 * i.e. minus the undone moves plus the redone moves.
+	 */
+	protected int getMovesOffset() {
+		return movesOffset;
 	}
 
 	/**
@@ -321,6 +445,470 @@ public class GameScreen extends KaraWorld {
 		this.levelComplete = levelComplete;
 	}
 
+	/**
+	 * Starts the deadlock detection for the current level. Must be called
+	 * after the actors of the level were added.
+	 */
+	protected void initDeadlockDetection() {
+		Level level = getCurrentLevel();
+		if (level != null) {
+			DeadlockTable deadlockTable = level.getDeadlockTable();
+			mushroomPositions = deadlockTable.createMushrooms(level);
+			deadlocked = deadlockTable.isDeadlock(mushroomPositions);
+		} else {
+			mushroomPositions = null;
+			deadlocked = false;
+		}
+	}
+
+	/**
+	 * Updates the deadlock detection after a mushroom was pushed. Only the
+	 * mushrooms around the pushed one are checked.
+	 */
+	protected void mushroomPushed(int fromX, int fromY, int toX, int toY) {
+		Level level = getCurrentLevel();
+		if (mushroomPositions == null || level == null) {
+			return;
+		}
+		if (toX >= level.getWidth() || toY >= level.getHeight()
+				|| fromX >= level.getWidth() || fromY >= level.getHeight()) {
+			// the mushroom left the level, no detection possible anymore
+			mushroomPositions = null;
+			deadlocked = false;
+			return;
+		}
+		
+		DeadlockTable deadlockTable = level.getDeadlockTable();
+		int to = deadlockTable.getPosition(toX, toY);
+		mushroomPositions[deadlockTable.getPosition(fromX, fromY)] = false;
+		mushroomPositions[to] = true;
+		if (!deadlocked) {
+			deadlocked = deadlockTable.isDeadlockAfterPush(to, mushroomPositions);
+		}
+	}
+
+	/**
+	 * Updates the deadlock detection after a mushroom was pushed back by an
+	 * undo. All mushrooms are checked because the deadlock may be gone.
+	 */
+	private void mushroomPushedBack(int fromX, int fromY, int toX, int toY) {
+		Level level = getCurrentLevel();
+		if (mushroomPositions == null || level == null) {
+			return;
+		}
+
+		DeadlockTable deadlockTable = level.getDeadlockTable();
+		mushroomPositions[deadlockTable.getPosition(fromX, fromY)] = false;
+		mushroomPositions[deadlockTable.getPosition(toX, toY)] = true;
+		deadlocked = deadlockTable.isDeadlock(mushroomPositions);
+	}
+
+	/**
+	 * Starts a new move log for the current level. Must be called after the
+	 * actors of the level were added.
+	 */
+	protected void initMoveLog() {
+		moveLog.clear();
+		movesOffset = 0;
+		Actor kara = getOneActor(Kara.KaraDelegate.class);
+		karaFacing = kara != null ? (kara.getIntDirection() / 90 + 1) & 3
+				: MoveLog.RIGHT;
+	}
+
+	/**
+	 * Adds a move of Kara to the move log.
+	 * 
+	 * @param direction
+	 *            the direction of the move (see {@link MoveLog})
+	 * @param pushed
+	 *            true if a mushroom was pushed
+	 */
+	protected void karaMoved(int direction, boolean pushed) {
+		moveLog.add(direction, pushed, karaFacing);
+		karaFacing = direction;
+		if (hintEngine != null && !hintEngine.moveMade(direction, pushed)) {
+			hintOutdated = true;
+		}
+	}
+
+	/**
+	 * Returns true if there is a move that can be undone.
+	 */
+	protected boolean canUndo() {
+		return moveLog.canUndo();
+	}
+
+	/**
+	 * Returns true if there is a move that can be redone.
+	 */
+	protected boolean canRedo() {
+		return moveLog.canRedo();
+	}
+
+	/**
+	 * Undoes the last move: Kara goes one step back, pulls the mushroom with
+	 * her if she pushed one and turns back to where she was facing before the
+	 * move. Only Kara and the mushroom are moved, the level is not rebuilt.
+	 */
+	protected void undoMove() {
+		Actor kara = getOneActor(Kara.KaraDelegate.class);
+		int move = moveLog.undo();
+		if (kara == null || move == -1) {
+			return;
+		}
+		int direction = MoveLog.getDirection(move);
+		int karaX = kara.getX();
+		int karaY = kara.getY();
+		Location behind = neighbour(karaX, karaY, (direction + 2) & 3);
+		kara.setLocation(behind);
+		karaFacing = MoveLog.getFacing(move);
+		kara.setDirection(toActorDirection(karaFacing));
+		if (MoveLog.isPush(move)) {
+			Location front = neighbour(karaX, karaY, direction);
+			Mushroom mushroom = (Mushroom) getOneActorAt(front, Mushroom.class);
+			if (mushroom != null) {
+				mushroom.setLocation(new Location(karaX, karaY));
+				mushroom.updateImage();
+				mushroomPushedBack(front.x, front.y, karaX, karaY);
+			}
+		}
+		movesOffset--;
+		hintOutdated = hintEngine != null;
+		refresh();
+	}
+
+	/**
+	 * Redoes the last undone move. If it puts the last mushroom on a leaf, the
+	 * level is complete.
+	 */
+	protected void redoMove() {
+		Actor kara = getOneActor(Kara.KaraDelegate.class);
+		int move = moveLog.redo();
+		if (kara == null || move == -1) {
+			return;
+		}
+		int direction = MoveLog.getDirection(move);
+		Location front = neighbour(kara.getX(), kara.getY(), direction);
+		if (MoveLog.isPush(move)) {
+			Mushroom mushroom = (Mushroom) getOneActorAt(front, Mushroom.class);
+			if (mushroom != null) {
+				Location target = neighbour(front.x, front.y, direction);
+				mushroom.setLocation(target);
+				mushroom.updateImage();
+				mushroomPushed(front.x, front.y, target.x, target.y);
+			}
+		}
+		kara.setLocation(front);
+		karaFacing = direction;
+		kara.setDirection(toActorDirection(direction));
+		movesOffset++;
+		hintOutdated = hintEngine != null;
+		refresh();
+		checkLevelComplete();
+	}
+
+	/**
+	 * Completes the level if all mushrooms are on a leaf. This is needed
+	 * after moves that are not made in Kara's act() (redo, clicks and drags),
+	 * where the level is completed otherwise. The moves are saved in the highscore if they are
+	 * in the top 3.
+	 */
+	private void checkLevelComplete() {
+		if (levelComplete) {
+			return;
+		}
+		for (Actor mushroom : getActors(Mushroom.class)) {
+			if (getActorsAt(mushroom.getLocation(), Leaf.class).isEmpty()) {
+				return;
+			}
+		}
+
+		Highscore highscore = getHighscoreForCurrentLevel();
+		int moves = getNumberOfMoves();
+		if (highscore != null && !isHighscoreReadOnly()
+				&& highscore.isHighscoreTop3(moves)) {
+			highscore.addHighscoreEntry(getPlayerName(), moves);
+			setHighscore(highscore);
+		}
+		setLevelComplete(true);
+	}
+
+	/**
+	 * Converts a direction of the move log to the direction of an actor.
+	 */
+	private static int toActorDirection(int direction) {
+		// the move log starts with up, Kara's directions with right
+		return ((direction + 3) & 3) * 90;
+	}
+
+	/**
+	 * Starts solving the current level in the background, so that hints can
+	 * be given. Must be called after the actors of the level were added.
+	 */
+	protected void initHints() {
+		if (hintEngine == null) {
+			hintEngine = new HintEngine();
+		}
+		hintOutdated = true;
+		updateHints();
+	}
+
+	/**
+	 * Hands the current position to the hint engine if Kara left the solution
+	 * of the last search. Called once per act(), so a walk or push of the
+	 * mouse starts only one new search.
+	 */
+	protected void updateHints() {
+		if (!hintOutdated) {
+			return;
+		}
+		hintOutdated = false;
+		Level level = getCurrentLevel();
+		if (level == null || mushroomPositions == null) {
+			// a mushroom left the level, no hints possible anymore
+			hintEngine.cancel();
+		} else {
+			if (hintLevel != level) {
+				hintDeadlockTable = new DeadlockTable(level);
+				hintLevel = level;
+			}
+			// null if Kara left the level
+			hintEngine.setPosition(createPosition(level), hintDeadlockTable);
+		}
+	}
+
+	/**
+	 * Returns the next move of the best solution (see
+	 * {@link HintEngine#getHint()}).
+	 */
+	protected int getHint() {
+		if (hintEngine == null) {
+			return HintEngine.HINT_NO_SOLUTION;
+		}
+		return hintEngine.getHint();
+	}
+
+	/**
+	 * Returns true if the hint key was pressed since the last call.
+	 */
+	protected boolean takeHintRequest() {
+		boolean requested = hintRequested;
+		hintRequested = false;
+		return requested;
+	}
+
+	/**
+	 * The hint key "h" is handled directly by the GameScreen while playing, so
+	 * it is never given to Kara's getKey().
+	 */
+	@Override
+	public boolean keyPressed(KeyEvent evt) {
+		if (state == gameState && evt.getKeyCode() == KeyEvent.VK_H) {
+			hintRequested = true;
+			return true;
+		}
+		return super.keyPressed(evt);
+	}
+
+	/**
+	 * Creates a copy of the level with Kara and the mushrooms where they are
+	 * now or returns <code>null</code> if Kara is not in the level.
+	 */
+	private WorldSetup createPosition(Level level) {
+		Actor kara = getOneActor(Kara.KaraDelegate.class);
+		if (kara == null || kara.getX() >= level.getWidth()
+				|| kara.getY() >= level.getHeight()) {
+			return null;
+		}
+		WorldSetup.Builder builder = new WorldSetup.Builder(level);
+		for (int y = 0; y < level.getHeight(); y++) {
+			for (int x = 0; x < level.getWidth(); x++) {
+				char actorType = level.getActorTypeAt(x, y);
+				if (actorType != WorldSetup.TREE) {
+					builder.setActorTypeAt(x, y, isLeaf(level, x, y)
+							? WorldSetup.LEAF : WorldSetup.EMPTY);
+				}
+			}
+		}
+		for (Actor actor : getActors(Mushroom.class)) {
+			builder.setActorTypeAt(actor.getX(), actor.getY(), isLeaf(level,
+					actor.getX(), actor.getY()) ? WorldSetup.MUSHROOM_LEAF
+					: WorldSetup.MUSHROOM);
+		}
+		builder.setActorTypeAt(kara.getX(), kara.getY(), isLeaf(level,
+				kara.getX(), kara.getY()) ? WorldSetup.KARA_LEAF
+				: WorldSetup.KARA);
+		return builder.build();
+	}
+
+	private static boolean isLeaf(Level level, int x, int y) {
+		char actorType = level.getActorTypeAt(x, y);
+		return actorType == WorldSetup.LEAF
+				|| actorType == WorldSetup.MUSHROOM_LEAF
+				|| actorType == WorldSetup.KARA_LEAF;
+	}
+
+	/**
+	 * Returns the cells where the mouse was pressed and released since the
+	 * last call (the same cell for a click) or <code>null</code> if the mouse
+	 * was not used.
+	 * 
+	 * @return an array with the pressed and the released location
+	 */
+	protected Location[] takeMouseDrag() {
+		Location[] drag = mouseDrag;
+		mouseDrag = null;
+		return drag;
+	}
+
+	/**
+	 * Kara walks the shortest way to the cell without pushing a mushroom. The
+	 * moves are made with Kara's move() method as one macro, so the world is
+	 * only painted once at the end. The moves are added to the number of
+	 * moves.
+	 * 
+	 * @return false if there is no way to the cell or the cell is in the info
+	 *         bar.
+	 */
+	protected boolean walkTo(int x, int y) {
+		Actor karaActor = getOneActor(Kara.KaraDelegate.class);
+		Level level = getCurrentLevel();
+		if (karaActor == null || level == null || x >= level.getWidth()
+				|| y >= level.getHeight() || y >= HEIGHT_IN_CELLS - 1) {
+			return false;
+		}
+
+		preparePathPlanner(level, null);
+		int length = pathPlanner.findWalk(
+				pathPlanner.getCell(karaActor.getX(), karaActor.getY()),
+				pathPlanner.getCell(x, y));
+		if (length <= 0) {
+			return false;
+		}
+		movePath(karaActor, length);
+		return true;
+	}
+
+	/**
+	 * Kara pushes the mushroom to the target cell with as few moves as
+	 * possible, going around the mushroom where needed. The other mushrooms
+	 * are not moved. Like {@link #walkTo(int, int)}, the moves are made as one
+	 * macro and added to the number of moves.
+	 * 
+	 * @return false if there is no mushroom or it can't be pushed to the
+	 *         target.
+	 */
+	protected boolean pushMushroomTo(int fromX, int fromY, int toX, int toY) {
+		Actor karaActor = getOneActor(Kara.KaraDelegate.class);
+		Level level = getCurrentLevel();
+		if (karaActor == null || level == null || fromX >= level.getWidth()
+				|| fromY >= level.getHeight() || toX >= level.getWidth()
+				|| toY >= level.getHeight() || toY >= HEIGHT_IN_CELLS - 1) {
+			return false;
+		}
+		Actor mushroom = getOneActorAt(new Location(fromX, fromY), Mushroom.class);
+		if (mushroom == null) {
+			return false;
+		}
+
+		preparePathPlanner(level, mushroom);
+		int length = pathPlanner.findPushes(
+				pathPlanner.getCell(karaActor.getX(), karaActor.getY()),
+				pathPlanner.getCell(fromX, fromY),
+				pathPlanner.getCell(toX, toY));
+		if (length <= 0) {
+			return false;
+		}
+		movePath(karaActor, length);
+		return true;
+	}
+
+	/**
+	 * Sets the trees and mushrooms (except the moving one) as obstacles of the
+	 * path planner. The info bar is blocked too, even if the level reaches
+	 * into it.
+	 */
+	private void preparePathPlanner(Level level, Actor movingMushroom) {
+		pathPlanner.reset(level.getWidth(),
+				Math.min(level.getHeight(), HEIGHT_IN_CELLS - 1));
+		for (Actor actor : getActors(Tree.class)) {
+			pathPlanner.setBlocked(actor.getX(), actor.getY());
+		}
+		for (Actor actor : getActors(Mushroom.class)) {
+			if (actor != movingMushroom) {
+				pathPlanner.setBlocked(actor.getX(), actor.getY());
+			}
+		}
+	}
+
+	/**
+	 * Moves Kara along the path found by the path planner as one macro. If the
+	 * last mushroom is pushed onto a leaf, the level is complete.
+	 */
+	private void movePath(Actor karaActor, int length) {
+		Kara kara = ((Kara.KaraDelegate) karaActor).getKara();
+		beginMacro();
+		try {
+			for (int i = 0; i < length; i++) {
+				karaActor.setDirection(toActorDirection(pathPlanner.getDirection(i)));
+				kara.move();
+			}
+		} finally {
+			endMacro();
+		}
+		movesOffset += length;
+		checkLevelComplete();
+	}
+
+	/**
+	 * Listens for left clicks and drags on the world. They are handled in the
+	 * next act() of the game state. Clicks on the info bar (e.g. on the undo
+	 * button) are ignored.
+	 */
+	private class DragListener implements GGMouseListener {
+		private Location pressed;
+
+		@Override
+		public boolean mouseEvent(GGMouse mouse) {
+			if (!isRunning()) {
+				return false;
+			}
+			Location location = toLocationInGrid(mouse.getX(), mouse.getY());
+			if (mouse.getEvent() == GGMouse.lPress) {
+				pressed = location.y < HEIGHT_IN_CELLS - 1 ? location : null;
+			} else if (pressed != null) {
+				mouseDrag = new Location[] { pressed, location };
+				pressed = null;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the neighbour location in the direction (see {@link MoveLog}).
+	 * Like Kara, it continues on the other side at the border.
+	 */
+	private Location neighbour(int x, int y, int direction) {
+		switch (direction) {
+		case MoveLog.UP:
+			return new Location(x, (y + getNbVertCells() - 1) % getNbVertCells());
+		case MoveLog.RIGHT:
+			return new Location((x + 1) % getNbHorzCells(), y);
+		case MoveLog.DOWN:
+			return new Location(x, (y + 1) % getNbVertCells());
+		default:
+			return new Location((x + getNbHorzCells() - 1) % getNbHorzCells(), y);
+		}
+	}
+
+	/**
+	 * Returns true if the current level can't be completed anymore because a
+	 * mushroom can never reach a leaf.
+	 */
+	protected boolean isDeadlocked() {
+		return deadlocked;
+	}
+
 	/**
 	 * Returns whether the game is complete, i.e. the last level is completed.
 	 * 
@@ -375,8 +963,11 @@ public class GameScreen extends KaraWorld {
 	 * Returns true if the name of the current player can be set.
 	 */
 	protected boolean canSetPlayerName() {
-		// Name of player can only be set if using the FileHighscore.
-		return highscoreManager instanceof FileHighscore;
+		if (highscoreManager == null) {
+			return false;
+		}
+		// not with the ServerHighscore, it uses the username of UserInfo
+		return highscoreManager.canSetPlayerName();
 	}
 
 	/**
@@ -417,12 +1008,12 @@ public class GameScreen extends KaraWorld {
 	}
 	
 	/**
-	 * Creates an ASCII-representation of all the actors in the world.
-	 * 
-	 * @return the world as ASCII text
+	 * Writes an ASCII-representation of all the actors in the world to the
+	 * output.
 	 */
-	protected String toASCIIText() {
-		return Level.createFromActors(getActors(), 0, "XXXX").toASCIIText(false);
+	@Override
+	protected void writeASCIIText(Appendable out) throws IOException {
+		Level.createFromActors(getActors(), 0, "XXXX").writeTo(out, false);
 	}
 
 	/** 
@@ -433,6 +1024,17 @@ public class GameScreen extends KaraWorld {
 		this.developerMode = developerMode;
 	}
 
+	/**
+	 * Set to true to play the levels from easy to difficult. The difficulty
+	 * must have been measured before with the DifficultyEstimator. <br>
+	 * <i>Bei true werden die Levels von leicht nach schwierig gespielt. Die
+	 * Schwierigkeit muss vorher mit dem DifficultyEstimator gemessen
+	 * werden.</i>
+	 */
+	public void setOrderedByDifficulty(boolean orderedByDifficulty) {
+		this.orderedByDifficulty = orderedByDifficulty;
+	}
+
 	/**
 	 * Set to true to enable the highscore. <br>
 	 * <i>Wenn auf true gesetzt, dann wir die Highscore aktiviert.</i>
@@ -441,6 +1043,25 @@ public class GameScreen extends KaraWorld {
 		this.highscoreEnabled = highscoreEnabled;
 	}
 
+	/**
+	 * Sets the number of entries in the highscore of every level. Default is
+	 * 3. <br>
+	 * <i>Setzt die Anzahl Eintraege in der Highscore jedes Levels. Standard
+	 * ist 3.</i>
+	 */
+	public void setHighscoreSize(int highscoreSize) {
+		this.highscoreSize = highscoreSize;
+	}
+
+	/**
+	 * Sets a highscore file that all games on this computer share. <br>
+	 * <i>Setzt eine Highscore-Datei, die alle Spiele auf diesem Computer
+	 * gemeinsam verwenden.</i>
+	 */
+	public void setSharedHighscoreFile(String sharedHighscoreFile) {
+		this.sharedHighscoreFile = sharedHighscoreFile;
+	}
+
 	/**
 	 * Returns true, if the highscore is enabled.
 	 * @return
@@ -464,8 +1085,11 @@ public class GameScreen extends KaraWorld {
 	}
 	
 	/**
-	 * Gets the most recently pressed key <br>
-	 * <i>Ermittelt die zuletzt gedrueckte Taste</i>.
+	 * Gets the next pressed key. Every key press is returned once, in the
+	 * order the keys were pressed <br>
+	 * <i>Ermittelt die naechste gedrueckte Taste. Jeder Tastendruck wird
+	 * einmal zurueckgegeben, in der Reihenfolge wie die Tasten gedrueckt
+	 * wurden</i>.
 	 * <p>
 	 * 
 	 * <ul>
@@ -476,7 +1100,7 @@ public class GameScreen extends KaraWorld {
 	 * <li>"F1", "F2", .., "F12" (the function keys)</li>
 	 * </ul>
 	 * 
-	 * @return the most recently pressed key as String or an empty String if no key was pressed.
+	 * @return the next pressed key as String or an empty String if no key was pressed.
 	 */
 	public String getKey() {
 		// Rises visibility of getKey() from protected to public
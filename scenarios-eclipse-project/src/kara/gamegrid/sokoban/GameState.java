@@ -2,6 +2,8 @@ package kara.gamegrid.sokoban;
 
 import java.awt.Color;
 
+import ch.aplu.jgamegrid.Location;
+
 
 
 /**
@@ -12,6 +14,10 @@ import java.awt.Color;
 public class GameState extends ScreenState {
 	private Label moveCounterLabel;
 	private Button retryLevelButton;
+	private Button undoButton;
+	private Button redoButton;
+	private Label hintLabel;
+	private boolean deadlockShown;
 
 	public GameState(GameScreen gameScreen) {
 		super(gameScreen);
@@ -33,10 +39,16 @@ public class GameState extends ScreenState {
 		if (level != null) {
 			gameScreen.initActorsFromWorldSetup(level);
 		}
+		gameScreen.initMoveLog();
+		gameScreen.initDeadlockDetection();
+		gameScreen.initHints();
+		deadlockShown = false;
 	}
 
 	/**
-	 * Creates the label for the level, the moves and the reset button.
+	 * Creates the label for the level, the moves and the reset, undo and redo
+	 * buttons. The label for the hints is hidden until the hint key is
+	 * pressed.
 	 */
 	private void createInfoBar() {
 		Label levelLabel = new Label(gameScreen, "Level: "
@@ -60,6 +72,34 @@ public class GameState extends ScreenState {
 		retryLevelButton.setBackgroundTransparency(180);
 		gameScreen.addObject(retryLevelButton, GameScreen.WIDTH_IN_CELLS - 11,
 				GameScreen.HEIGHT_IN_CELLS - 1);
+
+		undoButton = createUndoRedoButton("Undo");
+		gameScreen.addObject(undoButton, GameScreen.WIDTH_IN_CELLS - 17,
+				GameScreen.HEIGHT_IN_CELLS - 1);
+
+		redoButton = createUndoRedoButton("Redo");
+		gameScreen.addObject(redoButton, GameScreen.WIDTH_IN_CELLS - 15,
+				GameScreen.HEIGHT_IN_CELLS - 1);
+
+		hintLabel = new Label(gameScreen, "", 80, 18, GameScreen.FONT_S_BOLD);
+		hintLabel.setBackgroundColor(new Color(255, 250, 205));
+		hintLabel.setBackgroundTransparency(180);
+		gameScreen.addObject(hintLabel, GameScreen.WIDTH_IN_CELLS - 20,
+				GameScreen.HEIGHT_IN_CELLS - 1);
+		hintLabel.setVisible(false);
+	}
+
+	/**
+	 * Creates a disabled undo or redo button.
+	 */
+	private Button createUndoRedoButton(String text) {
+		Button button = new Button(gameScreen, text, 50, 18,
+				GameScreen.FONT_S_BOLD);
+		button.setBackgroundColor(new Color(205, 225, 255));
+		button.setBorderColor(Color.BLUE);
+		button.setBackgroundTransparency(180);
+		button.setEnabled(false);
+		return button;
 	}
 
 	/**
@@ -67,8 +107,47 @@ public class GameState extends ScreenState {
 	 * ScreenState.
 	 */
 	public void act() {
+		if (undoButton.wasClicked()) {
+			gameScreen.undoMove();
+			if (!gameScreen.isDeadlocked() && deadlockShown) {
+				// the undo solved the deadlock
+				retryLevelButton.setText("Retry Level");
+				retryLevelButton.setBackgroundTransparency(180);
+				deadlockShown = false;
+			}
+		}
+		if (redoButton.wasClicked()) {
+			gameScreen.redoMove();
+		}
+		Location[] drag = gameScreen.takeMouseDrag();
+		if (drag != null) {
+			if (drag[0].equals(drag[1])) {
+				// a click
+				gameScreen.walkTo(drag[1].x, drag[1].y);
+			} else {
+				// a mushroom was dragged
+				gameScreen.pushMushroomTo(drag[0].x, drag[0].y, drag[1].x,
+						drag[1].y);
+			}
+		}
+		updateUndoRedoButtons();
 		updateMoveCounter();
 
+		gameScreen.updateHints();
+		if (gameScreen.takeHintRequest()) {
+			hintLabel.setVisible(true);
+		}
+		if (hintLabel.isVisible()) {
+			updateHint();
+		}
+		
+		if (gameScreen.isDeadlocked() && !deadlockShown) {
+			// the level can't be completed anymore
+			retryLevelButton.setText("Stuck! Retry");
+			retryLevelButton.setBackgroundTransparency(255);
+			deadlockShown = true;
+		}
+
 		if (retryLevelButton.wasClicked()) {
 			// go to level splash state
 			gameScreen.setState(gameScreen.getLevelSplashState());
@@ -77,10 +156,48 @@ public class GameState extends ScreenState {
 		if (gameScreen.isLevelComplete()) {
 			// show the level complete state without clearing the world
 			retryLevelButton.removeFromWorld();
+			undoButton.removeFromWorld();
+			redoButton.removeFromWorld();
+			hintLabel.removeFromWorld();
 			gameScreen.setState(gameScreen.getLevelCompleteState(), false);
 		}
 	}
 
+	/**
+	 * Enables the undo and redo buttons if there is something to undo or redo.
+	 */
+	private void updateUndoRedoButtons() {
+		if (undoButton.isEnabled() != gameScreen.canUndo()) {
+			undoButton.setEnabled(gameScreen.canUndo());
+		}
+		if (redoButton.isEnabled() != gameScreen.canRedo()) {
+			redoButton.setEnabled(gameScreen.canRedo());
+		}
+	}
+
+	/**
+	 * Shows the next move of the best solution. The hint stays visible, so
+	 * the player can follow the solution.
+	 */
+	private void updateHint() {
+		int hint = gameScreen.getHint();
+		String text;
+		if (hint == HintEngine.HINT_SEARCHING) {
+			text = "Thinking...";
+		} else if (hint == HintEngine.HINT_NO_SOLUTION) {
+			text = "No hint";
+		} else if (hint == HintEngine.HINT_SOLVED) {
+			text = "Solved";
+		} else {
+			String[] directions = { "Up", "Right", "Down", "Left" };
+			text = (MoveLog.isPush(hint) ? "Push " : "")
+					+ directions[MoveLog.getDirection(hint)];
+		}
+		if (!text.equals(hintLabel.getText())) {
+			hintLabel.setText(text);
+		}
+	}
+
 	/**
 	 * Updates the move counter.
 	 */
@@ -1,33 +1,51 @@
 package kara.gamegrid.sokoban;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
  * The class is used to manage (read and write) the highscore.
  * 
- * Every Highscore contains three highscore entries for one specific level.
+ * Every Highscore contains the best highscore entries for one specific level,
+ * three by default. The entries are kept in a {@link Leaderboard}, so even
+ * highscores with many thousand entries are fast.
  * 
  * @author Marco Jakob (http://edu.makery.ch)
  */
 public class Highscore {
 	public static final Entry EMPTY_ENTRY = new Entry("---", 0);
 
+	/**
+	 * The number of entries of a Highscore if no size is specified.
+	 */
+	public static final int DEFAULT_SIZE = 3;
+
 	private int levelNumber;
 
-	/** A sorted list with at most three entries. */
-	private List<Entry> entries;
+	/** The sorted entries, at most one per player. */
+	private Leaderboard entries;
 
 	/**
-	 * Constructor.
+	 * Constructor for a Highscore with three entries.
 	 * 
 	 * @param levelNumber
 	 *            the level number that this Highscore is for
 	 */
 	public Highscore(int levelNumber) {
+		this(levelNumber, DEFAULT_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param levelNumber
+	 *            the level number that this Highscore is for
+	 * @param size
+	 *            the maximal number of entries, at least 1
+	 */
+	public Highscore(int levelNumber, int size) {
 		this.levelNumber = levelNumber;
-		this.entries = new ArrayList<Entry>();
+		this.entries = new Leaderboard(size);
 	}
 
 	/**
@@ -37,27 +55,38 @@ public class Highscore {
 		return levelNumber;
 	}
 
+	/**
+	 * Returns the maximal number of entries.
+	 */
+	public int getSize() {
+		return entries.getCapacity();
+	}
+
+	/**
+	 * Returns the number of entries.
+	 */
+	public int getNumberOfEntries() {
+		return entries.size();
+	}
+
 	/**
 	 * Returns if the number of moves would be in the top 3 of the highscore
-	 * list.
+	 * list. If the highscore has another size, it returns if the number of
+	 * moves would be in the highscore list.
 	 */
 	public boolean isHighscoreTop3(int moves) {
-		if (entries.size() < 3) {
-			return true;
-		} else {
-			// compare with moves of third (last) entry
-			return isBetterThan(moves, entries.get(2).getMoves());
-		}
+		return entries.qualifies(moves);
 	}
 
 	/**
-	 * Adds the specified entry into the highscore. Only the top 3 entries are
-	 * stored (i.e. the entries with the fewest moves). The new place in the
-	 * highscore is returned (1, 2 or 3). If the highscore is not in the top 3
-	 * it is ignored and -1 is returned.
+	 * Adds the specified entry into the highscore. Only the top entries are
+	 * stored (i.e. the entries with the fewest moves), three by default. The
+	 * new place in the highscore is returned (1, 2 or 3). If the highscore is
+	 * not in the top 3 it is ignored and -1 is returned.
 	 * <p>
 	 * Note: Every player can only be on one place in the highscore. If the same
-	 * user is added with less moves, his place might be updated.
+	 * user is added with less moves, his place might be updated. If the user
+	 * is added with more moves, his place stays the same and is returned.
 	 * 
 	 * @param playerName
 	 *            the name of the player
@@ -67,51 +96,14 @@ public class Highscore {
 	 *         If the highscore is not in the first three -1 is returned.
 	 */
 	public int addHighscoreEntry(String playerName, int moves) {
-		// Test if better than third place
-		if (entries.size() < 3
-				|| isBetterThan(moves, entries.get(2).getMoves())) {
-			// is in top 3 --> add
-			entries.add(new Entry(playerName, moves));
-		} else {
-			// not in top 3
-			return -1;
-		}
-
-		// sort
-		Collections.sort(entries);
-
-		// go through the first 3 entries and check for place
-		// if the same user is now two times in top three, remove the lower one
-		int place = -1;
-		int duplicateIndexToRemove = -1;
-		for (int i = 0; i < entries.size() && i < 3; i++) {
-			if (playerName.equals(entries.get(i).getName())) {
-				if (place != -1) {
-					// user is alredy in a better place --> delete this one
-					duplicateIndexToRemove = i;
-				} else {
-					place = i + 1;
-				}
-			}
-		}
-
-		if (duplicateIndexToRemove != -1) {
-			entries.remove(duplicateIndexToRemove);
-		}
-
-		// only keep top 3 in the list
-		while (entries.size() > 3) {
-			entries.remove(3);
-		}
-
-		return place + 1;
+		return entries.add(playerName, moves);
 	}
 
 	/**
-	 * Adds the specified entry into the highscore. Only the top 3 entries are
-	 * stored (i.e. the entries with the fewest moves). The new place in the
-	 * highscore is returned (1, 2 or 3). If the highscore is not in the top 3
-	 * it is ignored and -1 is returned.
+	 * Adds the specified entry into the highscore. Only the top entries are
+	 * stored (i.e. the entries with the fewest moves), three by default. The
+	 * new place in the highscore is returned (1, 2 or 3). If the highscore is
+	 * not in the top 3 it is ignored and -1 is returned.
 	 * <p>
 	 * Note: Every player can only be on one place in the highscore. If the same
 	 * user is added with less moves, his place might be updated.
@@ -130,10 +122,7 @@ public class Highscore {
 	 * such entry. The entry is a clone to prevent change to this highscore.
 	 */
 	public Entry getFirstEntry() {
-		if (entries.size() > 0) {
-			return entries.get(0).clone();
-		}
-		return EMPTY_ENTRY;
+		return getEntry(1);
 	}
 
 	/**
@@ -141,10 +130,7 @@ public class Highscore {
 	 * such entry.
 	 */
 	public Entry getSecondEntry() {
-		if (entries.size() > 1) {
-			return entries.get(1).clone();
-		}
-		return EMPTY_ENTRY;
+		return getEntry(2);
 	}
 
 	/**
@@ -152,8 +138,42 @@ public class Highscore {
 	 * such entry. The entry is a clone to prevent change to this highscore.
 	 */
 	public Entry getThirdEntry() {
-		if (entries.size() > 2) {
-			return entries.get(2).clone();
+		return getEntry(3);
+	}
+
+	/**
+	 * Returns the Entry at the place (starting with 1) in the highscore list
+	 * or a DUMMY if there is no such entry. The entry is a clone to prevent
+	 * change to this highscore.
+	 */
+	public Entry getEntry(int place) {
+		Entry entry = entries.getEntry(place);
+		if (entry != null) {
+			return entry.clone();
+		}
+		return EMPTY_ENTRY;
+	}
+
+	/**
+	 * Returns the entries from the place (starting with 1) on, at most count
+	 * entries. The entries are clones.
+	 */
+	public List<Entry> getEntries(int fromPlace, int count) {
+		List<Entry> result = new ArrayList<Entry>();
+		for (Entry entry : entries.getEntries(fromPlace, count)) {
+			result.add(entry.clone());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the best Entry of the player or a DUMMY if the player is not in
+	 * the highscore.
+	 */
+	public Entry getPlayerEntry(String playerName) {
+		Entry entry = entries.getPlayerEntry(playerName);
+		if (entry != null) {
+			return entry.clone();
 		}
 		return EMPTY_ENTRY;
 	}
@@ -166,21 +186,20 @@ public class Highscore {
 	 *         the player is not in the first three -1 is returned.
 	 */
 	public int getPlayerPlace(String playerName) {
-		for (int i = 0; i < entries.size(); i++) {
-			if (entries.get(i).getName().equals(playerName)) {
-				return i + 1;
-			}
-		}
-
-		// not in top 3
-		return -1;
+		return entries.getPlayerPlace(playerName);
 	}
 
 	public Highscore clone() {
-		Highscore h = new Highscore(levelNumber);
-		h.addHighscoreEntry(getFirstEntry());
-		h.addHighscoreEntry(getSecondEntry());
-		h.addHighscoreEntry(getThirdEntry());
+		return clone(getSize());
+	}
+
+	/**
+	 * Returns a clone with another size. If the size is smaller, the worst
+	 * entries are dropped.
+	 */
+	public Highscore clone(int size) {
+		Highscore h = new Highscore(levelNumber, size);
+		h.entries = entries.copy(size);
 		return h;
 	}
 
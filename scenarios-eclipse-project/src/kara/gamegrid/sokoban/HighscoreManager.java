@@ -6,6 +6,7 @@ package kara.gamegrid.sokoban;
  * @author Marco Jakob (http://edu.makery.ch)
  */
 public abstract class HighscoreManager {
+	private int highscoreSize = Highscore.DEFAULT_SIZE;
 
 	/**
 	 * Constructor.
@@ -23,6 +24,14 @@ public abstract class HighscoreManager {
 	 */
 	public abstract boolean isReadOnly();
 
+	/**
+	 * Returns true if the name of the current player can be set. Default is
+	 * false.
+	 */
+	public boolean canSetPlayerName() {
+		return false;
+	}
+
 	/**
 	 * Returns the name of the current player.
 	 */
@@ -33,6 +42,26 @@ public abstract class HighscoreManager {
 	 */
 	public abstract void setCurrentPlayerName(String currentPlayerName);
 
+	/**
+	 * Returns the maximal number of entries of a new Highscore.
+	 */
+	public int getHighscoreSize() {
+		return highscoreSize;
+	}
+
+	/**
+	 * Sets the maximal number of entries of a new Highscore. Default is
+	 * {@link Highscore#DEFAULT_SIZE}. Must be called before
+	 * {@link #initHighscores()}.
+	 */
+	public void setHighscoreSize(int highscoreSize) {
+		if (highscoreSize < 1) {
+			throw new IllegalArgumentException(
+					"Highscore size must be at least 1: " + highscoreSize);
+		}
+		this.highscoreSize = highscoreSize;
+	}
+
 	/**
 	 * Returns the Highscore for the specified level. The returned Highscore is
 	 * a clone. To store a change in the highscore, the method setHighscore(...)
@@ -44,4 +73,11 @@ public abstract class HighscoreManager {
 	 * Sets the specified Highscore and stores it.
 	 */
 	public abstract void setHighscore(Highscore highscore);
+
+	/**
+	 * Waits until all the highscores that were set are stored. Does nothing
+	 * by default.
+	 */
+	public void flush() {
+	}
 }
@@ -0,0 +1,211 @@
+package kara.gamegrid.sokoban;
+
+import kara.gamegrid.WorldSetup;
+import kara.gamegrid.sokoban.solver.Board;
+import kara.gamegrid.sokoban.solver.Solver;
+import kara.gamegrid.sokoban.solver.SolverResult;
+
+/**
+ * The HintEngine solves the current position of a level in a background
+ * thread, so that the next move of an optimal solution (fewest pushes) can be
+ * shown at once when the player asks for a hint.
+ * <p>
+ * The game thread never waits for the solver: it only hands over new
+ * positions and reads the last result. If the player makes the move of the
+ * solution, the rest of the solution is still optimal and is used without
+ * solving again. Any other move needs a new search, the running search is
+ * cancelled.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class HintEngine {
+	/** The solver is still searching. */
+	public static final int HINT_SEARCHING = -1;
+	/** The position can't be solved (or the solver gave up). */
+	public static final int HINT_NO_SOLUTION = -2;
+	/** All mushrooms are on leaves. */
+	public static final int HINT_SOLVED = -3;
+
+	private static final int NODE_LIMIT = 500000;
+	private static final long TIME_LIMIT = 20000;
+
+	private final Object lock = new Object();
+
+	// the position that still needs to be solved, guarded by lock
+	private WorldSetup pendingPosition;
+	private DeadlockTable pendingDeadlockTable;
+	private int generation;
+
+	// the result for the current position, guarded by lock
+	private String solution;
+	private int solutionIndex;
+	private boolean searching;
+
+	private volatile Solver runningSolver;
+
+	/**
+	 * Creates the engine and starts its background thread.
+	 */
+	public HintEngine() {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				solvePositions();
+			}
+		}, "Kara Sokoban Hints");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Sets a new position to solve. A running search is cancelled.
+	 *
+	 * @param position
+	 *            the current position with Kara and the mushrooms or
+	 *            <code>null</code> to stop giving hints
+	 * @param deadlockTable
+	 *            the deadlock table of the level, only used by the background
+	 *            thread (should not be the one the game checks with)
+	 */
+	public void setPosition(WorldSetup position, DeadlockTable deadlockTable) {
+		synchronized (lock) {
+			generation++;
+			pendingPosition = position;
+			pendingDeadlockTable = deadlockTable;
+			solution = null;
+			searching = position != null;
+			lock.notifyAll();
+		}
+		Solver solver = runningSolver;
+		if (solver != null) {
+			solver.cancel();
+		}
+	}
+
+	/**
+	 * Stops the running search and gives no more hints.
+	 */
+	public void cancel() {
+		setPosition(null, null);
+	}
+
+	/**
+	 * Tells the engine that Kara made a move.
+	 *
+	 * @param direction
+	 *            the direction of the move (see {@link MoveLog})
+	 * @param push
+	 *            true if a mushroom was pushed
+	 * @return true if it was the move of the solution, otherwise a new
+	 *         position must be set with
+	 *         {@link #setPosition(WorldSetup, DeadlockTable)}.
+	 */
+	public boolean moveMade(int direction, boolean push) {
+		synchronized (lock) {
+			if (solution == null || solutionIndex >= solution.length()
+					|| getMove(solution.charAt(solutionIndex)) != MoveLog.createMove(direction, push)) {
+				return false;
+			}
+			solutionIndex++;
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the next move of an optimal solution as a move of the
+	 * {@link MoveLog} or one of {@link #HINT_SEARCHING},
+	 * {@link #HINT_NO_SOLUTION} and {@link #HINT_SOLVED}.
+	 */
+	public int getHint() {
+		synchronized (lock) {
+			if (searching) {
+				return HINT_SEARCHING;
+			}
+			if (solution == null) {
+				return HINT_NO_SOLUTION;
+			}
+			if (solutionIndex >= solution.length()) {
+				return HINT_SOLVED;
+			}
+			return getMove(solution.charAt(solutionIndex));
+		}
+	}
+
+	/**
+	 * The loop of the background thread.
+	 */
+	private void solvePositions() {
+		while (true) {
+			WorldSetup position;
+			DeadlockTable deadlockTable;
+			int positionGeneration;
+			synchronized (lock) {
+				while (pendingPosition == null) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				position = pendingPosition;
+				deadlockTable = pendingDeadlockTable;
+				positionGeneration = generation;
+				pendingPosition = null;
+			}
+
+			SolverResult result = null;
+			try {
+				Solver solver = new Solver(new Board(position, deadlockTable));
+				solver.setNodeLimit(NODE_LIMIT);
+				solver.setTimeLimit(TIME_LIMIT);
+				runningSolver = solver;
+				if (positionGeneration == getGeneration()) {
+					result = solver.solve();
+				}
+			} catch (RuntimeException e) {
+				// e.g. no Kara in the position
+				e.printStackTrace();
+			} finally {
+				runningSolver = null;
+			}
+
+			synchronized (lock) {
+				if (positionGeneration == generation) {
+					// the position didn't change during the search
+					solution = result != null && result.isSolved() ? result.getSolution() : null;
+					solutionIndex = 0;
+					searching = false;
+				}
+			}
+		}
+	}
+
+	private int getGeneration() {
+		synchronized (lock) {
+			return generation;
+		}
+	}
+
+	/**
+	 * Converts a move in LURD notation to a move of the {@link MoveLog}.
+	 */
+	private static int getMove(char c) {
+		int direction;
+		switch (Character.toLowerCase(c)) {
+		case 'u':
+			direction = MoveLog.UP;
+			break;
+		case 'r':
+			direction = MoveLog.RIGHT;
+			break;
+		case 'd':
+			direction = MoveLog.DOWN;
+			break;
+		default:
+			direction = MoveLog.LEFT;
+			break;
+		}
+		return MoveLog.createMove(direction, Character.isUpperCase(c));
+	}
+}
@@ -24,8 +24,11 @@ public abstract class KaraSokoban extends Kara {
 	private static final int DIRECTION_UP = 270;
 
 	/**
-	 * Gets the most recently pressed key <br>
-	 * <i>Ermittelt die zuletzt gedrueckte Taste</i>.
+	 * Gets the next pressed key. Every key press is returned once, in the
+	 * order the keys were pressed <br>
+	 * <i>Ermittelt die naechste gedrueckte Taste. Jeder Tastendruck wird
+	 * einmal zurueckgegeben, in der Reihenfolge wie die Tasten gedrueckt
+	 * wurden</i>.
 	 * <p>
 	 * 
 	 * <ul>
@@ -36,8 +39,8 @@ public abstract class KaraSokoban extends Kara {
 	 * <li>"F1", "F2", .., "F12" (the function keys)</li>
 	 * </ul>
 	 * 
-	 * @return the most recently pressed key as String or an empty String if no
-	 *         key was pressed.
+	 * @return the next pressed key as String or an empty String if no key
+	 *         was pressed.
 	 */
 	public String getKey() {
 		if (!getGameScreen().isLevelComplete()) {
@@ -103,8 +106,53 @@ public abstract class KaraSokoban extends Kara {
 	}
 
 	/**
-	 * Sets the number of moves the player has made <br>
-	 * <i>Setzt die Anzahl Bewegungen, die der Spieler gemacht hat</i>.
+	 * Kara makes a step in the current direction and pushes a mushroom if
+	 * there is one <br>
+	 * <i>Kara macht einen Schritt in die aktuelle Richtung und stoesst einen
+	 * Pilz, falls einer vor ihm steht</i>
+	 */
+	@Override
+	public void move() {
+		Actor mushroom = (Actor) getObjectInFront(actorDelegate.getIntDirection(), 1,
+				Mushroom.class);
+		int fromX = mushroom != null ? mushroom.getX() : 0;
+		int fromY = mushroom != null ? mushroom.getY() : 0;
+		int karaX = actorDelegate.getX();
+		int karaY = actorDelegate.getY();
+
+		super.move();
+
+		boolean pushed = mushroom != null
+				&& (mushroom.getX() != fromX || mushroom.getY() != fromY);
+		if (pushed) {
+			getGameScreen().mushroomPushed(fromX, fromY, mushroom.getX(),
+					mushroom.getY());
+		}
+		if (actorDelegate.getX() != karaX || actorDelegate.getY() != karaY) {
+			// Kara's directions start with 0 = right, the move log starts with up
+			int direction = (actorDelegate.getIntDirection() / 90 + 1) & 3;
+			getGameScreen().karaMoved(direction, pushed);
+		}
+	}
+
+	/**
+	 * Checks if the level can't be completed anymore, e.g. because a mushroom
+	 * was pushed into a corner without a leaf <br>
+	 * <i>Prueft, ob der Level nicht mehr geloest werden kann, z.B. weil ein
+	 * Pilz in eine Ecke ohne Kleeblatt gestossen wurde</i>.
+	 * 
+	 * @return true if the level can't be completed anymore
+	 */
+	public boolean isDeadlocked() {
+		return getGameScreen().isDeadlocked();
+	}
+
+	/**
+	 * Sets the number of moves the player has made. Moves that were undone
+	 * with the undo button are subtracted automatically <br>
+	 * <i>Setzt die Anzahl Bewegungen, die der Spieler gemacht hat. Mit dem
+	 * Undo-Knopf rueckgaengig gemachte Bewegungen werden automatisch
+	 * abgezogen</i>.
 	 */
 	public void setNumberOfMoves(int moves) {
 		getGameScreen().setNumberOfMoves(moves);
@@ -156,7 +204,7 @@ public abstract class KaraSokoban extends Kara {
 			}
 
 			int place = h.addHighscoreEntry(getGameScreen().getPlayerName(),
-					moves);
+					moves + getGameScreen().getMovesOffset());
 			if (place == -1) {
 				// entry is not in the highscore
 				showWarning(
@@ -180,7 +228,7 @@ public abstract class KaraSokoban extends Kara {
 		if (h == null) {
 			return false;
 		}
-		return h.isHighscoreTop3(moves);
+		return h.isHighscoreTop3(moves + getGameScreen().getMovesOffset());
 	}
 
 	/*-------------------- privat methods -----------------------*/
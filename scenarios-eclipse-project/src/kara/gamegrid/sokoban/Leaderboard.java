@@ -0,0 +1,338 @@
+package kara.gamegrid.sokoban;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import kara.gamegrid.sokoban.Highscore.Entry;
+
+/**
+ * The Leaderboard holds the best entries of a Highscore, sorted by the number
+ * of moves. Entries with the same number of moves are sorted by the time they
+ * were added, the first one is better.
+ * <p>
+ * The entries are stored in an indexed skip list: every link knows how many
+ * entries it skips. So adding and removing an entry, finding the place of an
+ * entry and finding the entry of a place are O(log n). Every player has only
+ * one entry, the best one is found over a map by the name of the player.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+class Leaderboard {
+	/**
+	 * Enough levels for millions of entries.
+	 */
+	private static final int MAX_LEVEL = 24;
+
+	private final int capacity;
+	private final Node head = new Node(null, 0, MAX_LEVEL);
+	private final Map<String, Node> bestByPlayer = new HashMap<String, Node>();
+	private int level = 1;
+	private int size;
+	private long sequence;
+	private int random = 0x2545F491;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity
+	 *            the maximal number of entries
+	 */
+	Leaderboard(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1: "
+					+ capacity);
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the maximal number of entries.
+	 */
+	int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of entries.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns true if an entry with the number of moves would be added.
+	 */
+	boolean qualifies(int moves) {
+		if (moves < 1) {
+			// not a real entry
+			return false;
+		}
+		return size < capacity
+				|| Highscore.isBetterThan(moves, getNode(size).entry.getMoves());
+	}
+
+	/**
+	 * Adds the entry, if it is good enough. If the player already has a worse
+	 * entry, it is replaced. If the board is full, the last entry is removed.
+	 *
+	 * @return the place of the entry (starting with 1), the place of the
+	 *         player's entry if the player already has an entry that is at
+	 *         least as good or -1 if the entry is not good enough.
+	 */
+	int add(String playerName, int moves) {
+		if (!qualifies(moves)) {
+			return -1;
+		}
+		Node best = bestByPlayer.get(playerName);
+		if (best != null) {
+			if (!Highscore.isBetterThan(moves, best.entry.getMoves())) {
+				return getPlace(best);
+			}
+			remove(best);
+		}
+
+		Node node = new Node(new Entry(playerName, moves), sequence++,
+				randomLevel());
+		int place = insert(node);
+		bestByPlayer.put(playerName, node);
+		if (size > capacity) {
+			remove(getNode(size));
+		}
+		return place;
+	}
+
+	/**
+	 * Returns the entry at the place (starting with 1) or <code>null</code>
+	 * if there is no such place.
+	 */
+	Entry getEntry(int place) {
+		if (place < 1 || place > size) {
+			return null;
+		}
+		return getNode(place).entry;
+	}
+
+	/**
+	 * Returns the entries from the place (starting with 1) on, at most count
+	 * entries.
+	 */
+	List<Entry> getEntries(int fromPlace, int count) {
+		List<Entry> result = new ArrayList<Entry>();
+		if (fromPlace < 1 || fromPlace > size) {
+			return result;
+		}
+		Node node = getNode(fromPlace);
+		while (node != null && result.size() < count) {
+			result.add(node.entry);
+			node = node.next[0];
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the entry of the player or <code>null</code> if the player has
+	 * no entry.
+	 */
+	Entry getPlayerEntry(String playerName) {
+		Node node = bestByPlayer.get(playerName);
+		return node != null ? node.entry : null;
+	}
+
+	/**
+	 * Returns the place of the player (starting with 1) or -1 if the player
+	 * has no entry.
+	 */
+	int getPlayerPlace(String playerName) {
+		Node node = bestByPlayer.get(playerName);
+		return node != null ? getPlace(node) : -1;
+	}
+
+	/**
+	 * Returns a copy with the same entries and a new capacity. The worst
+	 * entries are dropped if there are too many. The nodes are copied in
+	 * order with their levels, so a copy takes O(n).
+	 */
+	Leaderboard copy(int newCapacity) {
+		Leaderboard copy = new Leaderboard(newCapacity);
+		copy.sequence = sequence;
+		copy.random = random;
+		int count = Math.min(size, newCapacity);
+
+		// the last copied node on every level and its place
+		Node[] last = new Node[MAX_LEVEL];
+		int[] lastPlace = new int[MAX_LEVEL];
+		Arrays.fill(last, copy.head);
+		Node node = head.next[0];
+		for (int place = 1; place <= count; place++) {
+			Node clone = new Node(node.entry, node.sequence, node.next.length);
+			for (int i = 0; i < clone.next.length; i++) {
+				last[i].next[i] = clone;
+				last[i].span[i] = place - lastPlace[i];
+				last[i] = clone;
+				lastPlace[i] = place;
+			}
+			copy.level = Math.max(copy.level, clone.next.length);
+			copy.bestByPlayer.put(clone.entry.getName(), clone);
+			node = node.next[0];
+		}
+		// the last link on every level skips the remaining entries
+		for (int i = 0; i < copy.level; i++) {
+			last[i].span[i] = count - lastPlace[i];
+		}
+		copy.size = count;
+		return copy;
+	}
+
+	/**
+	 * Inserts the node into the skip list.
+	 *
+	 * @return the place of the node
+	 */
+	private int insert(Node node) {
+		Node[] update = new Node[MAX_LEVEL];
+		int[] rank = new int[MAX_LEVEL];
+		Node x = head;
+		for (int i = level - 1; i >= 0; i--) {
+			rank[i] = i == level - 1 ? 0 : rank[i + 1];
+			while (x.next[i] != null && x.next[i].isBefore(node)) {
+				rank[i] += x.span[i];
+				x = x.next[i];
+			}
+			update[i] = x;
+		}
+
+		int nodeLevel = node.next.length;
+		if (nodeLevel > level) {
+			for (int i = level; i < nodeLevel; i++) {
+				rank[i] = 0;
+				update[i] = head;
+				head.span[i] = size;
+			}
+			level = nodeLevel;
+		}
+
+		for (int i = 0; i < nodeLevel; i++) {
+			node.next[i] = update[i].next[i];
+			update[i].next[i] = node;
+			node.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+			update[i].span[i] = rank[0] - rank[i] + 1;
+		}
+		// the higher links now skip one more entry
+		for (int i = nodeLevel; i < level; i++) {
+			update[i].span[i]++;
+		}
+		size++;
+		return rank[0] + 1;
+	}
+
+	/**
+	 * Removes the node from the skip list and from the players.
+	 */
+	private void remove(Node node) {
+		Node[] update = new Node[MAX_LEVEL];
+		Node x = head;
+		for (int i = level - 1; i >= 0; i--) {
+			while (x.next[i] != null && x.next[i].isBefore(node)) {
+				x = x.next[i];
+			}
+			update[i] = x;
+		}
+
+		for (int i = 0; i < level; i++) {
+			if (update[i].next[i] == node) {
+				update[i].span[i] += node.span[i] - 1;
+				update[i].next[i] = node.next[i];
+			} else {
+				update[i].span[i]--;
+			}
+		}
+		while (level > 1 && head.next[level - 1] == null) {
+			level--;
+		}
+		size--;
+
+		if (bestByPlayer.get(node.entry.getName()) == node) {
+			bestByPlayer.remove(node.entry.getName());
+		}
+	}
+
+	/**
+	 * Returns the place of the node (starting with 1).
+	 */
+	private int getPlace(Node node) {
+		int rank = 0;
+		Node x = head;
+		for (int i = level - 1; i >= 0; i--) {
+			while (x.next[i] != null && !node.isBefore(x.next[i])) {
+				rank += x.span[i];
+				x = x.next[i];
+			}
+			if (x == node) {
+				return rank;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the node at the place (1 to size).
+	 */
+	private Node getNode(int place) {
+		int traversed = 0;
+		Node x = head;
+		for (int i = level - 1; i >= 0; i--) {
+			while (x.next[i] != null && traversed + x.span[i] <= place) {
+				traversed += x.span[i];
+				x = x.next[i];
+			}
+			if (traversed == place) {
+				return x;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a random level, level n + 1 with half the probability of level
+	 * n. Uses an xorshift generator, so the same entries give the same list.
+	 */
+	private int randomLevel() {
+		random ^= random << 13;
+		random ^= random >>> 17;
+		random ^= random << 5;
+		return 1 + Integer.numberOfTrailingZeros(random | (1 << (MAX_LEVEL - 1)));
+	}
+
+	/**
+	 * A node of the skip list with the links to the next nodes on every level
+	 * and the number of entries every link skips.
+	 */
+	private static class Node {
+		private final Entry entry;
+		private final long sequence;
+		private final Node[] next;
+		private final int[] span;
+
+		private Node(Entry entry, long sequence, int level) {
+			this.entry = entry;
+			this.sequence = sequence;
+			this.next = new Node[level];
+			this.span = new int[level];
+		}
+
+		/**
+		 * Returns true if this node comes before the other node.
+		 */
+		private boolean isBefore(Node other) {
+			int moves = entry.getMoves();
+			int otherMoves = other.entry.getMoves();
+			if (moves != otherMoves) {
+				return Highscore.isBetterThan(moves, otherMoves);
+			}
+			return sequence < other.sequence;
+		}
+	}
+}
@@ -1,9 +1,11 @@
 package kara.gamegrid.sokoban;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import kara.gamegrid.WorldSetup;
 
@@ -25,6 +27,7 @@ public class Level extends WorldSetup {
 	public static final String TITLE_KEY = "Level:";
 	public static final String PASSWORD_KEY = "Password:";
 	private int levelNumber = -1;
+	private final DeadlockTable deadlockTable;
 
 	/**
 	 * Constructor for a Level that copies the specified {@link WorldSetup} to
@@ -38,6 +41,7 @@ public class Level extends WorldSetup {
 	public Level(WorldSetup worldSetup, int levelNumber) {
 		super(worldSetup);
 		this.levelNumber = levelNumber;
+		this.deadlockTable = new DeadlockTable(this);
 	}
 	
 	/**
@@ -47,6 +51,13 @@ public class Level extends WorldSetup {
 		return levelNumber;
 	}
 
+	/**
+	 * Returns the dead squares and freeze deadlock check of this level.
+	 */
+	public DeadlockTable getDeadlockTable() {
+		return deadlockTable;
+	}
+
 	/**
 	 * Returns the level password.
 	 */
@@ -54,8 +65,53 @@ public class Level extends WorldSetup {
 		return getAttribute(PASSWORD_KEY);
 	}
 
+	/**
+	 * Creates a password with four letters from the content hash of a level
+	 * (see {@link WorldSetup#getContentHash()}).
+	 * 
+	 * @param contentHash
+	 *            the content hash
+	 * @return the password
+	 */
+	public static String createPassword(long contentHash) {
+		char[] password = new char[4];
+		long value = contentHash & Long.MAX_VALUE;
+		for (int i = 0; i < password.length; i++) {
+			password[i] = (char) ('A' + value % 26);
+			value /= 26;
+		}
+		return new String(password);
+	}
+
+	/**
+	 * Creates a password like {@link #createPassword(long)} that is not used
+	 * yet and adds it to the used passwords.
+	 * 
+	 * @param contentHash
+	 *            the content hash
+	 * @param levelNumber
+	 *            the level number, used to scramble the hash if the password
+	 *            is already used
+	 * @param passwords
+	 *            the passwords already used in the collection
+	 * @return the password
+	 */
+	public static String createUniquePassword(long contentHash,
+			int levelNumber, Set<String> passwords) {
+		long hash = contentHash;
+		String password = createPassword(hash);
+		while (!passwords.add(password)) {
+			// same content or a collision, try another (scrambled) hash
+			hash = (hash ^ (hash >>> 29)) * 0xBF58476D1CE4E5B9L + levelNumber;
+			password = createPassword(hash);
+		}
+		return password;
+	}
+
 	/**
 	 * Parses all the Levels from the specified Level File.
+	 * <p>
+	 * Files ending with .xsb or .sok are read with the {@link SokobanReader}.
 	 * 
 	 * @param levelFile
 	 *            The filename of level file, possibly relative to the clazz.
@@ -68,6 +124,15 @@ public class Level extends WorldSetup {
 	 * 			  Thrown if no file could be found or a file could not be read.
 	 */
 	public static Level[] parseFromFile(String levelFile, Class<?> clazz) throws IOException {
+		String lowerCaseName = levelFile.toLowerCase();
+		if (lowerCaseName.endsWith(".xsb") || lowerCaseName.endsWith(".sok")) {
+			// the level has the height of the world, so Kara and the solver
+			// wrap around at the same row. The last row is used by the info bar.
+			return SokobanReader.readAll(WorldSetup.openFile(levelFile, clazz),
+					GameScreen.WIDTH_IN_CELLS, GameScreen.HEIGHT_IN_CELLS,
+					GameScreen.HEIGHT_IN_CELLS - 1);
+		}
+		
 		WorldSetup[] worldSetups = WorldSetup.parseFromFile(levelFile, clazz, TITLE_KEY, 
 				GameScreen.WIDTH_IN_CELLS, GameScreen.HEIGHT_IN_CELLS, PASSWORD_KEY);
 		Level[] levels = new Level[worldSetups.length];
@@ -79,6 +144,35 @@ public class Level extends WorldSetup {
 		return levels;
 	}
 
+	/**
+	 * Writes all the levels to the output in the format of a level file (see
+	 * {@link WorldSetup#writeAll(Appendable, WorldSetup[], boolean)}).
+	 * 
+	 * @param out
+	 *            where to write to
+	 * @param levels
+	 *            the levels to write
+	 * @throws IOException
+	 *             if an I/O error occurs writing to the output.
+	 */
+	public static void writeAll(Appendable out, Level[] levels) throws IOException {
+		WorldSetup.writeAll(out, levels, false);
+	}
+
+	/**
+	 * Writes all the levels to the level file.
+	 * 
+	 * @param file
+	 *            the file to write to
+	 * @param levels
+	 *            the levels to write
+	 * @throws IOException
+	 *             if an I/O error occurs writing to the file.
+	 */
+	public static void writeAllToFile(File file, Level[] levels) throws IOException {
+		WorldSetup.writeAllToFile(file, levels, false);
+	}
+
 	/**
 	 * Creates a Level from all the actors in the list.
 	 * 
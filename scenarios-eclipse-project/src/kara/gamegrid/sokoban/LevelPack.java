@@ -0,0 +1,147 @@
+package kara.gamegrid.sokoban;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import kara.gamegrid.WorldSetup;
+import kara.gamegrid.WorldSetup.FileUtils;
+
+/**
+ * The LevelPack holds all the levels of a level file. A level is only parsed
+ * when it is needed for the first time.
+ * <p>
+ * When the file is loaded, its lines are scanned once to find where every
+ * level starts and to build an index from the passwords to the level numbers.
+ * So a password can be looked up without parsing any level.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class LevelPack {
+	private final List<String> lines;
+	private final String fileName;
+	private final int[] starts;
+	private final Level[] levels;
+	private final Map<String, Integer> passwordIndex = new HashMap<String, Integer>();
+
+	/**
+	 * Creates a pack from levels that are already parsed.
+	 */
+	public LevelPack(Level[] levels) {
+		this.lines = null;
+		this.fileName = null;
+		this.starts = null;
+		this.levels = levels.clone();
+		for (int i = 0; i < levels.length; i++) {
+			addPassword(levels[i].getLevelPassword(), i + 1);
+		}
+	}
+
+	/**
+	 * Creates a pack from the lines of a level file. Only the lines starting
+	 * with the title and the password are looked at.
+	 */
+	private LevelPack(List<String> lines, String fileName) {
+		this.lines = lines;
+		this.fileName = fileName;
+		List<Integer> levelStarts = new ArrayList<Integer>();
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i);
+			if (line.startsWith(Level.TITLE_KEY)) {
+				levelStarts.add(i);
+			} else if (line.startsWith(Level.PASSWORD_KEY) && !levelStarts.isEmpty()) {
+				addPassword(line.substring(Level.PASSWORD_KEY.length()).trim(),
+						levelStarts.size());
+			}
+		}
+		starts = new int[levelStarts.size() + 1];
+		for (int i = 0; i < levelStarts.size(); i++) {
+			starts[i] = levelStarts.get(i);
+		}
+		starts[levelStarts.size()] = lines.size();
+		levels = new Level[levelStarts.size()];
+	}
+
+	/**
+	 * Loads the levels from the level file (see
+	 * {@link Level#parseFromFile(String, Class)}). Files in other formats
+	 * (.xsb and .sok) and file names with wildcards are parsed at once.
+	 *
+	 * @param levelFile
+	 *            The filename of level file, possibly relative to the clazz.
+	 * @param clazz
+	 *            The class used to get the relative path to the file or
+	 *            <code>null</code>.
+	 * @return the level pack
+	 * @throws IOException
+	 *             Thrown if no file could be found or a file could not be read.
+	 */
+	public static LevelPack load(String levelFile, Class<?> clazz) throws IOException {
+		String lowerCaseName = levelFile.toLowerCase();
+		if (lowerCaseName.endsWith(".xsb") || lowerCaseName.endsWith(".sok")
+				|| levelFile.indexOf('*') != -1 || levelFile.indexOf('?') != -1) {
+			return new LevelPack(Level.parseFromFile(levelFile, clazz));
+		}
+		List<String> lines = FileUtils.readAllLines(WorldSetup.openFile(levelFile, clazz));
+		return new LevelPack(lines, levelFile);
+	}
+
+	/**
+	 * Returns the number of levels.
+	 */
+	public int size() {
+		return levels.length;
+	}
+
+	/**
+	 * Returns the level with the number (starting with 1), parses it if
+	 * needed.
+	 *
+	 * @return the level or <code>null</code> if there is no level with the
+	 *         number.
+	 */
+	public synchronized Level getLevel(int levelNumber) {
+		if (levelNumber < 1 || levelNumber > levels.length) {
+			return null;
+		}
+		int index = levelNumber - 1;
+		if (levels[index] == null) {
+			List<WorldSetup> parsed = WorldSetup.parseFromStrings(
+					lines.subList(starts[index], starts[index + 1]),
+					Level.TITLE_KEY, GameScreen.WIDTH_IN_CELLS,
+					GameScreen.HEIGHT_IN_CELLS, fileName, Level.PASSWORD_KEY);
+			levels[index] = new Level(parsed.get(0), levelNumber);
+		}
+		return levels[index];
+	}
+
+	/**
+	 * Returns all the levels. All levels that are not parsed yet are parsed
+	 * now.
+	 */
+	public Level[] getAllLevels() {
+		Level[] result = new Level[levels.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = getLevel(i + 1);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of the level with the password or -1 if no level has
+	 * this password. No level is parsed.
+	 */
+	public int getLevelNumber(String password) {
+		Integer levelNumber = passwordIndex.get(password);
+		return levelNumber != null ? levelNumber : -1;
+	}
+
+	private void addPassword(String password, int levelNumber) {
+		if (password != null && !passwordIndex.containsKey(password)) {
+			// like a search from the start, the first level wins
+			passwordIndex.put(password, levelNumber);
+		}
+	}
+}
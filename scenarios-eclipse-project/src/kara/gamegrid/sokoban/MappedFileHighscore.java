@@ -0,0 +1,357 @@
+package kara.gamegrid.sokoban;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+
+/**
+ * Saves the highscores to a memory mapped file that several games on the same
+ * computer can share.
+ * <p>
+ * The file has a header and then one record of fixed size per level, so the
+ * record of a level is found directly by its level number. A record contains
+ * the level number, the number of entries and for every entry the name (as
+ * UTF-8 bytes) and the moves. Nothing has to be parsed and a new highscore
+ * only changes the record of its level.
+ * <p>
+ * Every record is locked with a file lock while it is read (shared) or
+ * written (exclusive), so games in other processes never see half a record.
+ * A new highscore is added to the entries that are in the file at this
+ * moment, so no entry of another game is lost.
+ * <p>
+ * The number of entries per level is set when the file is created (see
+ * {@link #setHighscoreSize(int)}) and stored in the header.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class MappedFileHighscore extends HighscoreManager {
+	// The default file containing the highscores
+	private static final String DEFAULT_FILE = "HIGHSCORES.dat";
+
+	private static final int MAGIC = 0x4B534F4B;
+	private static final int VERSION = 1;
+
+	// magic, version, entries per level and bytes per name
+	private static final int HEADER_SIZE = 16;
+
+	// the first byte is the length of the name
+	private static final int NAME_BYTES = 32;
+	private static final int ENTRY_SIZE = NAME_BYTES + 4;
+
+	// the file grows by this many records
+	private static final int GROW_LEVELS = 256;
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private final File file;
+	private String currentPlayerName = "";
+	private boolean readOnly;
+
+	/**
+	 * The mapped file, guarded by this.
+	 */
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private int entriesPerLevel;
+	private int recordSize;
+
+	/**
+	 * Constructor for a MappedFileHighscore with the default file.
+	 */
+	public MappedFileHighscore() {
+		this(DEFAULT_FILE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param fileName
+	 *            the highscore file, it is created if it does not exist.
+	 */
+	public MappedFileHighscore(String fileName) {
+		this.file = new File(fileName);
+	}
+
+	/**
+	 * Opens the highscore file or creates it.
+	 */
+	public synchronized void initHighscores() {
+		if (channel != null) {
+			return;
+		}
+		try {
+			readOnly = file.exists() && !file.canWrite();
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file,
+					readOnly ? "r" : "rw");
+			channel = randomAccessFile.getChannel();
+			readHeader();
+			recordSize = 8 + entriesPerLevel * ENTRY_SIZE;
+			map(readOnly ? channel.size() : Math.max(channel.size(),
+					getOffset(GROW_LEVELS + 1)));
+		} catch (IOException ex) {
+			System.out.println("ERROR: Could not open highscore file: " + file);
+			ex.printStackTrace();
+			close();
+		}
+	}
+
+	/**
+	 * Returns true if the highscore file was opened by
+	 * {@link #initHighscores()}. If it could not be opened, the manager can't
+	 * load or store highscores and should not be used.
+	 */
+	public synchronized boolean isAvailable() {
+		return channel != null;
+	}
+
+	/**
+	 * Returns it the manager is read only.
+	 */
+	public synchronized boolean isReadOnly() {
+		return readOnly || channel == null;
+	}
+
+	/**
+	 * Returns true, the name of the player is stored with the highscore.
+	 */
+	public boolean canSetPlayerName() {
+		return true;
+	}
+
+	/**
+	 * Returns the name of the current player.
+	 */
+	public String getCurrentPlayerName() {
+		return currentPlayerName;
+	}
+
+	/**
+	 * Set the name of the current player.
+	 */
+	public void setCurrentPlayerName(String currentPlayerName) {
+		this.currentPlayerName = currentPlayerName;
+	}
+
+	/**
+	 * Returns the Highscore for the specified level. The returned Highscore is
+	 * a clone. To store a change in the highscore, the method setHighscore(...)
+	 * must be called.
+	 */
+	public synchronized Highscore getHighscoreForLevel(int levelNumber) {
+		if (channel == null) {
+			return null;
+		}
+		Highscore highscore = new Highscore(levelNumber, entriesPerLevel);
+		try {
+			if (levelNumber >= 1 && ensureMapped(levelNumber, false)) {
+				long offset = getOffset(levelNumber);
+				FileLock lock = channel.lock(offset, recordSize, true);
+				try {
+					readRecord(levelNumber, highscore);
+				} finally {
+					lock.release();
+				}
+			}
+		} catch (IOException ex) {
+			System.out.println("ERROR: Could not load highscore from file: "
+					+ file);
+			ex.printStackTrace();
+		}
+		return highscore;
+	}
+
+	/**
+	 * Adds the entries of the specified Highscore to the entries in the file.
+	 */
+	public synchronized void setHighscore(Highscore highscore) {
+		int levelNumber = highscore.getLevelNumber();
+		if (channel == null || readOnly || levelNumber < 1) {
+			return;
+		}
+		try {
+			ensureMapped(levelNumber, true);
+			long offset = getOffset(levelNumber);
+			FileLock lock = channel.lock(offset, recordSize, false);
+			try {
+				// another game may have added entries since we read them
+				Highscore merged = new Highscore(levelNumber, entriesPerLevel);
+				readRecord(levelNumber, merged);
+				for (Highscore.Entry entry : highscore.getEntries(1,
+						highscore.getNumberOfEntries())) {
+					// shortened like in the file, so the player is found
+					String name = new String(toNameBytes(entry.getName()),
+							CHARSET);
+					merged.addHighscoreEntry(name, entry.getMoves());
+				}
+				writeRecord(merged);
+			} finally {
+				lock.release();
+			}
+		} catch (IOException ex) {
+			System.out.println("ERROR: Could not save highscore to file: "
+					+ file);
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes the changed records to the disk.
+	 */
+	public synchronized void flush() {
+		if (buffer != null && !readOnly) {
+			buffer.force();
+		}
+	}
+
+	/**
+	 * Reads the header or writes it if the file is new.
+	 */
+	private void readHeader() throws IOException {
+		FileLock lock = channel.lock(0, HEADER_SIZE, readOnly);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			if (channel.size() < HEADER_SIZE) {
+				if (readOnly) {
+					throw new IOException("Highscore file is empty: " + file);
+				}
+				header.putInt(MAGIC).putInt(VERSION).putInt(getHighscoreSize())
+						.putInt(NAME_BYTES);
+				header.flip();
+				channel.write(header, 0);
+				header.clear();
+			}
+			channel.read(header, 0);
+			header.flip();
+			if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC
+					|| header.getInt() != VERSION) {
+				throw new IOException("Not a highscore file: " + file);
+			}
+			entriesPerLevel = header.getInt();
+			if (entriesPerLevel < 1 || header.getInt() != NAME_BYTES) {
+				throw new IOException("Invalid highscore file: " + file);
+			}
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * Returns the position of the record of the level in the file.
+	 */
+	private long getOffset(int levelNumber) {
+		return HEADER_SIZE + (long) (levelNumber - 1) * recordSize;
+	}
+
+	/**
+	 * Makes sure the record of the level is mapped. If the file is too short,
+	 * it is made longer if grow is true. The file may also have been made
+	 * longer by another game.
+	 *
+	 * @return true if the record is mapped.
+	 */
+	private boolean ensureMapped(int levelNumber, boolean grow)
+			throws IOException {
+		long end = getOffset(levelNumber) + recordSize;
+		if (end <= buffer.capacity()) {
+			return true;
+		}
+		if (end > Integer.MAX_VALUE) {
+			throw new IOException("Level number too large: " + levelNumber);
+		}
+		long fileSize = channel.size();
+		if (fileSize >= end) {
+			map(fileSize);
+			return true;
+		}
+		if (!grow) {
+			return false;
+		}
+		map(Math.min(Integer.MAX_VALUE, end + (long) GROW_LEVELS * recordSize));
+		return true;
+	}
+
+	/**
+	 * Maps the file, it is made longer if it is shorter than the size.
+	 */
+	private void map(long size) throws IOException {
+		if (buffer != null && !readOnly) {
+			buffer.force();
+		}
+		buffer = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY
+				: FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+
+	/**
+	 * Adds the entries in the record of the level to the highscore.
+	 */
+	private void readRecord(int levelNumber, Highscore highscore) {
+		int position = (int) getOffset(levelNumber);
+		if (buffer.getInt(position) != levelNumber) {
+			// no highscore for this level yet
+			return;
+		}
+		int count = Math.min(buffer.getInt(position + 4), entriesPerLevel);
+		position += 8;
+		byte[] bytes = new byte[NAME_BYTES - 1];
+		for (int i = 0; i < count; i++) {
+			int length = Math.min(buffer.get(position) & 0xff, NAME_BYTES - 1);
+			for (int j = 0; j < length; j++) {
+				bytes[j] = buffer.get(position + 1 + j);
+			}
+			String name = new String(bytes, 0, length, CHARSET);
+			highscore.addHighscoreEntry(name, buffer.getInt(position + NAME_BYTES));
+			position += ENTRY_SIZE;
+		}
+	}
+
+	/**
+	 * Writes the highscore to the record of its level.
+	 */
+	private void writeRecord(Highscore highscore) {
+		int position = (int) getOffset(highscore.getLevelNumber());
+		int count = Math.min(highscore.getNumberOfEntries(), entriesPerLevel);
+		buffer.putInt(position, highscore.getLevelNumber());
+		buffer.putInt(position + 4, count);
+		position += 8;
+		for (int place = 1; place <= count; place++) {
+			Highscore.Entry entry = highscore.getEntry(place);
+			byte[] bytes = toNameBytes(entry.getName());
+			buffer.put(position, (byte) bytes.length);
+			for (int j = 0; j < bytes.length; j++) {
+				buffer.put(position + 1 + j, bytes[j]);
+			}
+			buffer.putInt(position + NAME_BYTES, entry.getMoves());
+			position += ENTRY_SIZE;
+		}
+	}
+
+	/**
+	 * Returns the UTF-8 bytes of the name. Long names are shortened, but never
+	 * in the middle of a character.
+	 */
+	private static byte[] toNameBytes(String name) {
+		byte[] bytes = name.getBytes(CHARSET);
+		while (bytes.length > NAME_BYTES - 1) {
+			name = name.substring(0, name.length() - 1);
+			bytes = name.getBytes(CHARSET);
+		}
+		return bytes;
+	}
+
+	private void close() {
+		buffer = null;
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				ex.printStackTrace();
+			}
+			channel = null;
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package kara.gamegrid.sokoban;
+
+import java.util.Arrays;
+
+/**
+ * The MoveLog remembers Kara's moves in a level so that they can be undone and
+ * redone.
+ * <p>
+ * Every move needs only 5 bits: 2 bits for the direction, a flag if a
+ * mushroom was pushed and 2 bits for the direction Kara was facing before the
+ * move, so an undo can turn her back. 12 moves are packed into a long. Undo and redo only
+ * move the current position in the log, so they don't create any objects. A
+ * new move after an undo removes the moves that could have been redone.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class MoveLog {
+	public static final int UP = 0;
+	public static final int RIGHT = 1;
+	public static final int DOWN = 2;
+	public static final int LEFT = 3;
+
+	private static final int BITS_PER_MOVE = 5;
+	private static final int MOVES_PER_LONG = 64 / BITS_PER_MOVE;
+	private static final long MOVE_MASK = (1L << BITS_PER_MOVE) - 1;
+	private static final int PUSH_FLAG = 4;
+	private static final int FACING_SHIFT = 3;
+
+	private long[] moves = new long[16];
+	private int position;
+	private int size;
+
+	/**
+	 * Adds a move at the current position.
+	 *
+	 * @param direction
+	 *            the direction Kara moved in ({@link #UP}, {@link #RIGHT},
+	 *            {@link #DOWN} or {@link #LEFT})
+	 * @param push
+	 *            true if Kara pushed a mushroom
+	 * @param facing
+	 *            the direction Kara was facing before the move
+	 */
+	public void add(int direction, boolean push, int facing) {
+		int index = position / MOVES_PER_LONG;
+		if (index == moves.length) {
+			moves = Arrays.copyOf(moves, moves.length * 2);
+		}
+		int shift = (position % MOVES_PER_LONG) * BITS_PER_MOVE;
+		long move = createMove(direction, push) | (facing & 3) << FACING_SHIFT;
+		moves[index] = (moves[index] & ~(MOVE_MASK << shift)) | (move << shift);
+		position++;
+		size = position;
+	}
+
+	/**
+	 * Goes back one move.
+	 *
+	 * @return the move that has to be undone or -1 if there is none
+	 */
+	public int undo() {
+		if (position == 0) {
+			return -1;
+		}
+		position--;
+		return get(position);
+	}
+
+	/**
+	 * Goes forward one move.
+	 *
+	 * @return the move that has to be redone or -1 if there is none
+	 */
+	public int redo() {
+		if (position == size) {
+			return -1;
+		}
+		return get(position++);
+	}
+
+	/**
+	 * Returns true if there is a move that can be undone.
+	 */
+	public boolean canUndo() {
+		return position > 0;
+	}
+
+	/**
+	 * Returns true if there is a move that can be redone.
+	 */
+	public boolean canRedo() {
+		return position < size;
+	}
+
+	/**
+	 * Returns the number of moves that were made and not undone.
+	 */
+	public int getPosition() {
+		return position;
+	}
+
+	/**
+	 * Returns the number of moves including the ones that can be redone.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all moves.
+	 */
+	public void clear() {
+		position = 0;
+		size = 0;
+	}
+
+	/**
+	 * Returns the move for the direction and push flag, like it is returned by
+	 * {@link #undo()} and {@link #redo()}.
+	 */
+	public static int createMove(int direction, boolean push) {
+		return (direction & 3) | (push ? PUSH_FLAG : 0);
+	}
+
+	/**
+	 * Returns the direction of the move.
+	 */
+	public static int getDirection(int move) {
+		return move & 3;
+	}
+
+	/**
+	 * Returns true if a mushroom was pushed in the move.
+	 */
+	public static boolean isPush(int move) {
+		return (move & PUSH_FLAG) != 0;
+	}
+
+	/**
+	 * Returns the direction Kara was facing before the move. Only known for
+	 * the moves returned by {@link #undo()} and {@link #redo()}.
+	 */
+	public static int getFacing(int move) {
+		return (move >>> FACING_SHIFT) & 3;
+	}
+
+	private int get(int index) {
+		int shift = (index % MOVES_PER_LONG) * BITS_PER_MOVE;
+		return (int) ((moves[index / MOVES_PER_LONG] >>> shift) & MOVE_MASK);
+	}
+}
@@ -0,0 +1,337 @@
+package kara.gamegrid.sokoban;
+
+import java.util.Arrays;
+
+/**
+ * The PathPlanner finds the moves for Kara to walk to a cell or to push a
+ * mushroom to a cell. All arrays are created once for the size of the world,
+ * so a search doesn't create any objects (except if a path gets very long).
+ * <p>
+ * Cells are numbered y * width + x. Like Kara, the paths continue on the other
+ * side at the border of the world. The directions of the found path are the
+ * ones of the {@link MoveLog}.
+ * <p>
+ * To push a mushroom, the planner searches over the states (cell of the
+ * mushroom, side of the mushroom Kara stands on). A push costs one move, going
+ * around the mushroom to another side costs the moves of the walk. The other
+ * mushrooms don't move, so the search is fast enough to answer while the
+ * player drags the mushroom.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class PathPlanner {
+	private final int width;
+	private final int height;
+	private final boolean[] blocked;
+
+	// work arrays for the walks
+	private final int[] walkDistance;
+	private final int[] walkDirection;
+	private final int[] queue;
+
+	// work arrays for the push search, a state is cell * 4 + side
+	private final int[] stateDistance;
+	private final int[] stateParent;
+	private final int[] stateChain;
+	private long[] heap;
+	private int heapSize;
+
+	private int[] path;
+	private int pathLength;
+
+	/**
+	 * Creates a planner for a world of the size.
+	 */
+	public PathPlanner(int width, int height) {
+		this.width = width;
+		this.height = height;
+		int size = width * height;
+		blocked = new boolean[size];
+		walkDistance = new int[size];
+		walkDirection = new int[size];
+		queue = new int[size];
+		stateDistance = new int[size * 4];
+		stateParent = new int[size * 4];
+		stateChain = new int[size * 4];
+		heap = new long[size * 4];
+		path = new int[size];
+	}
+
+	/**
+	 * Removes all obstacles. The cells outside of the area (e.g. the cells
+	 * below or beside a small level) are blocked.
+	 *
+	 * @param areaWidth
+	 *            the width of the area Kara may walk in
+	 * @param areaHeight
+	 *            the height of the area Kara may walk in
+	 */
+	public void reset(int areaWidth, int areaHeight) {
+		for (int cell = 0; cell < blocked.length; cell++) {
+			blocked[cell] = cell % width >= areaWidth || cell / width >= areaHeight;
+		}
+	}
+
+	/**
+	 * Marks the cell as an obstacle (a tree or a mushroom that doesn't move).
+	 */
+	public void setBlocked(int x, int y) {
+		blocked[y * width + x] = true;
+	}
+
+	/**
+	 * Returns the cell number for the coordinates.
+	 */
+	public int getCell(int x, int y) {
+		return y * width + x;
+	}
+
+	/**
+	 * Searches the shortest walk from start to target.
+	 *
+	 * @return the number of moves or -1 if the target can't be reached.
+	 */
+	public int findWalk(int start, int target) {
+		pathLength = 0;
+		if (!walk(start, target, -1)) {
+			return -1;
+		}
+		appendWalk(start, target);
+		return pathLength;
+	}
+
+	/**
+	 * Searches the shortest way (in moves) to push the mushroom from its cell
+	 * to the target. The mushroom must not be blocked, the other mushrooms
+	 * must be.
+	 *
+	 * @param kara
+	 *            Kara's cell
+	 * @param mushroom
+	 *            the cell of the mushroom to push
+	 * @param target
+	 *            the target cell for the mushroom
+	 * @return the number of moves (walks and pushes) or -1 if the mushroom
+	 *         can't be pushed to the target.
+	 */
+	public int findPushes(int kara, int mushroom, int target) {
+		pathLength = 0;
+		if (blocked[target]) {
+			return -1;
+		}
+		if (mushroom == target) {
+			return 0;
+		}
+
+		Arrays.fill(stateDistance, -1);
+		heapSize = 0;
+
+		// Kara walks to a side of the mushroom
+		walk(kara, -1, mushroom);
+		for (int side = 0; side < 4; side++) {
+			int karaCell = neighbour(mushroom, side);
+			if (walkDistance[karaCell] != -1) {
+				relax(mushroom * 4 + side, walkDistance[karaCell], -1);
+			}
+		}
+
+		int goal = -1;
+		while (heapSize > 0) {
+			long entry = pop();
+			int state = (int) entry;
+			int distance = (int) (entry >>> 32);
+			if (distance != stateDistance[state]) {
+				// a shorter way to this state was found later
+				continue;
+			}
+			int cell = state >> 2;
+			int side = state & 3;
+			if (cell == target) {
+				goal = state;
+				break;
+			}
+
+			// push to the opposite side
+			int to = neighbour(cell, (side + 2) & 3);
+			if (!blocked[to]) {
+				relax(to * 4 + side, distance + 1, state);
+			}
+
+			// walk around the mushroom to another side
+			int karaCell = neighbour(cell, side);
+			walk(karaCell, -1, cell);
+			for (int other = 0; other < 4; other++) {
+				int otherCell = neighbour(cell, other);
+				if (other != side && walkDistance[otherCell] != -1) {
+					relax(cell * 4 + other, distance + walkDistance[otherCell], state);
+				}
+			}
+		}
+		if (goal == -1) {
+			return -1;
+		}
+
+		// collect the states from the goal back to the start
+		int count = 0;
+		for (int state = goal; state != -1; state = stateParent[state]) {
+			stateChain[count++] = state;
+		}
+		int karaCell = kara;
+		for (int i = count - 1; i >= 0; i--) {
+			int state = stateChain[i];
+			int cell = state >> 2;
+			int side = state & 3;
+			int parent = i < count - 1 ? stateChain[i + 1] : -1;
+			if (parent != -1 && parent >> 2 != cell) {
+				// a push
+				addToPath((side + 2) & 3);
+				karaCell = parent >> 2;
+			} else {
+				// a walk to the side of the mushroom
+				int sideCell = neighbour(cell, side);
+				walk(karaCell, sideCell, cell);
+				appendWalk(karaCell, sideCell);
+				karaCell = sideCell;
+			}
+		}
+		return pathLength;
+	}
+
+	/**
+	 * Returns the direction of the move at the index of the last found path.
+	 */
+	public int getDirection(int index) {
+		return path[index];
+	}
+
+	/**
+	 * Returns the number of moves of the last found path.
+	 */
+	public int getPathLength() {
+		return pathLength;
+	}
+
+	/**
+	 * Breadth first search from start with an additional obstacle. Stops when
+	 * the target is reached (if target is not -1).
+	 *
+	 * @return true if the target was reached.
+	 */
+	private boolean walk(int start, int target, int obstacle) {
+		Arrays.fill(walkDistance, -1);
+		if (obstacle != -1 && (start == obstacle || target == obstacle)) {
+			return false;
+		}
+		if (target != -1 && blocked[target]) {
+			return false;
+		}
+		int count = 0;
+		queue[count++] = start;
+		walkDistance[start] = 0;
+		for (int i = 0; i < count; i++) {
+			int cell = queue[i];
+			if (cell == target) {
+				return true;
+			}
+			for (int d = 0; d < 4; d++) {
+				int next = neighbour(cell, d);
+				if (!blocked[next] && next != obstacle && walkDistance[next] == -1) {
+					walkDistance[next] = walkDistance[cell] + 1;
+					walkDirection[next] = d;
+					queue[count++] = next;
+				}
+			}
+		}
+		return target == -1;
+	}
+
+	/**
+	 * Appends the walk found by the last {@link #walk(int, int, int)} from
+	 * start to target to the path.
+	 */
+	private void appendWalk(int start, int target) {
+		int length = walkDistance[target];
+		for (int i = 0; i < length; i++) {
+			addToPath(0);
+		}
+		for (int cell = target, i = pathLength - 1; cell != start; i--) {
+			int d = walkDirection[cell];
+			path[i] = d;
+			cell = neighbour(cell, (d + 2) & 3);
+		}
+	}
+
+	private void addToPath(int direction) {
+		if (pathLength == path.length) {
+			path = Arrays.copyOf(path, path.length * 2);
+		}
+		path[pathLength++] = direction;
+	}
+
+	private void relax(int state, int distance, int parent) {
+		if (stateDistance[state] == -1 || distance < stateDistance[state]) {
+			stateDistance[state] = distance;
+			stateParent[state] = parent;
+			push(((long) distance << 32) | state);
+		}
+	}
+
+	private void push(long entry) {
+		if (heapSize == heap.length) {
+			heap = Arrays.copyOf(heap, heap.length * 2);
+		}
+		int i = heapSize++;
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (heap[parent] <= entry) {
+				break;
+			}
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = entry;
+	}
+
+	private long pop() {
+		long result = heap[0];
+		long last = heap[--heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+				child++;
+			}
+			if (last <= heap[child]) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		if (heapSize > 0) {
+			heap[i] = last;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the neighbour cell in the direction, continues on the other
+	 * side at the border.
+	 */
+	private int neighbour(int cell, int direction) {
+		int x = cell % width;
+		int y = cell / width;
+		switch (direction) {
+		case MoveLog.UP:
+			return ((y + height - 1) % height) * width + x;
+		case MoveLog.RIGHT:
+			return y * width + (x + 1) % width;
+		case MoveLog.DOWN:
+			return ((y + 1) % height) * width + x;
+		default:
+			return y * width + (x + width - 1) % width;
+		}
+	}
+}
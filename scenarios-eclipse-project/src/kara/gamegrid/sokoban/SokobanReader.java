@@ -0,0 +1,395 @@
+package kara.gamegrid.sokoban;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import kara.gamegrid.WorldSetup;
+
+/**
+ * The SokobanReader reads levels in the common Sokoban formats used by most
+ * public level collections:
+ * <ul>
+ * <li>XSB: the board is drawn with the same signs as in {@link WorldSetup}.
+ * Floor may also be written as '-' or '_'.
+ * <li>RLE: rows can be run-length compressed, e.g. "3#2 $" for "###  $" and
+ * multiple rows can be written on one line separated by '|'.
+ * <li>SOK: collections of many levels. Each level may have a title line before
+ * the board and metadata like "Title: ..." or "Author: ..." after the board.
+ * A "Comment:" line with text is a one line comment. If nothing follows
+ * "Comment:", all lines until "Comment-End:", a blank line or a board are
+ * ignored.
+ * </ul>
+ * The signs p, P, b and B may be used for the player, player on goal, box and
+ * box on goal.
+ * <p>
+ * The levels are read one after the other with {@link #readLevel()}, so even
+ * large collections don't have to be read into memory at once. Each level gets
+ * a password that is created from its content.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class SokobanReader implements Closeable {
+	/**
+	 * The attribute key for the title of the level in the collection.
+	 */
+	public static final String TITLE_KEY = "Title:";
+
+	private static final String COMMENT_KEY = "comment:";
+	private static final String COMMENT_END_KEY = "comment-end:";
+
+	/**
+	 * Lines that only contain board signs, run-length counts and row
+	 * separators.
+	 */
+	private static final Pattern BOARD_LINE_PATTERN = Pattern.compile("[#@+$*.\\-_ pPbB0-9|]*#[#@+$*.\\-_ pPbB0-9|]*");
+
+	/**
+	 * Metadata lines like "Author: Someone". Only the known keys are
+	 * metadata, so titles like "Level 1: The Start" are not.
+	 */
+	private static final Pattern METADATA_PATTERN = Pattern.compile(
+			"(?i)(Title|Author|Collection|Comment|Comment-End|Copyright|Date|Date Created"
+					+ "|Date of Last Change|Difficulty|Email|Homepage|Url|Source)\\s*:.*");
+
+	private final BufferedReader reader;
+	private final int width;
+	private final int height;
+	private final int boardHeight;
+
+	/**
+	 * A line that was read too far and must be returned again by
+	 * {@link #nextLine()}.
+	 */
+	private String pushedBackLine;
+
+	private int levelNumber = 0;
+	private int skippedLevels = 0;
+	private final Set<String> passwords = new HashSet<String>();
+
+	/**
+	 * Creates a reader for the levels.
+	 *
+	 * @param in
+	 *            where to read from
+	 * @param width
+	 *            the width of the levels. Levels that are wider are skipped.
+	 * @param height
+	 *            the height of the levels. Levels that are higher are skipped.
+	 */
+	public SokobanReader(Reader in, int width, int height) {
+		this(in, width, height, height);
+	}
+
+	/**
+	 * Creates a reader for the levels whose boards may be lower than the
+	 * levels, e.g. to keep the last row free for an info bar.
+	 *
+	 * @param in
+	 *            where to read from
+	 * @param width
+	 *            the width of the levels. Levels that are wider are skipped.
+	 * @param height
+	 *            the height of the levels
+	 * @param boardHeight
+	 *            the maximal number of rows of a board. Levels that are
+	 *            higher are skipped.
+	 */
+	public SokobanReader(Reader in, int width, int height, int boardHeight) {
+		this.reader = new BufferedReader(in);
+		this.width = width;
+		this.height = height;
+		this.boardHeight = Math.min(boardHeight, height);
+	}
+
+	/**
+	 * Reads all the levels from the stream and closes it.
+	 *
+	 * @param stream
+	 *            the stream to read from
+	 * @param width
+	 *            the width of the levels. Levels that are wider are skipped.
+	 * @param height
+	 *            the height of the levels. Levels that are higher are skipped.
+	 * @return the levels
+	 * @throws IOException
+	 *             if an I/O error occurs reading from the stream.
+	 */
+	public static Level[] readAll(InputStream stream, int width, int height)
+			throws IOException {
+		return readAll(stream, width, height, height);
+	}
+
+	/**
+	 * Reads all the levels from the stream and closes it. The boards may be
+	 * lower than the levels, e.g. to keep the last row free for an info bar.
+	 *
+	 * @param stream
+	 *            the stream to read from
+	 * @param width
+	 *            the width of the levels. Levels that are wider are skipped.
+	 * @param height
+	 *            the height of the levels
+	 * @param boardHeight
+	 *            the maximal number of rows of a board. Levels that are
+	 *            higher are skipped.
+	 * @return the levels
+	 * @throws IOException
+	 *             if an I/O error occurs reading from the stream.
+	 */
+	public static Level[] readAll(InputStream stream, int width, int height,
+			int boardHeight) throws IOException {
+		SokobanReader reader = new SokobanReader(new InputStreamReader(stream),
+				width, height, boardHeight);
+		try {
+			List<Level> levels = new ArrayList<Level>();
+			for (Level level = reader.readLevel(); level != null; level = reader.readLevel()) {
+				levels.add(level);
+			}
+			if (reader.getNumberOfSkippedLevels() > 0) {
+				System.out.println(reader.getNumberOfSkippedLevels()
+						+ " levels were skipped because they are bigger than "
+						+ width + "x" + reader.boardHeight + ".");
+			}
+			return levels.toArray(new Level[levels.size()]);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads the next level.
+	 *
+	 * @return the level or <code>null</code> if there are no more levels.
+	 * @throws IOException
+	 *             if an I/O error occurs reading from the stream.
+	 */
+	public Level readLevel() throws IOException {
+		while (true) {
+			List<String> rows = new ArrayList<String>();
+			String title = null;
+			String line;
+
+			// skip to the next board, the last text line before the board
+			// is the title
+			while ((line = nextLine()) != null) {
+				if (isBoardLine(line)) {
+					decodeRows(line, rows);
+					break;
+				}
+				title = parseTitle(line, title);
+			}
+			if (rows.isEmpty()) {
+				return null;
+			}
+
+			// the rest of the board
+			while ((line = nextLine()) != null) {
+				if (isBoardLine(line)) {
+					decodeRows(line, rows);
+				} else {
+					pushedBackLine = line;
+					break;
+				}
+			}
+
+			// metadata after the board
+			while ((line = nextLine()) != null) {
+				String trimmed = line.trim();
+				if (trimmed.length() == 0 || !METADATA_PATTERN.matcher(trimmed).matches()) {
+					// may be the title of the next level
+					pushedBackLine = line;
+					break;
+				}
+				if (isCommentBlockStart(trimmed)) {
+					skipComment();
+				} else if (trimmed.startsWith(TITLE_KEY)) {
+					title = trimmed.substring(TITLE_KEY.length()).trim();
+				}
+			}
+
+			Level level = createLevel(rows, title);
+			if (level != null) {
+				return level;
+			}
+			skippedLevels++;
+		}
+	}
+
+	/**
+	 * Returns the number of levels that were skipped because they don't fit
+	 * into the width and height.
+	 */
+	public int getNumberOfSkippedLevels() {
+		return skippedLevels;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * Returns the next line or <code>null</code> at the end of the stream.
+	 */
+	private String nextLine() throws IOException {
+		if (pushedBackLine != null) {
+			String line = pushedBackLine;
+			pushedBackLine = null;
+			return line;
+		}
+		return reader.readLine();
+	}
+
+	/**
+	 * Returns true if the (trimmed) line starts a comment block, i.e. nothing
+	 * follows "Comment:".
+	 */
+	private static boolean isCommentBlockStart(String trimmed) {
+		return trimmed.toLowerCase().startsWith(COMMENT_KEY)
+				&& trimmed.substring(COMMENT_KEY.length()).trim().length() == 0;
+	}
+
+	/**
+	 * Skips all lines until "Comment-End:" or a blank line. A board line ends
+	 * the comment, too, and is read again by {@link #nextLine()}.
+	 */
+	private void skipComment() throws IOException {
+		String line;
+		while ((line = nextLine()) != null) {
+			String trimmed = line.trim();
+			if (trimmed.length() == 0
+					|| trimmed.toLowerCase().startsWith(COMMENT_END_KEY)) {
+				return;
+			}
+			if (isBoardLine(line)) {
+				pushedBackLine = line;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the title if the line (found before a board) contains one,
+	 * otherwise the previous title.
+	 */
+	private String parseTitle(String line, String previousTitle)
+			throws IOException {
+		String trimmed = line.trim();
+		if (trimmed.startsWith(";")) {
+			trimmed = trimmed.substring(1).trim();
+		}
+		if (trimmed.length() == 0) {
+			return previousTitle;
+		}
+		if (trimmed.startsWith(TITLE_KEY)) {
+			return trimmed.substring(TITLE_KEY.length()).trim();
+		}
+		if (METADATA_PATTERN.matcher(trimmed).matches()) {
+			if (isCommentBlockStart(trimmed)) {
+				skipComment();
+			}
+			return previousTitle;
+		}
+		return trimmed;
+	}
+
+	/**
+	 * Returns true if the line is (a part of) a board.
+	 */
+	private static boolean isBoardLine(String line) {
+		return BOARD_LINE_PATTERN.matcher(line).matches();
+	}
+
+	/**
+	 * Decodes the line into one or more rows and adds them to the list.
+	 */
+	private static void decodeRows(String line, List<String> rows) {
+		StringBuilder row = new StringBuilder(line.length());
+		int count = 0;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c >= '0' && c <= '9') {
+				count = count * 10 + (c - '0');
+			} else if (c == '|') {
+				rows.add(row.toString());
+				row.setLength(0);
+				count = 0;
+			} else {
+				char actorType = toActorType(c);
+				for (int j = Math.max(count, 1); j > 0; j--) {
+					row.append(actorType);
+				}
+				count = 0;
+			}
+		}
+		rows.add(row.toString());
+	}
+
+	/**
+	 * Converts a sign of the Sokoban formats to an actor sign of the
+	 * {@link WorldSetup}.
+	 */
+	private static char toActorType(char c) {
+		switch (c) {
+		case '-':
+		case '_':
+			return WorldSetup.EMPTY;
+		case 'p':
+			return WorldSetup.KARA;
+		case 'P':
+			return WorldSetup.KARA_LEAF;
+		case 'b':
+			return WorldSetup.MUSHROOM;
+		case 'B':
+			return WorldSetup.MUSHROOM_LEAF;
+		default:
+			return c;
+		}
+	}
+
+	/**
+	 * Creates the level from the rows or returns <code>null</code> if it is
+	 * too big.
+	 */
+	private Level createLevel(List<String> rows, String title) {
+		// remove empty rows at the end, e.g. from a trailing '|'
+		while (!rows.isEmpty() && rows.get(rows.size() - 1).trim().length() == 0) {
+			rows.remove(rows.size() - 1);
+		}
+		int boardWidth = 0;
+		for (String row : rows) {
+			boardWidth = Math.max(boardWidth, row.length());
+		}
+		if (boardWidth > width || rows.size() > boardHeight) {
+			return null;
+		}
+
+		levelNumber++;
+		WorldSetup.Builder builder = new WorldSetup.Builder(Level.TITLE_KEY)
+				.setTitle(Integer.toString(levelNumber)).setWidth(width)
+				.setHeight(height);
+		for (String row : rows) {
+			builder.addActorLine(row);
+		}
+		WorldSetup board = builder.build();
+
+		// the password must be unique inside the collection
+		String password = Level.createUniquePassword(board.getContentHash(),
+				levelNumber, passwords);
+
+		builder = new WorldSetup.Builder(board).addAttribute(Level.PASSWORD_KEY, password);
+		if (title != null) {
+			builder.addAttribute(TITLE_KEY, title);
+		}
+		return new Level(builder.build(), levelNumber);
+	}
+}
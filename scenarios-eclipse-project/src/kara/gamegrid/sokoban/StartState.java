@@ -138,17 +138,11 @@ public class StartState extends ScreenState {
 	 * match is found, the according level number is saved.
 	 */
 	private void checkPassword(String password) {
-		passwordLevelNumber = -1;
-		for (Level l : gameScreen.getAllLevels()) {
-			if (l.getLevelPassword().equals(password)) {
-				passwordOkLabel.setIcon(WorldImages.ICON_OK);
-				passwordOkLabel.setText("Level " + l.getLevelNumber());
-				passwordLevelNumber = l.getLevelNumber();
-				break;
-			}
-		}
-
-		if (passwordLevelNumber == -1) {
+		passwordLevelNumber = gameScreen.getLevelNumber(password);
+		if (passwordLevelNumber != -1) {
+			passwordOkLabel.setIcon(WorldImages.ICON_OK);
+			passwordOkLabel.setText("Level " + passwordLevelNumber);
+		} else {
 			passwordOkLabel.setIcon(WorldImages.ICON_LOCKED);
 			passwordOkLabel.setText("");
 		}
@@ -0,0 +1,216 @@
+package kara.gamegrid.sokoban;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The WriteBehindHighscoreManager is put in front of another
+ * HighscoreManager, so that setting a highscore never waits for a file or
+ * the network.
+ * <p>
+ * A new highscore is kept in memory and returned at once by
+ * {@link #getHighscoreForLevel(int)}. A background thread stores it with the
+ * other manager later. If a level gets several new highscores before they are
+ * stored, only the last one is stored. {@link #flush()} stores everything at
+ * once and is also called when the program ends.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class WriteBehindHighscoreManager extends HighscoreManager {
+	/**
+	 * The time in ms to wait before a failed store is tried again. It is
+	 * doubled after every failure up to the maximum.
+	 */
+	private static final long MIN_RETRY_DELAY = 1000;
+	private static final long MAX_RETRY_DELAY = 60000;
+
+	private final HighscoreManager delegate;
+
+	/**
+	 * The highscores that are not stored yet, by level number. Guarded by
+	 * the lock.
+	 */
+	private final Map<Integer, Highscore> pending = new LinkedHashMap<Integer, Highscore>();
+	private final Object lock = new Object();
+
+	/**
+	 * Only one thread stores highscores at a time.
+	 */
+	private final Object writeLock = new Object();
+	private Thread writer;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param delegate
+	 *            the manager that stores the highscores
+	 */
+	public WriteBehindHighscoreManager(HighscoreManager delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Initially loads the highscore and starts the background thread.
+	 */
+	public void initHighscores() {
+		delegate.initHighscores();
+
+		if (writer == null) {
+			writer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					writeHighscores();
+				}
+			}, "Highscore Writer");
+			writer.setDaemon(true);
+			writer.start();
+
+			// store the last highscores when the program ends
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					flush();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns it the manager is read only.
+	 */
+	public boolean isReadOnly() {
+		return delegate.isReadOnly();
+	}
+
+	/**
+	 * Returns true if the name of the current player can be set.
+	 */
+	public boolean canSetPlayerName() {
+		return delegate.canSetPlayerName();
+	}
+
+	/**
+	 * Returns the name of the current player.
+	 */
+	public String getCurrentPlayerName() {
+		return delegate.getCurrentPlayerName();
+	}
+
+	/**
+	 * Set the name of the current player.
+	 */
+	public void setCurrentPlayerName(String currentPlayerName) {
+		delegate.setCurrentPlayerName(currentPlayerName);
+	}
+
+	/**
+	 * Returns the maximal number of entries of a new Highscore.
+	 */
+	public int getHighscoreSize() {
+		return delegate.getHighscoreSize();
+	}
+
+	/**
+	 * Sets the maximal number of entries of a new Highscore.
+	 */
+	public void setHighscoreSize(int highscoreSize) {
+		delegate.setHighscoreSize(highscoreSize);
+	}
+
+	/**
+	 * Returns the Highscore for the specified level, including highscores
+	 * that are not stored yet. The returned Highscore is a clone.
+	 */
+	public Highscore getHighscoreForLevel(int levelNumber) {
+		synchronized (lock) {
+			Highscore highscore = pending.get(levelNumber);
+			if (highscore != null) {
+				return highscore.clone();
+			}
+		}
+		return delegate.getHighscoreForLevel(levelNumber);
+	}
+
+	/**
+	 * Sets the specified Highscore. It is stored by the background thread.
+	 */
+	public void setHighscore(Highscore highscore) {
+		synchronized (lock) {
+			// replaces a highscore of the same level that is not stored yet
+			pending.remove(highscore.getLevelNumber());
+			pending.put(highscore.getLevelNumber(), highscore.clone());
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Stores all the highscores that were set and waits until they are
+	 * stored.
+	 */
+	public void flush() {
+		synchronized (writeLock) {
+			List<Highscore> highscores;
+			synchronized (lock) {
+				highscores = new ArrayList<Highscore>(pending.values());
+			}
+			for (Highscore highscore : highscores) {
+				delegate.setHighscore(highscore);
+				synchronized (lock) {
+					// keep it if a newer one was set in the meantime
+					if (pending.get(highscore.getLevelNumber()) == highscore) {
+						pending.remove(highscore.getLevelNumber());
+					}
+				}
+			}
+			delegate.flush();
+		}
+	}
+
+	/**
+	 * The loop of the background thread: stores the highscores as soon as
+	 * they are set. If they can't be stored, it waits longer after every
+	 * failure before it tries again.
+	 */
+	private void writeHighscores() {
+		long retryDelay = MIN_RETRY_DELAY;
+		while (true) {
+			synchronized (lock) {
+				while (pending.isEmpty()) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+			try {
+				flush();
+				retryDelay = MIN_RETRY_DELAY;
+			} catch (RuntimeException e) {
+				System.out.println("ERROR: Could not save highscore, trying again in "
+						+ retryDelay / 1000 + " s");
+				e.printStackTrace();
+				try {
+					waitBeforeRetry(retryDelay);
+				} catch (InterruptedException ie) {
+					return;
+				}
+				retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+			}
+		}
+	}
+
+	/**
+	 * Waits the time in ms. New highscores don't end the wait early.
+	 */
+	private void waitBeforeRetry(long delay) throws InterruptedException {
+		long end = System.currentTimeMillis() + delay;
+		synchronized (lock) {
+			for (long left = delay; left > 0; left = end - System.currentTimeMillis()) {
+				lock.wait(left);
+			}
+		}
+	}
+}
@@ -0,0 +1,386 @@
+package kara.gamegrid.sokoban.solver;
+
+import java.util.Arrays;
+
+import kara.gamegrid.WorldSetup;
+import kara.gamegrid.sokoban.DeadlockTable;
+import kara.gamegrid.sokoban.Level;
+
+/**
+ * The Board is the static part of a Sokoban level for the {@link Solver}: the
+ * walls (trees), goals (leaves) and the start positions of Kara and the
+ * mushrooms (boxes).
+ * <p>
+ * Only the cells Kara can reach from her start position are used. They are
+ * numbered from 0 to {@link #getNumberOfCells()} - 1 so that the solver can
+ * work with small int arrays. Like in the Kara world, moving over the border
+ * of the world continues on the other side.
+ * <p>
+ * The Board also knows the push distance from every cell to every goal (the
+ * number of pushes needed if there are no other mushrooms). The dead squares
+ * and freeze deadlocks are taken from the {@link DeadlockTable} of the level.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class Board {
+	public static final int UP = 0;
+	public static final int RIGHT = 1;
+	public static final int DOWN = 2;
+	public static final int LEFT = 3;
+
+	/**
+	 * Moves in LURD notation, the lower case letters are walks and the upper
+	 * case letters are pushes.
+	 */
+	static final char[] MOVE_CHARS = { 'u', 'r', 'd', 'l' };
+	static final char[] PUSH_CHARS = { 'U', 'R', 'D', 'L' };
+
+	/**
+	 * Distance for cells where a mushroom can't be pushed to the goal.
+	 */
+	public static final int INFINITE = Integer.MAX_VALUE / 4;
+
+	private final int width;
+	private final int height;
+
+	/**
+	 * The world position (y * width + x) for every cell.
+	 */
+	private final int[] positions;
+
+	/**
+	 * The cell for every world position or -1 if Kara can't reach it.
+	 */
+	private final int[] cellAt;
+
+	/**
+	 * The neighbour in each direction for every cell or -1 if it is a wall.
+	 */
+	private final int[][] neighbours;
+
+	private final boolean[] goal;
+	private final int[] goals;
+	private final int[] startBoxes;
+	private final int startPlayer;
+
+	/**
+	 * The push distance from every cell to every goal.
+	 */
+	private final int[][] pushDistances;
+	private final boolean[] deadSquare;
+	private final boolean unreachableBox;
+	private final DeadlockTable deadlockTable;
+
+	/**
+	 * Creates the board from the world setup. If the world setup is a
+	 * {@link Level}, the deadlock table of the level is used.
+	 *
+	 * @param worldSetup
+	 *            a world setup with exactly one Kara.
+	 * @throws IllegalArgumentException
+	 *             if there is no Kara.
+	 */
+	public Board(WorldSetup worldSetup) {
+		this(worldSetup, worldSetup instanceof Level
+				? ((Level) worldSetup).getDeadlockTable()
+				: new DeadlockTable(worldSetup));
+	}
+
+	/**
+	 * Creates the board from the world setup.
+	 *
+	 * @param worldSetup
+	 *            a world setup with exactly one Kara.
+	 * @param deadlockTable
+	 *            the deadlock table for the world setup
+	 * @throws IllegalArgumentException
+	 *             if there is no Kara.
+	 */
+	public Board(WorldSetup worldSetup, DeadlockTable deadlockTable) {
+		this.deadlockTable = deadlockTable;
+		width = worldSetup.getWidth();
+		height = worldSetup.getHeight();
+		int worldSize = width * height;
+
+		int player = -1;
+		boolean[] wall = new boolean[worldSize];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				char c = worldSetup.getActorTypeAt(x, y);
+				if (c == WorldSetup.TREE) {
+					wall[y * width + x] = true;
+				} else if (c == WorldSetup.KARA || c == WorldSetup.KARA_LEAF) {
+					player = y * width + x;
+				}
+			}
+		}
+		if (player == -1) {
+			throw new IllegalArgumentException("There is no Kara in the level "
+					+ worldSetup.getTitle());
+		}
+
+		// number the cells Kara can reach (ignoring the mushrooms)
+		cellAt = new int[worldSize];
+		Arrays.fill(cellAt, -1);
+		int[] queue = new int[worldSize];
+		int count = 0;
+		queue[count++] = player;
+		cellAt[player] = 0;
+		for (int i = 0; i < count; i++) {
+			for (int d = 0; d < 4; d++) {
+				int next = worldNeighbour(queue[i], d);
+				if (!wall[next] && cellAt[next] == -1) {
+					cellAt[next] = count;
+					queue[count++] = next;
+				}
+			}
+		}
+
+		positions = Arrays.copyOf(queue, count);
+		neighbours = new int[4][count];
+		goal = new boolean[count];
+		int goalCount = 0;
+		int boxCount = 0;
+		int[] boxes = new int[count];
+		for (int cell = 0; cell < count; cell++) {
+			for (int d = 0; d < 4; d++) {
+				neighbours[d][cell] = cellAt[worldNeighbour(positions[cell], d)];
+			}
+			char c = worldSetup.getActorTypeAt(getX(cell), getY(cell));
+			if (c == WorldSetup.LEAF || c == WorldSetup.MUSHROOM_LEAF
+					|| c == WorldSetup.KARA_LEAF) {
+				goal[cell] = true;
+				goalCount++;
+			}
+			if (c == WorldSetup.MUSHROOM || c == WorldSetup.MUSHROOM_LEAF) {
+				boxes[boxCount++] = cell;
+			}
+		}
+		startBoxes = Arrays.copyOf(boxes, boxCount);
+		startPlayer = 0;
+
+		// a mushroom that Kara can't reach must already be on a leaf
+		boolean stuck = false;
+		for (int position = 0; position < worldSize; position++) {
+			char c = worldSetup.getActorTypeAt(position % width, position / width);
+			if (c == WorldSetup.MUSHROOM && cellAt[position] == -1) {
+				stuck = true;
+			}
+		}
+		unreachableBox = stuck;
+
+		goals = new int[goalCount];
+		for (int cell = 0, i = 0; cell < count; cell++) {
+			if (goal[cell]) {
+				goals[i++] = cell;
+			}
+		}
+
+		pushDistances = new int[goalCount][];
+		for (int i = 0; i < goalCount; i++) {
+			pushDistances[i] = computePushDistances(goals[i]);
+		}
+		deadSquare = new boolean[count];
+		for (int cell = 0; cell < count; cell++) {
+			deadSquare[cell] = deadlockTable.isDeadSquare(positions[cell]);
+		}
+	}
+
+	/**
+	 * Computes the number of pushes needed to push a mushroom from every cell
+	 * to the goal by pulling it backwards from the goal.
+	 */
+	private int[] computePushDistances(int goalCell) {
+		int[] distances = new int[positions.length];
+		Arrays.fill(distances, INFINITE);
+		int[] queue = new int[positions.length];
+		int count = 0;
+		queue[count++] = goalCell;
+		distances[goalCell] = 0;
+		for (int i = 0; i < count; i++) {
+			int cell = queue[i];
+			for (int d = 0; d < 4; d++) {
+				// the mushroom came from 'from' and Kara stood at 'behind'
+				int from = neighbours[opposite(d)][cell];
+				if (from == -1) {
+					continue;
+				}
+				int behind = neighbours[opposite(d)][from];
+				if (behind != -1 && distances[from] == INFINITE) {
+					distances[from] = distances[cell] + 1;
+					queue[count++] = from;
+				}
+			}
+		}
+		return distances;
+	}
+
+	/**
+	 * Returns the world position in the direction (wraps around the border).
+	 */
+	private int worldNeighbour(int position, int direction) {
+		int x = position % width;
+		int y = position / width;
+		switch (direction) {
+		case UP:
+			y = (y + height - 1) % height;
+			break;
+		case RIGHT:
+			x = (x + 1) % width;
+			break;
+		case DOWN:
+			y = (y + 1) % height;
+			break;
+		default:
+			x = (x + width - 1) % width;
+			break;
+		}
+		return y * width + x;
+	}
+
+	/**
+	 * Returns the opposite direction.
+	 */
+	public static int opposite(int direction) {
+		return (direction + 2) & 3;
+	}
+
+	/**
+	 * Returns the number of cells Kara can reach.
+	 */
+	public int getNumberOfCells() {
+		return positions.length;
+	}
+
+	/**
+	 * Returns the width of the world.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the world.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the world position (y * width + x) of the cell.
+	 */
+	public int getPosition(int cell) {
+		return positions[cell];
+	}
+
+	/**
+	 * Returns the deadlock table.
+	 */
+	public DeadlockTable getDeadlockTable() {
+		return deadlockTable;
+	}
+
+	/**
+	 * Returns the x-position of the cell in the world.
+	 */
+	public int getX(int cell) {
+		return positions[cell] % width;
+	}
+
+	/**
+	 * Returns the y-position of the cell in the world.
+	 */
+	public int getY(int cell) {
+		return positions[cell] / width;
+	}
+
+	/**
+	 * Returns the cell at the position or -1 if Kara can't reach it.
+	 */
+	public int getCell(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			return -1;
+		}
+		return cellAt[y * width + x];
+	}
+
+	/**
+	 * Returns the neighbour of the cell in the direction or -1 if there is a
+	 * wall.
+	 */
+	public int getNeighbour(int cell, int direction) {
+		return neighbours[direction][cell];
+	}
+
+	/**
+	 * Returns the neighbour table for the direction (must not be changed).
+	 */
+	int[] getNeighbours(int direction) {
+		return neighbours[direction];
+	}
+
+	/**
+	 * Returns true if the cell is a goal (a leaf).
+	 */
+	public boolean isGoal(int cell) {
+		return goal[cell];
+	}
+
+	/**
+	 * Returns the goal cells.
+	 */
+	public int[] getGoals() {
+		return goals.clone();
+	}
+
+	/**
+	 * Returns the number of goals.
+	 */
+	public int getNumberOfGoals() {
+		return goals.length;
+	}
+
+	/**
+	 * Returns the start cells of the mushrooms.
+	 */
+	public int[] getStartBoxes() {
+		return startBoxes.clone();
+	}
+
+	/**
+	 * Returns the number of mushrooms.
+	 */
+	public int getNumberOfBoxes() {
+		return startBoxes.length;
+	}
+
+	/**
+	 * Returns the start cell of Kara.
+	 */
+	public int getStartPlayer() {
+		return startPlayer;
+	}
+
+	/**
+	 * Returns the number of pushes needed to push a mushroom from the cell to
+	 * the goal with the specified index or {@link #INFINITE}.
+	 */
+	public int getPushDistance(int goalIndex, int cell) {
+		return pushDistances[goalIndex][cell];
+	}
+
+	/**
+	 * Returns true if there is a mushroom outside of the cells Kara can reach
+	 * that is not on a leaf. Such a level can't be solved.
+	 */
+	public boolean hasUnreachableBox() {
+		return unreachableBox;
+	}
+
+	/**
+	 * Returns true if a mushroom on this cell can never reach a goal.
+	 */
+	public boolean isDeadSquare(int cell) {
+		return deadSquare[cell];
+	}
+}
@@ -0,0 +1,255 @@
+package kara.gamegrid.sokoban.solver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import kara.gamegrid.WorldSetup.FileUtils;
+import kara.gamegrid.sokoban.Level;
+
+/**
+ * The DifficultyEstimator gives every level a difficulty score, measured by
+ * solving it. The score grows with:
+ * <ul>
+ * <li>the number of states the solver had to look at (logarithmic)
+ * <li>the pushes and moves of the best solution
+ * <li>the average number of pushes possible in a state (branching factor)
+ * <li>the part of the cells where a mushroom can never reach a leaf
+ * </ul>
+ * Levels the solver could not solve in its limits get the highest scores.
+ * <p>
+ * Solving takes time, so the scores of a level file are saved in a cache file
+ * next to it (see {@link #getCacheFile(File)}). The scores are stored by the
+ * content hash of the level (see {@link Level#getContentHash()}), so a score
+ * stays valid if levels are moved in the file, and a changed level gets a new
+ * score.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class DifficultyEstimator {
+	/**
+	 * The cache file has the name of the level file with this ending.
+	 */
+	public static final String CACHE_SUFFIX = ".difficulty";
+
+	/**
+	 * Added to the score of a level that could not be solved.
+	 */
+	private static final double UNSOLVED_PENALTY = 10;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int nodeLimit = Solver.DEFAULT_NODE_LIMIT;
+	private long timeLimit = Solver.DEFAULT_TIME_LIMIT;
+
+	private final ThreadLocal<StateTable> tables = new ThreadLocal<StateTable>();
+
+	/**
+	 * Sets the number of threads. Default is the number of processors.
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Sets the maximal number of states per level. Default is
+	 * {@link Solver#DEFAULT_NODE_LIMIT}.
+	 */
+	public void setNodeLimit(int nodeLimit) {
+		this.nodeLimit = nodeLimit;
+	}
+
+	/**
+	 * Sets the maximal time per level in milliseconds. Default is
+	 * {@link Solver#DEFAULT_TIME_LIMIT}.
+	 */
+	public void setTimeLimit(long timeLimit) {
+		this.timeLimit = timeLimit;
+	}
+
+	/**
+	 * Solves the level and returns its difficulty score.
+	 */
+	public double estimate(Level level) {
+		Solver solver = new Solver(level);
+		solver.setNodeLimit(nodeLimit);
+		solver.setTimeLimit(timeLimit);
+		solver.setStateTable(tables.get());
+		SolverResult result = solver.solve();
+		tables.set(solver.getStateTable());
+		return getScore(result, solver.getBoard());
+	}
+
+	/**
+	 * Computes the scores of all the levels that have no score yet in
+	 * parallel and adds them to the scores.
+	 *
+	 * @param levels
+	 *            the levels
+	 * @param scores
+	 *            the scores by content hash
+	 * @return the number of computed scores
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting for the scores
+	 */
+	public int estimateAll(Level[] levels, Map<Long, Double> scores)
+			throws InterruptedException {
+		List<Level> missing = new ArrayList<Level>();
+		for (Level level : levels) {
+			if (!scores.containsKey(level.getContentHash())) {
+				missing.add(level);
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Double>> futures = new ArrayList<Future<Double>>();
+		try {
+			for (final Level level : missing) {
+				futures.add(executor.submit(new Callable<Double>() {
+					@Override
+					public Double call() {
+						return estimate(level);
+					}
+				}));
+			}
+
+			int computed = 0;
+			for (int i = 0; i < missing.size(); i++) {
+				try {
+					scores.put(missing.get(i).getContentHash(), futures.get(i).get());
+					computed++;
+				} catch (ExecutionException e) {
+					// e.g. a level without Kara, it gets no score
+					e.printStackTrace();
+				}
+			}
+			return computed;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns the difficulty score for the result of the solver.
+	 */
+	public static double getScore(SolverResult result, Board board) {
+		int deadSquares = 0;
+		for (int cell = 0; cell < board.getNumberOfCells(); cell++) {
+			if (board.isDeadSquare(cell)) {
+				deadSquares++;
+			}
+		}
+		double deadDensity = (double) deadSquares
+				/ Math.max(1, board.getNumberOfCells());
+		double branching = (double) result.getGeneratedNodes()
+				/ Math.max(1, result.getExploredNodes());
+
+		double score = Math.log(result.getExploredNodes() + 1) / Math.log(2)
+				+ 4 * branching + 10 * deadDensity;
+		if (result.isSolved()) {
+			score += result.getPushes() / 4.0 + result.getMoves() / 40.0;
+		} else {
+			score += UNSOLVED_PENALTY;
+		}
+		return score;
+	}
+
+	/**
+	 * Returns the cache file for the level file.
+	 */
+	public static File getCacheFile(File levelFile) {
+		return new File(levelFile.getPath() + CACHE_SUFFIX);
+	}
+
+	/**
+	 * Reads the scores from the cache file.
+	 *
+	 * @return the scores by content hash, empty if there is no cache file.
+	 * @throws IOException
+	 *             if the file can't be read.
+	 */
+	public static Map<Long, Double> readCache(File cacheFile) throws IOException {
+		Map<Long, Double> scores = new LinkedHashMap<Long, Double>();
+		if (!cacheFile.exists()) {
+			return scores;
+		}
+		for (String line : FileUtils.readAllLines(cacheFile)) {
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith(";")) {
+				continue;
+			}
+			String[] parts = line.split("\\s+");
+			try {
+				scores.put(Long.parseLong(parts[0]), Double.parseDouble(parts[1]));
+			} catch (RuntimeException e) {
+				System.out.println("Ignoring invalid line in " + cacheFile + ": " + line);
+			}
+		}
+		return scores;
+	}
+
+	/**
+	 * Writes the scores to the cache file, one line with content hash and
+	 * score per level.
+	 *
+	 * @throws IOException
+	 *             if the file can't be written.
+	 */
+	public static void writeCache(File cacheFile, Map<Long, Double> scores)
+			throws IOException {
+		Writer writer = FileUtils.openWriter(cacheFile);
+		try {
+			writer.write("; Difficulty scores of the levels (content hash, score)\n");
+			for (Map.Entry<Long, Double> entry : scores.entrySet()) {
+				writer.write(entry.getKey() + " " + entry.getValue() + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Computes the missing scores of a level file and updates its cache file.
+	 * <br>
+	 * Arguments: levelFile [-threads n] [-time seconds]
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length == 0) {
+			System.out.println("Usage: DifficultyEstimator levelFile [-threads n] "
+					+ "[-time seconds]");
+			return;
+		}
+		DifficultyEstimator estimator = new DifficultyEstimator();
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("-threads") && i + 1 < args.length) {
+				estimator.setThreads(Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-time") && i + 1 < args.length) {
+				estimator.setTimeLimit(Long.parseLong(args[++i]) * 1000);
+			} else {
+				System.out.println("Unknown argument: " + args[i]);
+			}
+		}
+
+		Level[] levels = Level.parseFromFile(args[0], null);
+		File cacheFile = getCacheFile(new File(args[0]));
+		Map<Long, Double> scores = readCache(cacheFile);
+		long startTime = System.currentTimeMillis();
+		int computed = estimator.estimateAll(levels, scores);
+		writeCache(cacheFile, scores);
+		for (Level level : levels) {
+			System.out.println("Level " + level.getLevelNumber() + ": "
+					+ scores.get(level.getContentHash()));
+		}
+		System.out.println("Computed " + computed + " scores in "
+				+ (System.currentTimeMillis() - startTime) + "ms, cache: "
+				+ cacheFile);
+	}
+}
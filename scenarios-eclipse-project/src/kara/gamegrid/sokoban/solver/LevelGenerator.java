@@ -0,0 +1,553 @@
+package kara.gamegrid.sokoban.solver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import kara.gamegrid.WorldSetup;
+import kara.gamegrid.WorldSetup.FileUtils;
+import kara.gamegrid.sokoban.GameScreen;
+import kara.gamegrid.sokoban.Level;
+
+/**
+ * The LevelGenerator creates new Sokoban levels that can be played in the
+ * {@link GameScreen}.
+ * <p>
+ * A level is created backwards: the mushrooms start on the leaves and Kara
+ * pulls them away with random moves. Because every pull can be undone by a
+ * push, the level can always be solved. The {@link Solver} then checks the
+ * level and counts the pushes of the best solution, which must fit the
+ * difficulty. Otherwise the level is thrown away and a new one is tried.
+ * <p>
+ * Every level has its own random generator, seeded from the seed and the
+ * number of the level. Only the node limit decides if a level is thrown
+ * away, the time limit stops the whole run. So the same seed always creates
+ * the same levels, no matter how many threads are used or how fast the
+ * computer is.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class LevelGenerator {
+
+	/**
+	 * The difficulty of the generated levels.
+	 */
+	public enum Difficulty {
+		EASY(7, 6, 2, 0, 30, 6, 25),
+		MEDIUM(9, 8, 3, 2, 60, 15, 60),
+		HARD(12, 10, 4, 3, 120, 30, Integer.MAX_VALUE);
+
+		private final int roomWidth;
+		private final int roomHeight;
+		private final int mushrooms;
+		private final int pillars;
+		private final int pulls;
+		private final int minPushes;
+		private final int maxPushes;
+
+		private Difficulty(int roomWidth, int roomHeight, int mushrooms,
+				int pillars, int pulls, int minPushes, int maxPushes) {
+			this.roomWidth = roomWidth;
+			this.roomHeight = roomHeight;
+			this.mushrooms = mushrooms;
+			this.pillars = pillars;
+			this.pulls = pulls;
+			this.minPushes = minPushes;
+			this.maxPushes = maxPushes;
+		}
+	}
+
+	/**
+	 * The number of tries for one level before it is given up.
+	 */
+	private static final int MAX_ATTEMPTS = 1000;
+
+	/**
+	 * The number of random pulls the best one is chosen from.
+	 */
+	private static final int PULL_CHOICES = 3;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int nodeLimit = 200000;
+	private long timeLimit = 10000;
+
+	private final ThreadLocal<StateTable> tables = new ThreadLocal<StateTable>();
+
+	/**
+	 * Sets the number of threads. Default is the number of processors.
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Sets the maximal number of states for checking a level. Levels that
+	 * need more are thrown away. Default is 200000.
+	 */
+	public void setNodeLimit(int nodeLimit) {
+		this.nodeLimit = nodeLimit;
+	}
+
+	/**
+	 * Sets the maximal time in milliseconds for checking a level. If it is
+	 * reached, {@link #generate(int, Difficulty, long)} fails instead of
+	 * throwing the level away, because the levels would depend on the speed
+	 * of the computer otherwise. Default is 10 seconds.
+	 */
+	public void setTimeLimit(long timeLimit) {
+		this.timeLimit = timeLimit;
+	}
+
+	/**
+	 * Creates the levels in parallel.
+	 *
+	 * @param count
+	 *            the number of levels
+	 * @param difficulty
+	 *            the difficulty of the levels
+	 * @param seed
+	 *            the seed for the random generators
+	 * @return the levels, numbered from 1. May be less than count if some
+	 *         levels could not be created.
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting for the levels
+	 * @throws IllegalStateException
+	 *             if checking a level reached the time limit
+	 */
+	public Level[] generate(int count, final Difficulty difficulty,
+			final long seed) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<WorldSetup>> futures = new ArrayList<Future<WorldSetup>>();
+		try {
+			for (int i = 0; i < count; i++) {
+				final int index = i;
+				futures.add(executor.submit(new Callable<WorldSetup>() {
+					@Override
+					public WorldSetup call() {
+						return generate(difficulty, new Random(seed
+								* 0x9E3779B97F4A7C15L + index));
+					}
+				}));
+			}
+
+			// number the levels in the order they were submitted
+			List<Level> levels = new ArrayList<Level>();
+			Set<String> passwords = new HashSet<String>();
+			for (Future<WorldSetup> future : futures) {
+				WorldSetup board;
+				try {
+					board = future.get();
+				} catch (ExecutionException e) {
+					// a missing level would change the numbers of the others
+					throw new IllegalStateException("A level could not be created: "
+							+ e.getCause().getMessage(), e.getCause());
+				}
+				if (board != null) {
+					levels.add(createLevel(board, levels.size() + 1, passwords));
+				}
+			}
+			return levels.toArray(new Level[levels.size()]);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Creates one level (called by the threads of the pool).
+	 *
+	 * @return the level without title and password or <code>null</code> if
+	 *         no level could be created.
+	 */
+	private WorldSetup generate(Difficulty difficulty, Random random) {
+		Room room = new Room(difficulty.roomWidth + 2, difficulty.roomHeight + 2);
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			if (Thread.currentThread().isInterrupted()) {
+				return null;
+			}
+			if (!room.createFloor(random, difficulty.pillars)
+					|| !room.placeMushrooms(random, difficulty.mushrooms)
+					|| !room.pull(random, difficulty.pulls)) {
+				continue;
+			}
+			WorldSetup board = room.toWorldSetup();
+			Solver solver = new Solver(board);
+			solver.setNodeLimit(nodeLimit);
+			solver.setTimeLimit(timeLimit);
+			solver.setStateTable(tables.get());
+			SolverResult result = solver.solve();
+			tables.set(solver.getStateTable());
+			if (result.getStatus() == SolverResult.Status.LIMIT_REACHED
+					&& result.getGeneratedNodes() < nodeLimit) {
+				// the time (or the memory) ran out before the node limit
+				throw new IllegalStateException("Checking a level took more than "
+						+ timeLimit + "ms, the levels would not be reproducible");
+			}
+			if (result.isSolved() && result.getPushes() >= difficulty.minPushes
+					&& result.getPushes() <= difficulty.maxPushes) {
+				return board;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the level number and a password that is unique in the collection.
+	 */
+	private static Level createLevel(WorldSetup board, int levelNumber,
+			Set<String> passwords) {
+		String password = Level.createUniquePassword(board.getContentHash(),
+				levelNumber, passwords);
+		WorldSetup level = new WorldSetup.Builder(board)
+				.setTitle(Integer.toString(levelNumber))
+				.addAttribute(Level.PASSWORD_KEY, password).build();
+		return new Level(level, levelNumber);
+	}
+
+	/**
+	 * The room of a level while it is created. The border of the room is
+	 * always a wall, so Kara can't leave it. The arrays are reused for all the
+	 * attempts of a level.
+	 */
+	private static class Room {
+		private final int width;
+		private final int height;
+		private final int[] offsets;
+		private final boolean[] floor;
+		private final boolean[] goals;
+		private final boolean[] mushrooms;
+		private final boolean[] reachable;
+		private final int[] goalDistance;
+		private final int[] queue;
+		private final int[] candidates;
+		private int kara;
+
+		private Room(int width, int height) {
+			this.width = width;
+			this.height = height;
+			offsets = new int[] { -width, 1, width, -1 };
+			int size = width * height;
+			floor = new boolean[size];
+			goals = new boolean[size];
+			mushrooms = new boolean[size];
+			reachable = new boolean[size];
+			goalDistance = new int[size];
+			queue = new int[size];
+			candidates = new int[size * 4];
+		}
+
+		/**
+		 * Creates the floor from overlapping rectangles and puts some pillars
+		 * in it. The floor is always connected.
+		 *
+		 * @return false if the floor got too small
+		 */
+		private boolean createFloor(Random random, int pillars) {
+			int inner = (width - 2) * (height - 2);
+			int wanted = inner / 2 + random.nextInt(inner / 5 + 1);
+			Arrays.fill(floor, false);
+			Arrays.fill(mushrooms, false);
+			int count = 0;
+			for (int i = 0; i < 200 && count < wanted; i++) {
+				int w = 2 + random.nextInt(Math.min(3, width - 3));
+				int h = 2 + random.nextInt(Math.min(3, height - 3));
+				int x0 = 1 + random.nextInt(width - 1 - w);
+				int y0 = 1 + random.nextInt(height - 1 - h);
+				if (count > 0 && !touchesFloor(x0, y0, w, h)) {
+					continue;
+				}
+				for (int y = y0; y < y0 + h; y++) {
+					for (int x = x0; x < x0 + w; x++) {
+						if (!floor[y * width + x]) {
+							floor[y * width + x] = true;
+							count++;
+						}
+					}
+				}
+			}
+			for (int i = 0; i < pillars; i++) {
+				int cell = randomCell(random);
+				if (!floor[cell]) {
+					continue;
+				}
+				floor[cell] = false;
+				int neighbour = -1;
+				for (int d = 0; d < 4; d++) {
+					if (floor[cell + offsets[d]]) {
+						neighbour = cell + offsets[d];
+					}
+				}
+				if (neighbour != -1 && markReachable(neighbour) == count - 1) {
+					count--;
+				} else {
+					// the pillar would cut the room in two
+					floor[cell] = true;
+				}
+			}
+			return count >= inner / 3;
+		}
+
+		/**
+		 * Puts the goals (leaves) on random floor cells with the mushrooms on
+		 * them and Kara on another cell.
+		 */
+		private boolean placeMushrooms(Random random, int count) {
+			Arrays.fill(goals, false);
+			for (int i = 0; i < count; i++) {
+				int cell = randomFloorCell(random);
+				if (cell == -1 || goals[cell]) {
+					return false;
+				}
+				goals[cell] = true;
+				mushrooms[cell] = true;
+			}
+			kara = randomFloorCell(random);
+			return kara != -1 && !mushrooms[kara];
+		}
+
+		/**
+		 * Kara pulls the mushrooms with random moves. Of a few random pulls,
+		 * the one that takes a mushroom farthest from the leaves is made, so
+		 * the mushrooms don't just go back and forth. At the end, no mushroom
+		 * may be on a leaf and Kara is put on a random cell she can walk to.
+		 *
+		 * @return false if a mushroom is still on a leaf
+		 */
+		private boolean pull(Random random, int pulls) {
+			markGoalDistances();
+			for (int i = 0; i < pulls; i++) {
+				markReachable(kara);
+				int count = 0;
+				for (int cell = 0; cell < floor.length; cell++) {
+					if (!mushrooms[cell]) {
+						continue;
+					}
+					for (int d = 0; d < 4; d++) {
+						// Kara stands next to the mushroom and steps back
+						int karaCell = cell + offsets[d];
+						int behind = karaCell + offsets[d];
+						if (reachable[karaCell] && floor[behind] && !mushrooms[behind]) {
+							candidates[count++] = cell * 4 + d;
+						}
+					}
+				}
+				if (count == 0) {
+					break;
+				}
+				int candidate = candidates[random.nextInt(count)];
+				for (int j = 1; j < PULL_CHOICES; j++) {
+					int other = candidates[random.nextInt(count)];
+					if (getPullGain(other) > getPullGain(candidate)) {
+						candidate = other;
+					}
+				}
+				int cell = candidate >> 2;
+				int karaCell = cell + offsets[candidate & 3];
+				mushrooms[cell] = false;
+				mushrooms[karaCell] = true;
+				kara = karaCell + offsets[candidate & 3];
+			}
+
+			for (int cell = 0; cell < floor.length; cell++) {
+				if (mushrooms[cell] && goals[cell]) {
+					return false;
+				}
+			}
+
+			// every cell Kara can walk to is a valid start
+			int count = markReachable(kara);
+			kara = queue[random.nextInt(count)];
+			return true;
+		}
+
+		/**
+		 * Returns how much farther from the leaves the pull takes the mushroom.
+		 */
+		private int getPullGain(int candidate) {
+			int cell = candidate >> 2;
+			return goalDistance[cell + offsets[candidate & 3]] - goalDistance[cell];
+		}
+
+		/**
+		 * Measures the number of steps from every floor cell to the nearest
+		 * leaf (without the mushrooms).
+		 */
+		private void markGoalDistances() {
+			Arrays.fill(goalDistance, -1);
+			int count = 0;
+			for (int cell = 0; cell < floor.length; cell++) {
+				if (goals[cell]) {
+					goalDistance[cell] = 0;
+					queue[count++] = cell;
+				}
+			}
+			for (int i = 0; i < count; i++) {
+				for (int d = 0; d < 4; d++) {
+					int next = queue[i] + offsets[d];
+					if (floor[next] && goalDistance[next] == -1) {
+						goalDistance[next] = goalDistance[queue[i]] + 1;
+						queue[count++] = next;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Marks the cells Kara can walk to from the start.
+		 *
+		 * @return the number of reachable cells
+		 */
+		private int markReachable(int start) {
+			Arrays.fill(reachable, false);
+			if (!floor[start] || mushrooms[start]) {
+				return 0;
+			}
+			int count = 0;
+			queue[count++] = start;
+			reachable[start] = true;
+			for (int i = 0; i < count; i++) {
+				for (int d = 0; d < 4; d++) {
+					int next = queue[i] + offsets[d];
+					if (floor[next] && !mushrooms[next] && !reachable[next]) {
+						reachable[next] = true;
+						queue[count++] = next;
+					}
+				}
+			}
+			return count;
+		}
+
+		private boolean touchesFloor(int x0, int y0, int w, int h) {
+			for (int y = Math.max(1, y0 - 1); y < Math.min(height - 1, y0 + h + 1); y++) {
+				for (int x = Math.max(1, x0 - 1); x < Math.min(width - 1, x0 + w + 1); x++) {
+					boolean corner = (y == y0 - 1 || y == y0 + h)
+							&& (x == x0 - 1 || x == x0 + w);
+					if (!corner && floor[y * width + x]) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		private int randomCell(Random random) {
+			return (1 + random.nextInt(height - 2)) * width + 1
+					+ random.nextInt(width - 2);
+		}
+
+		private int randomFloorCell(Random random) {
+			for (int i = 0; i < 100; i++) {
+				int cell = randomCell(random);
+				if (floor[cell] && !mushrooms[cell]) {
+					return cell;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Creates the level. Only the walls next to the floor become trees.
+		 */
+		private WorldSetup toWorldSetup() {
+			WorldSetup.Builder builder = new WorldSetup.Builder(Level.TITLE_KEY)
+					.setWidth(GameScreen.WIDTH_IN_CELLS)
+					.setHeight(GameScreen.HEIGHT_IN_CELLS);
+			for (int y = 0; y < height; y++) {
+				StringBuilder line = new StringBuilder(width);
+				for (int x = 0; x < width; x++) {
+					int cell = y * width + x;
+					if (cell == kara) {
+						line.append(goals[cell] ? WorldSetup.KARA_LEAF : WorldSetup.KARA);
+					} else if (mushrooms[cell]) {
+						line.append(goals[cell] ? WorldSetup.MUSHROOM_LEAF : WorldSetup.MUSHROOM);
+					} else if (goals[cell]) {
+						line.append(WorldSetup.LEAF);
+					} else if (floor[cell]) {
+						line.append(WorldSetup.EMPTY);
+					} else if (isNextToFloor(x, y)) {
+						line.append(WorldSetup.TREE);
+					} else {
+						line.append(WorldSetup.EMPTY);
+					}
+				}
+				builder.addActorLine(line.toString());
+			}
+			return builder.build();
+		}
+
+		private boolean isNextToFloor(int x, int y) {
+			for (int dy = -1; dy <= 1; dy++) {
+				for (int dx = -1; dx <= 1; dx++) {
+					int nx = x + dx;
+					int ny = y + dy;
+					if (nx >= 0 && ny >= 0 && nx < width && ny < height
+							&& floor[ny * width + nx]) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Creates levels and writes them to a level file. <br>
+	 * Arguments: count [-easy | -medium | -hard] [-seed n] [-threads n]
+	 * [-out levelFile]
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length == 0) {
+			System.out.println("Usage: LevelGenerator count [-easy | -medium | -hard] "
+					+ "[-seed n] [-threads n] [-out levelFile]");
+			return;
+		}
+		LevelGenerator generator = new LevelGenerator();
+		Difficulty difficulty = Difficulty.MEDIUM;
+		long seed = System.currentTimeMillis();
+		File levelFile = null;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("-easy")) {
+				difficulty = Difficulty.EASY;
+			} else if (args[i].equals("-medium")) {
+				difficulty = Difficulty.MEDIUM;
+			} else if (args[i].equals("-hard")) {
+				difficulty = Difficulty.HARD;
+			} else if (args[i].equals("-seed") && i + 1 < args.length) {
+				seed = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-threads") && i + 1 < args.length) {
+				generator.setThreads(Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-out") && i + 1 < args.length) {
+				levelFile = new File(args[++i]);
+			} else {
+				System.err.println("Unknown argument: " + args[i]);
+			}
+		}
+
+		long startTime = System.currentTimeMillis();
+		Level[] levels = generator.generate(Integer.parseInt(args[0]),
+				difficulty, seed);
+		if (levelFile != null) {
+			Writer writer = FileUtils.openWriter(levelFile);
+			try {
+				Level.writeAll(writer, levels);
+			} finally {
+				writer.close();
+			}
+		} else {
+			Level.writeAll(System.out, levels);
+		}
+		// not to System.out, it may contain the levels
+		System.err.println("Created " + levels.length + " levels (seed " + seed
+				+ ") in " + (System.currentTimeMillis() - startTime) + "ms");
+	}
+}
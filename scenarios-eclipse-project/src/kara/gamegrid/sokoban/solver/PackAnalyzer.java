@@ -0,0 +1,474 @@
+package kara.gamegrid.sokoban.solver;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import kara.gamegrid.WorldSetup.FileUtils;
+import kara.gamegrid.sokoban.Level;
+
+/**
+ * The PackAnalyzer solves all the levels of a level pack in parallel and
+ * writes a report with one row per level (CSV or JSON). Rows are written as
+ * soon as a level is finished, so the report of a big pack can be watched
+ * while it grows.
+ * <p>
+ * The levels are solved by a fixed number of threads that take the next level
+ * from a shared queue, so a thread that finishes early just takes the next
+ * one. Levels with many mushrooms are started first. Every thread keeps its
+ * own state table for all its levels.
+ * <p>
+ * All the searches together don't use more than the memory limit: before a
+ * level is solved, memory for its node limit is reserved. If not enough memory
+ * is left, the level gets a smaller node limit or waits until another level is
+ * finished. The state table a thread keeps stays reserved until the thread
+ * drops it. The state tables are direct buffers, so the default limit is
+ * based on the direct memory of the JVM (-XX:MaxDirectMemorySize), not on the
+ * heap.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class PackAnalyzer {
+
+	/**
+	 * The format of the report.
+	 */
+	public enum Format {
+		CSV, JSON
+	}
+
+	/**
+	 * A level gets at least this many nodes (if the memory limit allows it).
+	 */
+	private static final int MIN_NODE_LIMIT = 10000;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private Solver.Mode mode = Solver.Mode.PUSHES;
+	private int nodeLimit = Solver.DEFAULT_NODE_LIMIT;
+	private long timeLimit = Solver.DEFAULT_TIME_LIMIT;
+	private long memoryLimit = getMaxDirectMemory() / 4 * 3;
+	private Format format = Format.CSV;
+
+	private final Object memoryLock = new Object();
+	private long availableMemory;
+	private int runningSearches;
+
+	private final ThreadLocal<StateTable> tables = new ThreadLocal<StateTable>();
+
+	/**
+	 * Sets the number of threads. Default is the number of processors.
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Sets what the solutions should be optimal for. Default is
+	 * {@link Solver.Mode#PUSHES}.
+	 */
+	public void setMode(Solver.Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Sets the maximal number of states per level. Default is
+	 * {@link Solver#DEFAULT_NODE_LIMIT}.
+	 */
+	public void setNodeLimit(int nodeLimit) {
+		this.nodeLimit = nodeLimit;
+	}
+
+	/**
+	 * Sets the maximal time per level in milliseconds. Default is
+	 * {@link Solver#DEFAULT_TIME_LIMIT}.
+	 */
+	public void setTimeLimit(long timeLimit) {
+		this.timeLimit = timeLimit;
+	}
+
+	/**
+	 * Sets the memory in bytes all searches together may use, including the
+	 * state tables the threads keep. Default is three quarters of the maximal
+	 * direct memory.
+	 */
+	public void setMemoryLimit(long memoryLimit) {
+		this.memoryLimit = memoryLimit;
+	}
+
+	/**
+	 * Sets the format of the report. Default is {@link Format#CSV}.
+	 */
+	public void setFormat(Format format) {
+		this.format = format;
+	}
+
+	/**
+	 * Solves all the levels and writes a row for every level to the output as
+	 * soon as the level is finished. The rows are in the order the levels are
+	 * finished.
+	 *
+	 * @param levels
+	 *            the levels to solve
+	 * @param out
+	 *            the output for the report (flushed after every row if
+	 *            possible)
+	 * @return the number of solved levels
+	 * @throws IOException
+	 *             if the report can't be written
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting for the results
+	 */
+	public int analyze(Level[] levels, Appendable out) throws IOException,
+			InterruptedException {
+		synchronized (memoryLock) {
+			availableMemory = memoryLimit;
+			runningSearches = 0;
+		}
+
+		// start with the levels with the most mushrooms, they take longest
+		Level[] sorted = levels.clone();
+		Arrays.sort(sorted, new Comparator<Level>() {
+			@Override
+			public int compare(Level a, Level b) {
+				return countMushrooms(b) - countMushrooms(a);
+			}
+		});
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CompletionService<Row> completion = new ExecutorCompletionService<Row>(executor);
+		try {
+			for (final Level level : sorted) {
+				completion.submit(new Callable<Row>() {
+					@Override
+					public Row call() {
+						return solve(level);
+					}
+				});
+			}
+
+			writeHeader(out);
+			int solved = 0;
+			for (int i = 0; i < sorted.length; i++) {
+				Row row;
+				try {
+					row = completion.take().get();
+				} catch (ExecutionException e) {
+					// solve() catches its exceptions, this should not happen
+					e.printStackTrace();
+					continue;
+				}
+				if (row.result != null && row.result.isSolved()) {
+					solved++;
+				}
+				writeRow(out, row, i == 0);
+				if (out instanceof Flushable) {
+					((Flushable) out).flush();
+				}
+			}
+			writeFooter(out);
+			return solved;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Solves a single level (called by the threads of the pool).
+	 */
+	private Row solve(Level level) {
+		Row row = new Row(level);
+		// the memory of the kept table is still reserved from the last level
+		StateTable table = tables.get();
+		long reserved = table != null ? table.getBytes() : 0;
+		boolean running = false;
+		try {
+			Solver solver = new Solver(level);
+			long bytesPerNode = Solver.getBytesPerNode(solver.getBoard());
+			reserved = reserveMemory(nodeLimit * bytesPerNode,
+					Math.min(nodeLimit, MIN_NODE_LIMIT) * bytesPerNode, reserved);
+			running = true;
+			solver.setNodeLimit((int) Math.max(1,
+					Math.min(nodeLimit, reserved / bytesPerNode)));
+			solver.setTimeLimit(timeLimit);
+			solver.setMode(mode);
+			solver.setStateTable(table);
+			row.result = solver.solve();
+			table = solver.getStateTable();
+		} catch (InterruptedException e) {
+			row.error = "Interrupted";
+		} catch (RuntimeException e) {
+			row.error = e.getMessage();
+		} finally {
+			// keep the table for the next level if it fits into the reserved
+			// memory, otherwise drop it
+			long kept = 0;
+			if (table != null && row.error == null && table.getBytes() <= reserved) {
+				kept = table.getBytes();
+				tables.set(table);
+			} else {
+				tables.remove();
+			}
+			releaseMemory(reserved - kept, running);
+		}
+		return row;
+	}
+
+	/**
+	 * Reserves up to the wanted memory. Waits until at least the minimum is
+	 * available or no other level is solved anymore.
+	 *
+	 * @param kept
+	 *            the memory the thread has already reserved for its table
+	 * @return the reserved memory including the kept memory
+	 */
+	private long reserveMemory(long wanted, long minimum, long kept)
+			throws InterruptedException {
+		synchronized (memoryLock) {
+			while (kept + availableMemory < minimum && runningSearches > 0) {
+				memoryLock.wait();
+			}
+			long reserved = Math.max(0, Math.min(wanted - kept, availableMemory));
+			availableMemory -= reserved;
+			runningSearches++;
+			return kept + reserved;
+		}
+	}
+
+	private void releaseMemory(long released, boolean running) {
+		synchronized (memoryLock) {
+			availableMemory += released;
+			if (running) {
+				runningSearches--;
+			}
+			memoryLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Returns the maximal direct memory of the JVM. It is the value of
+	 * -XX:MaxDirectMemorySize or the maximal heap size if it is not set.
+	 */
+	private static long getMaxDirectMemory() {
+		String prefix = "-XX:MaxDirectMemorySize=";
+		for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if (argument.startsWith(prefix)) {
+				try {
+					return parseSize(argument.substring(prefix.length()));
+				} catch (NumberFormatException e) {
+					break;
+				}
+			}
+		}
+		return Runtime.getRuntime().maxMemory();
+	}
+
+	/**
+	 * Parses a size like 512m or 2g.
+	 */
+	private static long parseSize(String size) {
+		long factor = 1;
+		switch (Character.toLowerCase(size.charAt(size.length() - 1))) {
+		case 'k':
+			factor = 1L << 10;
+			break;
+		case 'm':
+			factor = 1L << 20;
+			break;
+		case 'g':
+			factor = 1L << 30;
+			break;
+		}
+		if (factor > 1) {
+			size = size.substring(0, size.length() - 1);
+		}
+		return Long.parseLong(size) * factor;
+	}
+
+	private void writeHeader(Appendable out) throws IOException {
+		if (format == Format.CSV) {
+			out.append("level,title,password,mushrooms,status,pushes,moves,"
+					+ "explored,generated,timeMillis,solution\n");
+		} else {
+			out.append("[\n");
+		}
+	}
+
+	private void writeFooter(Appendable out) throws IOException {
+		if (format == Format.JSON) {
+			out.append("\n]\n");
+		}
+	}
+
+	private void writeRow(Appendable out, Row row, boolean first) throws IOException {
+		Level level = row.level;
+		SolverResult result = row.result;
+		String status = result != null ? result.getStatus().toString() : "ERROR";
+		String solution = result != null ? result.getSolution() : row.error;
+
+		if (format == Format.CSV) {
+			out.append(String.valueOf(level.getLevelNumber())).append(',');
+			appendCsv(out, level.getTitle());
+			out.append(',');
+			appendCsv(out, level.getLevelPassword());
+			out.append(',').append(String.valueOf(countMushrooms(level)));
+			out.append(',').append(status);
+			if (result != null) {
+				out.append(',').append(String.valueOf(result.getPushes()));
+				out.append(',').append(String.valueOf(result.getMoves()));
+				out.append(',').append(String.valueOf(result.getExploredNodes()));
+				out.append(',').append(String.valueOf(result.getGeneratedNodes()));
+				out.append(',').append(String.valueOf(result.getTimeMillis()));
+			} else {
+				out.append(",,,,,");
+			}
+			out.append(',');
+			appendCsv(out, solution);
+			out.append('\n');
+		} else {
+			out.append(first ? "  {" : ",\n  {");
+			out.append("\"level\": ").append(String.valueOf(level.getLevelNumber()));
+			out.append(", \"title\": ");
+			appendJson(out, level.getTitle());
+			out.append(", \"password\": ");
+			appendJson(out, level.getLevelPassword());
+			out.append(", \"mushrooms\": ").append(String.valueOf(countMushrooms(level)));
+			out.append(", \"status\": \"").append(status).append('"');
+			if (result != null) {
+				out.append(", \"pushes\": ").append(String.valueOf(result.getPushes()));
+				out.append(", \"moves\": ").append(String.valueOf(result.getMoves()));
+				out.append(", \"explored\": ").append(String.valueOf(result.getExploredNodes()));
+				out.append(", \"generated\": ").append(String.valueOf(result.getGeneratedNodes()));
+				out.append(", \"timeMillis\": ").append(String.valueOf(result.getTimeMillis()));
+				out.append(", \"solution\": ");
+			} else {
+				out.append(", \"error\": ");
+			}
+			appendJson(out, solution);
+			out.append('}');
+		}
+	}
+
+	/**
+	 * Returns the number of mushrooms of the level.
+	 */
+	private static int countMushrooms(Level level) {
+		int count = 0;
+		for (int y = 0; y < level.getHeight(); y++) {
+			for (int x = 0; x < level.getWidth(); x++) {
+				char c = level.getActorTypeAt(x, y);
+				if (c == Level.MUSHROOM || c == Level.MUSHROOM_LEAF) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	private static void appendCsv(Appendable out, String value) throws IOException {
+		if (value == null) {
+			return;
+		}
+		if (value.indexOf(',') == -1 && value.indexOf('"') == -1
+				&& value.indexOf('\n') == -1) {
+			out.append(value);
+			return;
+		}
+		out.append('"').append(value.replace("\"", "\"\"")).append('"');
+	}
+
+	private static void appendJson(Appendable out, String value) throws IOException {
+		if (value == null) {
+			out.append("null");
+			return;
+		}
+		out.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.append('\\').append(c);
+			} else if (c < ' ') {
+				String hex = Integer.toHexString(c);
+				out.append("\\u");
+				for (int j = hex.length(); j < 4; j++) {
+					out.append('0');
+				}
+				out.append(hex);
+			} else {
+				out.append(c);
+			}
+		}
+		out.append('"');
+	}
+
+	/**
+	 * The result for one level.
+	 */
+	private static class Row {
+		private final Level level;
+		private SolverResult result;
+		private String error;
+
+		private Row(Level level) {
+			this.level = level;
+		}
+	}
+
+	/**
+	 * Solves all the levels of a level file and writes the report. <br>
+	 * Arguments: levelFile [-moves] [-json] [-threads n] [-time seconds]
+	 * [-memory megabytes] [-out reportFile]
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length == 0) {
+			System.out.println("Usage: PackAnalyzer levelFile [-moves] [-json] "
+					+ "[-threads n] [-time seconds] [-memory megabytes] "
+					+ "[-out reportFile]");
+			return;
+		}
+		PackAnalyzer analyzer = new PackAnalyzer();
+		File reportFile = null;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("-moves")) {
+				analyzer.setMode(Solver.Mode.MOVES);
+			} else if (args[i].equals("-json")) {
+				analyzer.setFormat(Format.JSON);
+			} else if (args[i].equals("-threads") && i + 1 < args.length) {
+				analyzer.setThreads(Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-time") && i + 1 < args.length) {
+				analyzer.setTimeLimit(Long.parseLong(args[++i]) * 1000);
+			} else if (args[i].equals("-memory") && i + 1 < args.length) {
+				analyzer.setMemoryLimit(Long.parseLong(args[++i]) << 20);
+			} else if (args[i].equals("-out") && i + 1 < args.length) {
+				reportFile = new File(args[++i]);
+			} else {
+				System.out.println("Unknown argument: " + args[i]);
+			}
+		}
+
+		Level[] levels = Level.parseFromFile(args[0], null);
+		long startTime = System.currentTimeMillis();
+		int solved;
+		if (reportFile != null) {
+			Writer writer = FileUtils.openWriter(reportFile);
+			try {
+				solved = analyzer.analyze(levels, writer);
+			} finally {
+				writer.close();
+			}
+		} else {
+			solved = analyzer.analyze(levels, System.out);
+		}
+		System.out.println("Solved " + solved + " of " + levels.length
+				+ " levels in " + (System.currentTimeMillis() - startTime) + "ms");
+	}
+}
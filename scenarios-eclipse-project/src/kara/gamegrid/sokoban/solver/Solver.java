@@ -0,0 +1,854 @@
+package kara.gamegrid.sokoban.solver;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import kara.gamegrid.WorldSetup;
+import kara.gamegrid.sokoban.DeadlockTable;
+import kara.gamegrid.sokoban.Level;
+
+/**
+ * The Solver finds optimal solutions for Sokoban levels with an A* search.
+ * <p>
+ * In {@link Mode#PUSHES} the solution has the minimal number of pushes. Kara's
+ * position is only stored as the area she can reach, so states that only
+ * differ in where Kara stands inside the same area are the same. In
+ * {@link Mode#MOVES} the solution has the minimal number of moves (walks and
+ * pushes) and Kara's exact cell is part of the state.
+ * <p>
+ * The lower bound for the remaining pushes is a minimum-cost matching of the
+ * mushrooms to the leaves using the push distances of the {@link Board}. It is
+ * also a lower bound for the remaining moves, so the solutions are optimal in
+ * both modes.
+ * <p>
+ * Nodes are stored in primitive arrays. The states are packed into a few
+ * bytes and kept in an off-heap {@link StateTable}, so millions of states fit
+ * into memory.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class Solver {
+
+	/**
+	 * What the solution should be optimal for.
+	 */
+	public enum Mode {
+		/** Minimal number of pushes. */
+		PUSHES,
+		/** Minimal number of moves (walks and pushes). */
+		MOVES
+	}
+
+	public static final int DEFAULT_NODE_LIMIT = 2000000;
+	public static final long DEFAULT_TIME_LIMIT = 60000;
+
+	/**
+	 * Seed for the Zobrist keys, so that hashes are the same in every run.
+	 */
+	private static final long ZOBRIST_SEED = 0x4B617261L;
+
+	/**
+	 * Cost used in the matching for a mushroom that can't reach a leaf.
+	 */
+	private static final long NO_MATCH = 1L << 40;
+
+	/**
+	 * Estimate for states that can't be solved.
+	 */
+	private static final int UNSOLVABLE = Integer.MAX_VALUE;
+
+	private final Board board;
+	private final int[][] neighbours = new int[4][];
+	private final int cells;
+	private final int boxCount;
+
+	private Mode mode = Mode.PUSHES;
+	private int nodeLimit = DEFAULT_NODE_LIMIT;
+	private long timeLimit = DEFAULT_TIME_LIMIT;
+	private volatile boolean cancelled;
+
+	private final long[] boxKeys;
+	private final long[] playerKeys;
+
+	// nodes, stored in primitive arrays
+	private int nodeCount;
+	private int[] nodeBoxes;
+	private int[] nodePlayer;
+	private int[] nodeParent;
+	private int[] nodeCost;
+	private int[] nodeEstimate;
+	private int[] nodePush;
+	private long[] nodeBoxHash;
+
+	// open list as binary heap of node indices
+	private int[] heap;
+	private int heapSize;
+
+	private StateTable table;
+	private boolean keepTable;
+	private final int stateBytes;
+	private final byte[] packedState;
+
+	// work arrays for a single expansion
+	private final int[] boxStamp;
+	private final int[] visitStamp;
+	private final int[] reachStamp;
+	private int stamp;
+	private final int[] distance;
+	private final int[] queue;
+	private int reachedCount;
+	private final int[] childBoxes;
+	private final boolean[] boxPositions;
+	private final DeadlockTable deadlockTable;
+
+	// work arrays for the matching
+	private final long[] matchU;
+	private final long[] matchV;
+	private final int[] matchP;
+	private final int[] matchWay;
+	private final long[] matchMin;
+	private final boolean[] matchUsed;
+
+	/**
+	 * Creates a solver for the level.
+	 */
+	public Solver(WorldSetup level) {
+		this(new Board(level));
+	}
+
+	/**
+	 * Creates a solver for the board.
+	 */
+	public Solver(Board board) {
+		this.board = board;
+		this.cells = board.getNumberOfCells();
+		this.boxCount = board.getNumberOfBoxes();
+		for (int d = 0; d < 4; d++) {
+			neighbours[d] = board.getNeighbours(d);
+		}
+
+		Random random = new Random(ZOBRIST_SEED);
+		boxKeys = new long[cells];
+		playerKeys = new long[cells];
+		for (int i = 0; i < cells; i++) {
+			boxKeys[i] = random.nextLong();
+			playerKeys[i] = random.nextLong();
+		}
+
+		boxStamp = new int[cells];
+		visitStamp = new int[cells];
+		reachStamp = new int[cells];
+		distance = new int[cells];
+		queue = new int[cells];
+		childBoxes = new int[boxCount];
+		stateBytes = getStateBytes(cells);
+		packedState = new byte[stateBytes];
+		deadlockTable = board.getDeadlockTable();
+		boxPositions = new boolean[deadlockTable.getSize()];
+
+		int goals = board.getNumberOfGoals();
+		matchU = new long[boxCount + 1];
+		matchV = new long[goals + 1];
+		matchP = new int[goals + 1];
+		matchWay = new int[goals + 1];
+		matchMin = new long[goals + 1];
+		matchUsed = new boolean[goals + 1];
+	}
+
+	/**
+	 * Returns the board.
+	 */
+	public Board getBoard() {
+		return board;
+	}
+
+	/**
+	 * Sets what the solution should be optimal for. Default is
+	 * {@link Mode#PUSHES}.
+	 */
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Sets the maximal number of states. Default is
+	 * {@link #DEFAULT_NODE_LIMIT}.
+	 */
+	public void setNodeLimit(int nodeLimit) {
+		this.nodeLimit = nodeLimit;
+	}
+
+	/**
+	 * Sets the maximal time for a search in milliseconds. Default is
+	 * {@link #DEFAULT_TIME_LIMIT}.
+	 */
+	public void setTimeLimit(long timeLimit) {
+		this.timeLimit = timeLimit;
+	}
+
+	/**
+	 * Sets a table that is cleared and used for the search instead of
+	 * creating a new one (if the states of this level fit into it). The table
+	 * that was used is kept after the search, see {@link #getStateTable()}.
+	 * Used to keep one table per thread when many levels are solved.
+	 */
+	void setStateTable(StateTable table) {
+		this.table = table;
+		this.keepTable = true;
+	}
+
+	/**
+	 * Returns the table of the last search if it was kept, otherwise
+	 * <code>null</code>.
+	 */
+	StateTable getStateTable() {
+		return table;
+	}
+
+	/**
+	 * Returns the number of bytes of a packed state: a bit for every cell
+	 * and two bytes for Kara's cell.
+	 */
+	static int getStateBytes(int cells) {
+		return (cells + 7) / 8 + 2;
+	}
+
+	/**
+	 * Returns about how many bytes a search needs per state for the board.
+	 */
+	public static long getBytesPerNode(Board board) {
+		// node arrays and heap plus room for growing them, and the table
+		// slots (used up to three quarters, doubled when full)
+		long nodeBytes = (4L * board.getNumberOfBoxes() + 32) * 3 / 2;
+		int slotBytes = StateTable.getBytesPerSlot(getStateBytes(board.getNumberOfCells()));
+		return nodeBytes + 8L * slotBytes / 3;
+	}
+
+	/**
+	 * Cancels the search (may be called from another thread). The solver
+	 * stays cancelled, so a cancel just before {@link #solve()} is not lost.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Searches for an optimal solution.
+	 *
+	 * @return the result
+	 */
+	public SolverResult solve() {
+		long startTime = System.currentTimeMillis();
+
+		if (boxCount > board.getNumberOfGoals() || board.hasUnreachableBox()) {
+			return new SolverResult(SolverResult.Status.UNSOLVABLE, mode, null,
+					0, 0, 0);
+		}
+
+		int capacity = Math.min(nodeLimit, 1 << 14);
+		nodeBoxes = new int[capacity * boxCount];
+		nodePlayer = new int[capacity];
+		nodeParent = new int[capacity];
+		nodeCost = new int[capacity];
+		nodeEstimate = new int[capacity];
+		nodePush = new int[capacity];
+		nodeBoxHash = new long[capacity];
+		heap = new int[capacity];
+		heapSize = 0;
+		nodeCount = 0;
+		if (table != null && table.getMaxStateBytes() >= stateBytes) {
+			table.clear(stateBytes);
+		} else {
+			// let the old table be collected before the new one is allocated
+			table = null;
+			table = new StateTable(capacity * 2, stateBytes);
+		}
+
+		int explored = 0;
+		SolverResult.Status status = SolverResult.Status.UNSOLVABLE;
+		int solutionNode = -1;
+		try {
+			int[] boxes = board.getStartBoxes();
+			Arrays.sort(boxes);
+			System.arraycopy(boxes, 0, childBoxes, 0, boxCount);
+			int estimate = estimate(childBoxes);
+			if (estimate == UNSOLVABLE) {
+				return new SolverResult(SolverResult.Status.UNSOLVABLE, mode,
+						null, 0, 0, System.currentTimeMillis() - startTime);
+			}
+			long boxHash = 0;
+			for (int box : boxes) {
+				boxHash ^= boxKeys[box];
+			}
+			int player = board.getStartPlayer();
+			if (mode == Mode.PUSHES) {
+				markBoxes(childBoxes);
+				reach(player);
+				player = normalizedPlayer();
+			}
+			int root = addNode(childBoxes, player, -1, 0, estimate, 0, boxHash);
+			table.put(pack(root), hash(root), root);
+			push(root);
+
+			while (heapSize > 0) {
+				int node = pop();
+				if (table.get(pack(node), hash(node)) != node) {
+					// a better node for the same state was found later
+					continue;
+				}
+				if (isSolved(node)) {
+					status = SolverResult.Status.SOLVED;
+					solutionNode = node;
+					break;
+				}
+				if ((explored & 1023) == 0) {
+					if (cancelled) {
+						status = SolverResult.Status.CANCELLED;
+						break;
+					}
+					if (System.currentTimeMillis() - startTime > timeLimit) {
+						status = SolverResult.Status.LIMIT_REACHED;
+						break;
+					}
+				}
+				explored++;
+				if (!expand(node)) {
+					status = SolverResult.Status.LIMIT_REACHED;
+					break;
+				}
+			}
+		} catch (OutOfMemoryError e) {
+			status = SolverResult.Status.LIMIT_REACHED;
+		}
+
+		String solution = solutionNode != -1 ? createSolution(solutionNode) : null;
+		int generated = nodeCount;
+
+		// free the memory
+		nodeBoxes = null;
+		nodePlayer = null;
+		nodeParent = null;
+		nodeCost = null;
+		nodeEstimate = null;
+		nodePush = null;
+		nodeBoxHash = null;
+		heap = null;
+		if (!keepTable) {
+			table = null;
+		}
+
+		return new SolverResult(status, mode, solution, explored, generated,
+				System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * Creates all the states that can be reached with one push.
+	 *
+	 * @return false if the node limit was reached.
+	 */
+	private boolean expand(int node) {
+		int boxOffset = node * boxCount;
+		System.arraycopy(nodeBoxes, boxOffset, childBoxes, 0, boxCount);
+		markBoxes(childBoxes);
+		int boxStampValue = stamp;
+		// all the cells Kara can reach with the distance
+		int reached = reach(nodePlayer[node]);
+		for (int b = 0; b < boxCount; b++) {
+			boxPositions[board.getPosition(nodeBoxes[boxOffset + b])] = true;
+		}
+		boolean result = expandChildren(node, boxStampValue, reached);
+		for (int b = 0; b < boxCount; b++) {
+			boxPositions[board.getPosition(nodeBoxes[boxOffset + b])] = false;
+		}
+		return result;
+	}
+
+	/**
+	 * Creates the children of the node after the boxes and the reachable
+	 * cells were marked.
+	 */
+	private boolean expandChildren(int node, int boxStampValue, int reached) {
+		int boxOffset = node * boxCount;
+		int cost = nodeCost[node];
+		long boxHash = nodeBoxHash[node];
+
+		for (int b = 0; b < boxCount; b++) {
+			int box = nodeBoxes[boxOffset + b];
+			for (int d = 0; d < 4; d++) {
+				int behind = neighbours[Board.opposite(d)][box];
+				int target = neighbours[d][box];
+				if (behind == -1 || target == -1 || reachStamp[behind] != reached
+						|| boxStamp[target] == boxStampValue
+						|| board.isDeadSquare(target)) {
+					continue;
+				}
+
+				int childCost;
+				if (mode == Mode.MOVES) {
+					childCost = cost + distance[behind] + 1;
+				} else {
+					childCost = cost + 1;
+				}
+
+				if (isFreezeDeadlock(box, target)) {
+					continue;
+				}
+
+				// boxes of the child, sorted
+				System.arraycopy(nodeBoxes, boxOffset, childBoxes, 0, boxCount);
+				childBoxes[b] = target;
+				sortMovedBox(childBoxes, b);
+
+				int childPlayer = box;
+				if (mode == Mode.PUSHES) {
+					childPlayer = normalizedPlayerAfterPush(box, target, boxStampValue);
+				}
+				long childBoxHash = boxHash ^ boxKeys[box] ^ boxKeys[target];
+				long childHash = childBoxHash ^ playerKeys[childPlayer];
+
+				pack(childBoxes, 0, childPlayer);
+				int existing = table.get(packedState, childHash);
+				int estimate;
+				if (existing == -1) {
+					estimate = estimate(childBoxes);
+					if (estimate == UNSOLVABLE) {
+						continue;
+					}
+				} else if (nodeCost[existing] <= childCost) {
+					continue;
+				} else {
+					// the estimate only depends on the boxes
+					estimate = nodeEstimate[existing] - nodeCost[existing];
+				}
+				if (nodeCount >= nodeLimit) {
+					return false;
+				}
+				if (existing == -1 && table.isFull()) {
+					growTable();
+					pack(childBoxes, 0, childPlayer);
+				}
+				int child = addNode(childBoxes, childPlayer, node, childCost,
+						estimate, (box << 2) | d, childBoxHash);
+				table.put(packedState, childHash, child);
+				push(child);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if pushing the box from 'from' to 'to' causes a freeze
+	 * deadlock.
+	 */
+	private boolean isFreezeDeadlock(int from, int to) {
+		int fromPosition = board.getPosition(from);
+		int toPosition = board.getPosition(to);
+		boxPositions[fromPosition] = false;
+		boxPositions[toPosition] = true;
+		boolean deadlock = deadlockTable.isDeadlockAfterPush(toPosition, boxPositions);
+		boxPositions[toPosition] = false;
+		boxPositions[fromPosition] = true;
+		return deadlock;
+	}
+
+	/**
+	 * Marks the cells of the boxes with a new stamp.
+	 */
+	private void markBoxes(int[] boxes) {
+		stamp++;
+		for (int i = 0; i < boxCount; i++) {
+			boxStamp[boxes[i]] = stamp;
+		}
+	}
+
+	/**
+	 * Finds all the cells Kara can reach from the start cell (breadth first)
+	 * and their distances. The boxes must be marked with the current stamp
+	 * (see {@link #markBoxes(int[])}). The reached cells are marked in
+	 * reachStamp with the returned stamp and are left in the queue.
+	 *
+	 * @return the stamp of the reached cells
+	 */
+	private int reach(int start) {
+		int boxStampValue = stamp;
+		int visit = ++stamp;
+		int count = 0;
+		queue[count++] = start;
+		reachStamp[start] = visit;
+		distance[start] = 0;
+		for (int i = 0; i < count; i++) {
+			int cell = queue[i];
+			for (int d = 0; d < 4; d++) {
+				int next = neighbours[d][cell];
+				if (next == -1 || reachStamp[next] == visit
+						|| boxStamp[next] == boxStampValue) {
+					continue;
+				}
+				reachStamp[next] = visit;
+				distance[next] = distance[cell] + 1;
+				queue[count++] = next;
+			}
+		}
+		reachedCount = count;
+		return visit;
+	}
+
+	/**
+	 * Returns the smallest cell found by the last {@link #reach(int)}.
+	 */
+	private int normalizedPlayer() {
+		int min = queue[0];
+		for (int i = 1; i < reachedCount; i++) {
+			min = Math.min(min, queue[i]);
+		}
+		return min;
+	}
+
+	/**
+	 * Returns the smallest cell Kara can reach after pushing the box from
+	 * 'from' to 'to'. The boxes before the push must be marked with
+	 * boxStampValue.
+	 */
+	private int normalizedPlayerAfterPush(int from, int to, int boxStampValue) {
+		int min = from;
+		int visit = ++stamp;
+		int count = 0;
+		queue[count++] = from;
+		visitStamp[from] = visit;
+		for (int i = 0; i < count; i++) {
+			int cell = queue[i];
+			for (int d = 0; d < 4; d++) {
+				int next = neighbours[d][cell];
+				if (next == -1 || next == to || visitStamp[next] == visit
+						|| boxStamp[next] == boxStampValue) {
+					continue;
+				}
+				visitStamp[next] = visit;
+				queue[count++] = next;
+				if (next < min) {
+					min = next;
+				}
+			}
+		}
+		return min;
+	}
+
+	/**
+	 * Moves the box at the index to its sorted position.
+	 */
+	private static void sortMovedBox(int[] boxes, int index) {
+		int box = boxes[index];
+		int i = index;
+		while (i > 0 && boxes[i - 1] > box) {
+			boxes[i] = boxes[i - 1];
+			i--;
+		}
+		while (i < boxes.length - 1 && boxes[i + 1] < box) {
+			boxes[i] = boxes[i + 1];
+			i++;
+		}
+		boxes[i] = box;
+	}
+
+	/**
+	 * Returns the minimal number of pushes to bring all the boxes to goals
+	 * (a minimum-cost matching with the Hungarian method) or
+	 * {@link #UNSOLVABLE} if there is no matching.
+	 */
+	private int estimate(int[] boxes) {
+		int n = boxCount;
+		int m = board.getNumberOfGoals();
+		Arrays.fill(matchU, 0);
+		Arrays.fill(matchV, 0);
+		Arrays.fill(matchP, 0);
+		Arrays.fill(matchWay, 0);
+
+		for (int i = 1; i <= n; i++) {
+			matchP[0] = i;
+			int j0 = 0;
+			Arrays.fill(matchMin, Long.MAX_VALUE);
+			Arrays.fill(matchUsed, false);
+			do {
+				matchUsed[j0] = true;
+				int i0 = matchP[j0];
+				long delta = Long.MAX_VALUE;
+				int j1 = 0;
+				for (int j = 1; j <= m; j++) {
+					if (!matchUsed[j]) {
+						long cost = matchCost(boxes[i0 - 1], j - 1) - matchU[i0] - matchV[j];
+						if (cost < matchMin[j]) {
+							matchMin[j] = cost;
+							matchWay[j] = j0;
+						}
+						if (matchMin[j] < delta) {
+							delta = matchMin[j];
+							j1 = j;
+						}
+					}
+				}
+				for (int j = 0; j <= m; j++) {
+					if (matchUsed[j]) {
+						matchU[matchP[j]] += delta;
+						matchV[j] -= delta;
+					} else {
+						matchMin[j] -= delta;
+					}
+				}
+				j0 = j1;
+			} while (matchP[j0] != 0);
+			do {
+				int j1 = matchWay[j0];
+				matchP[j0] = matchP[j1];
+				j0 = j1;
+			} while (j0 != 0);
+		}
+
+		long total = -matchV[0];
+		return total >= NO_MATCH ? UNSOLVABLE : (int) total;
+	}
+
+	private long matchCost(int box, int goalIndex) {
+		int distance = board.getPushDistance(goalIndex, box);
+		return distance == Board.INFINITE ? NO_MATCH : distance;
+	}
+
+	/**
+	 * Returns true if all the boxes of the node are on goals.
+	 */
+	private boolean isSolved(int node) {
+		int offset = node * boxCount;
+		for (int i = 0; i < boxCount; i++) {
+			if (!board.isGoal(nodeBoxes[offset + i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Packs the state of the node into the packed state array.
+	 *
+	 * @return the packed state array
+	 */
+	private byte[] pack(int node) {
+		return pack(nodeBoxes, node * boxCount, nodePlayer[node]);
+	}
+
+	/**
+	 * Packs the boxes and Kara's cell into the packed state array.
+	 *
+	 * @return the packed state array
+	 */
+	private byte[] pack(int[] boxes, int offset, int player) {
+		Arrays.fill(packedState, (byte) 0);
+		for (int b = 0; b < boxCount; b++) {
+			int box = boxes[offset + b];
+			packedState[box >> 3] |= 1 << (box & 7);
+		}
+		packedState[stateBytes - 2] = (byte) (player >> 8);
+		packedState[stateBytes - 1] = (byte) player;
+		return packedState;
+	}
+
+	/**
+	 * Moves all the states into a table with twice the capacity. Later nodes
+	 * for the same state replace the earlier ones, like in the search.
+	 */
+	private void growTable() {
+		int capacity = table.getCapacity() * 2;
+		// let the old table be collected before the new one is allocated
+		table = null;
+		table = new StateTable(capacity, stateBytes);
+		for (int node = 0; node < nodeCount; node++) {
+			table.put(pack(node), hash(node), node);
+		}
+	}
+
+	private long hash(int node) {
+		return nodeBoxHash[node] ^ playerKeys[nodePlayer[node]];
+	}
+
+	/**
+	 * Adds a node and returns its index.
+	 */
+	private int addNode(int[] boxes, int player, int parent, int cost,
+			int estimate, int push, long boxHash) {
+		if (nodeCount == nodePlayer.length) {
+			int capacity = (int) Math.min((long) nodeLimit, nodeCount * 2L);
+			nodeBoxes = Arrays.copyOf(nodeBoxes, capacity * boxCount);
+			nodePlayer = Arrays.copyOf(nodePlayer, capacity);
+			nodeParent = Arrays.copyOf(nodeParent, capacity);
+			nodeCost = Arrays.copyOf(nodeCost, capacity);
+			nodeEstimate = Arrays.copyOf(nodeEstimate, capacity);
+			nodePush = Arrays.copyOf(nodePush, capacity);
+			nodeBoxHash = Arrays.copyOf(nodeBoxHash, capacity);
+		}
+		int node = nodeCount++;
+		System.arraycopy(boxes, 0, nodeBoxes, node * boxCount, boxCount);
+		nodePlayer[node] = player;
+		nodeParent[node] = parent;
+		nodeCost[node] = cost;
+		nodeEstimate[node] = cost + estimate;
+		nodePush[node] = push;
+		nodeBoxHash[node] = boxHash;
+		return node;
+	}
+
+	/**
+	 * Returns true if node a should be expanded before node b.
+	 */
+	private boolean before(int a, int b) {
+		if (nodeEstimate[a] != nodeEstimate[b]) {
+			return nodeEstimate[a] < nodeEstimate[b];
+		}
+		// prefer the deeper node, it is probably closer to the solution
+		return nodeCost[a] > nodeCost[b];
+	}
+
+	private void push(int node) {
+		if (heapSize == heap.length) {
+			heap = Arrays.copyOf(heap, heap.length * 2);
+		}
+		int i = heapSize++;
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (!before(node, heap[parent])) {
+				break;
+			}
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = node;
+	}
+
+	private int pop() {
+		int result = heap[0];
+		int last = heap[--heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && before(heap[child + 1], heap[child])) {
+				child++;
+			}
+			if (!before(heap[child], last)) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		if (heapSize > 0) {
+			heap[i] = last;
+		}
+		return result;
+	}
+
+	/**
+	 * Creates the solution in LURD notation from the start to the node.
+	 */
+	private String createSolution(int node) {
+		int length = 0;
+		for (int n = node; nodeParent[n] != -1; n = nodeParent[n]) {
+			length++;
+		}
+		int[] path = new int[length];
+		for (int n = node, i = length - 1; nodeParent[n] != -1; n = nodeParent[n], i--) {
+			path[i] = n;
+		}
+
+		StringBuilder solution = new StringBuilder();
+		int player = board.getStartPlayer();
+		int[] pathBoxes = new int[boxCount];
+		int[] previous = new int[cells];
+		for (int n : path) {
+			System.arraycopy(nodeBoxes, nodeParent[n] * boxCount, pathBoxes, 0, boxCount);
+			markBoxes(pathBoxes);
+			int box = nodePush[n] >> 2;
+			int d = nodePush[n] & 3;
+			int behind = neighbours[Board.opposite(d)][box];
+			appendWalk(solution, player, behind, previous);
+			solution.append(Board.PUSH_CHARS[d]);
+			player = box;
+		}
+		return solution.toString();
+	}
+
+	/**
+	 * Appends the shortest walk from start to target. The boxes must be marked
+	 * with the current stamp.
+	 */
+	private void appendWalk(StringBuilder solution, int start, int target,
+			int[] previous) {
+		if (start == target) {
+			return;
+		}
+		int boxStampValue = stamp;
+		int visit = ++stamp;
+		int count = 0;
+		queue[count++] = start;
+		visitStamp[start] = visit;
+		for (int i = 0; i < count && visitStamp[target] != visit; i++) {
+			int cell = queue[i];
+			for (int d = 0; d < 4; d++) {
+				int next = neighbours[d][cell];
+				if (next != -1 && visitStamp[next] != visit
+						&& boxStamp[next] != boxStampValue) {
+					visitStamp[next] = visit;
+					previous[next] = d;
+					queue[count++] = next;
+				}
+			}
+		}
+
+		int length = solution.length();
+		for (int cell = target; cell != start;) {
+			int d = previous[cell];
+			solution.append(Board.MOVE_CHARS[d]);
+			cell = neighbours[Board.opposite(d)][cell];
+		}
+		// the walk was appended backwards
+		solution.replace(length, solution.length(),
+				new StringBuilder(solution.substring(length)).reverse().toString());
+	}
+
+	/**
+	 * Solves the levels of a level file and prints the results. <br>
+	 * Arguments: levelFile [-moves] [levelNumber...]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("Usage: Solver levelFile [-moves] [levelNumber...]");
+			return;
+		}
+		Level[] levels = Level.parseFromFile(args[0], null);
+		Mode mode = Mode.PUSHES;
+		boolean[] selected = new boolean[levels.length];
+		boolean all = true;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("-moves")) {
+				mode = Mode.MOVES;
+			} else {
+				int number = Integer.parseInt(args[i]);
+				if (number > 0 && number <= levels.length) {
+					selected[number - 1] = true;
+					all = false;
+				}
+			}
+		}
+
+		for (Level level : levels) {
+			if (all || selected[level.getLevelNumber() - 1]) {
+				Solver solver = new Solver(level);
+				solver.setMode(mode);
+				SolverResult result = solver.solve();
+				System.out.println("Level " + level.getLevelNumber() + ": " + result);
+				if (result.isSolved()) {
+					System.out.println(result.getSolution());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package kara.gamegrid.sokoban.solver;
+
+/**
+ * The result of a {@link Solver} run.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+public class SolverResult {
+
+	/**
+	 * The outcome of the search.
+	 */
+	public enum Status {
+		/** A solution was found. */
+		SOLVED,
+		/** The whole search space was searched without a solution. */
+		UNSOLVABLE,
+		/** The node or time limit was reached. */
+		LIMIT_REACHED,
+		/** The search was cancelled. */
+		CANCELLED
+	}
+
+	private final Status status;
+	private final Solver.Mode mode;
+	private final String solution;
+	private final int pushes;
+	private final int moves;
+	private final int exploredNodes;
+	private final int generatedNodes;
+	private final long timeMillis;
+
+	SolverResult(Status status, Solver.Mode mode, String solution,
+			int exploredNodes, int generatedNodes, long timeMillis) {
+		this.status = status;
+		this.mode = mode;
+		this.solution = solution;
+		this.exploredNodes = exploredNodes;
+		this.generatedNodes = generatedNodes;
+		this.timeMillis = timeMillis;
+
+		int pushCount = 0;
+		if (solution != null) {
+			for (int i = 0; i < solution.length(); i++) {
+				if (Character.isUpperCase(solution.charAt(i))) {
+					pushCount++;
+				}
+			}
+		}
+		this.pushes = solution != null ? pushCount : -1;
+		this.moves = solution != null ? solution.length() : -1;
+	}
+
+	/**
+	 * Returns the outcome of the search.
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns true if a solution was found.
+	 */
+	public boolean isSolved() {
+		return status == Status.SOLVED;
+	}
+
+	/**
+	 * Returns the mode of the search, i.e. if the number of pushes or the
+	 * number of moves is optimal.
+	 */
+	public Solver.Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Returns the solution in LURD notation (lower case letters are walks,
+	 * upper case letters are pushes) or <code>null</code> if not solved.
+	 */
+	public String getSolution() {
+		return solution;
+	}
+
+	/**
+	 * Returns the number of pushes of the solution or -1 if not solved.
+	 */
+	public int getPushes() {
+		return pushes;
+	}
+
+	/**
+	 * Returns the number of moves (walks and pushes) of the solution or -1 if
+	 * not solved.
+	 */
+	public int getMoves() {
+		return moves;
+	}
+
+	/**
+	 * Returns the number of states that were expanded.
+	 */
+	public int getExploredNodes() {
+		return exploredNodes;
+	}
+
+	/**
+	 * Returns the number of states that were created.
+	 */
+	public int getGeneratedNodes() {
+		return generatedNodes;
+	}
+
+	/**
+	 * Returns the time the search took in milliseconds.
+	 */
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder buf = new StringBuilder();
+		buf.append(status);
+		if (isSolved()) {
+			buf.append(" pushes=").append(pushes).append(" moves=")
+					.append(moves);
+		}
+		buf.append(" nodes=").append(exploredNodes).append('/')
+				.append(generatedNodes).append(" time=").append(timeMillis)
+				.append("ms");
+		return buf.toString();
+	}
+}
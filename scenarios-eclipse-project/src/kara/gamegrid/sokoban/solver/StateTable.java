@@ -0,0 +1,194 @@
+package kara.gamegrid.sokoban.solver;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A hash table from packed states to int values (the index of the best node
+ * for the state). The states are stored outside of the Java heap in a direct
+ * buffer, so millions of states don't slow down the garbage collector.
+ * <p>
+ * A state is packed by the {@link Solver} as a bitset of the mushroom cells
+ * followed by the normalized cell of Kara. The table compares the packed
+ * bytes, so two different states are never mixed up, even if their hashes are
+ * the same.
+ * <p>
+ * The table has a fixed capacity. It can be cleared and reused for the next
+ * level as long as the states of that level are not bigger than the maximal
+ * state size. The table is not thread-safe, each solver thread uses its own
+ * table.
+ *
+ * @author Marco Jakob (http://edu.makery.ch)
+ */
+class StateTable {
+	/**
+	 * Marks an empty slot. Fingerprints are never 0.
+	 */
+	private static final long EMPTY = 0;
+
+	private final int capacity;
+	private final int mask;
+	private final int maxSize;
+	private final int maxStateBytes;
+	private final long[] fingerprints;
+	private final ByteBuffer entries;
+
+	private int size;
+
+	private int stateBytes;
+	private int entryBytes;
+
+	/**
+	 * Creates an empty table.
+	 *
+	 * @param capacity
+	 *            the number of slots (rounded up to a power of two), up to
+	 *            three quarters of them can be used
+	 * @param maxStateBytes
+	 *            the maximal size of a packed state
+	 */
+	StateTable(int capacity, int maxStateBytes) {
+		this.capacity = Integer.highestOneBit(Math.max(16, capacity) - 1) << 1;
+		if ((long) this.capacity * (4 + maxStateBytes) > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("The state table is too big");
+		}
+		this.mask = this.capacity - 1;
+		this.maxSize = this.capacity / 4 * 3;
+		this.maxStateBytes = maxStateBytes;
+		fingerprints = new long[this.capacity];
+		entries = ByteBuffer.allocateDirect(this.capacity * (4 + maxStateBytes));
+		stateBytes = maxStateBytes;
+		entryBytes = 4 + maxStateBytes;
+	}
+
+	/**
+	 * Returns the number of bytes the table needs per slot for states of the
+	 * size.
+	 */
+	static int getBytesPerSlot(int stateBytes) {
+		return 8 + 4 + stateBytes;
+	}
+
+	/**
+	 * Removes all the states. The states after the clear have the specified
+	 * size.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the states are bigger than the maximal state size.
+	 */
+	void clear(int stateBytes) {
+		if (stateBytes > maxStateBytes) {
+			throw new IllegalArgumentException("States with " + stateBytes
+					+ " bytes don't fit into the table (max. " + maxStateBytes + ")");
+		}
+		Arrays.fill(fingerprints, EMPTY);
+		size = 0;
+		this.stateBytes = stateBytes;
+		this.entryBytes = 4 + stateBytes;
+	}
+
+	/**
+	 * Returns the value for the state or -1 if the state is not in the table.
+	 */
+	int get(byte[] state, long hash) {
+		long fingerprint = fingerprint(hash);
+		for (int slot = slot(hash);; slot = (slot + 1) & mask) {
+			long key = fingerprints[slot];
+			if (key == EMPTY) {
+				return -1;
+			}
+			if (key == fingerprint && equalsState(slot, state)) {
+				return entries.getInt(slot * entryBytes);
+			}
+		}
+	}
+
+	/**
+	 * Stores (or replaces) the value for the state.
+	 *
+	 * @return the previous value or -1 if the state was added
+	 * @throws IllegalStateException
+	 *             if the table is full.
+	 */
+	int put(byte[] state, long hash, int value) {
+		long fingerprint = fingerprint(hash);
+		for (int slot = slot(hash);; slot = (slot + 1) & mask) {
+			long key = fingerprints[slot];
+			if (key == EMPTY) {
+				if (size >= maxSize) {
+					throw new IllegalStateException("The state table is full");
+				}
+				int offset = slot * entryBytes;
+				entries.putInt(offset, value);
+				for (int i = 0; i < stateBytes; i++) {
+					entries.put(offset + 4 + i, state[i]);
+				}
+				fingerprints[slot] = fingerprint;
+				size++;
+				return -1;
+			}
+			if (key == fingerprint && equalsState(slot, state)) {
+				int offset = slot * entryBytes;
+				int previous = entries.getInt(offset);
+				entries.putInt(offset, value);
+				return previous;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of states.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns true if no more states can be added.
+	 */
+	boolean isFull() {
+		return size >= maxSize;
+	}
+
+	/**
+	 * Returns the number of slots.
+	 */
+	int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of bytes of the table (direct buffer and
+	 * fingerprints).
+	 */
+	long getBytes() {
+		return (long) capacity * getBytesPerSlot(maxStateBytes);
+	}
+
+	/**
+	 * Returns the maximal size of a packed state.
+	 */
+	int getMaxStateBytes() {
+		return maxStateBytes;
+	}
+
+	private boolean equalsState(int slot, byte[] state) {
+		int offset = slot * entryBytes + 4;
+		for (int i = 0; i < stateBytes; i++) {
+			if (entries.get(offset + i) != state[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long fingerprint(long hash) {
+		// never EMPTY
+		return hash == EMPTY ? 1 : hash;
+	}
+
+	private int slot(long hash) {
+		// the Zobrist hash is already well mixed
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+}